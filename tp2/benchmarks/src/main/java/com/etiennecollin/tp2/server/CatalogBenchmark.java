@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import com.etiennecollin.tp2.server.models.Course;
+import com.etiennecollin.tp2.server.protocol.Protocol;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the parsing of the courses file and the replies to the {@link Server#LOAD_COMMAND CHARGER} command, as
+ * written by {@code ClientHandler.handleLoadCourses} in each protocol.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatalogBenchmark {
+    /**
+     * The number of courses of the catalog.
+     */
+    @Param({"100", "10000"})
+    public int courses;
+    /**
+     * The lines of the courses file.
+     */
+    private List<String> lines;
+    /**
+     * The directory containing the courses file loaded by the catalog.
+     */
+    private Path dataDirectory;
+
+    /**
+     * Writes the courses file and loads it in the catalog.
+     *
+     * @throws IOException If the courses file cannot be written.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        lines = Fixtures.courseLines(courses);
+        dataDirectory = Files.createTempDirectory("catalog-benchmark");
+        Files.write(dataDirectory.resolve("courses.txt"), lines, StandardCharsets.UTF_8);
+        CourseCatalog.start(dataDirectory);
+    }
+
+    /**
+     * Deletes the courses file.
+     *
+     * @throws IOException If the courses file cannot be deleted.
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        Fixtures.delete(dataDirectory);
+    }
+
+    /**
+     * Parses the lines of the courses file.
+     *
+     * @return The parsed courses.
+     *
+     * @throws StreamCorruptedException If the courses file is malformed.
+     */
+    @Benchmark
+    public List<Course> parse() throws StreamCorruptedException {
+        return CourseCatalog.parse(lines, new HashMap<>());
+    }
+
+    /**
+     * Writes every course of the catalog to the client.
+     *
+     * @param client The client.
+     *
+     * @throws IOException If the reply cannot be written.
+     */
+    @Benchmark
+    public void loadCourses(Client client) throws IOException {
+        client.codec.writeCourses(client.request, CourseCatalog.getPartition(""));
+    }
+
+    /**
+     * Writes the courses of a semester to the client.
+     *
+     * @param client The client.
+     *
+     * @throws IOException If the reply cannot be written.
+     */
+    @Benchmark
+    public void loadSemester(Client client) throws IOException {
+        client.codec.writeCourses(client.request, CourseCatalog.getPartition("Hiver"));
+    }
+
+    /**
+     * A client loading the courses, whose output is discarded.
+     */
+    @State(Scope.Thread)
+    public static class Client {
+        /**
+         * The protocol spoken by the client: {@code object}, {@code binary}, or {@code deflate} for the binary
+         * protocol with compression.
+         */
+        @Param({"object", "binary", "deflate"})
+        public String protocol;
+        /**
+         * The codec writing the replies to the client.
+         */
+        private ClientCodec codec;
+        /**
+         * The load request.
+         */
+        private Request request;
+
+        /**
+         * Performs the handshake of the codec and reads the load request.
+         *
+         * @throws IOException            If the handshake fails.
+         * @throws ClassNotFoundException If the load request cannot be read.
+         */
+        @Setup
+        public void setUp() throws IOException, ClassNotFoundException {
+            codec = ClientCodec.open(new ByteArrayInputStream(handshake(protocol)), OutputStream.nullOutputStream());
+            request = codec.readRequest();
+        }
+
+        /**
+         * Builds the bytes sent by a client opening a connection in the given protocol, then loading the courses. The
+         * binary codec reads the capabilities accepted by the client along with its first request.
+         *
+         * @param protocol The protocol.
+         *
+         * @return The handshake of the client, followed by the load request.
+         *
+         * @throws IOException If the handshake cannot be built.
+         */
+        private static byte[] handshake(String protocol) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            if (protocol.equals("object")) {
+                ObjectOutputStream output = new ObjectOutputStream(bytes);
+                output.writeObject(Server.LOAD_COMMAND);
+                output.flush();
+            } else {
+                DataOutputStream output = new DataOutputStream(bytes);
+                output.writeInt(Protocol.MAGIC);
+                output.writeByte(Protocol.VERSION);
+                output.writeByte(protocol.equals("deflate") ? Protocol.DEFLATE : 0);
+                Protocol.writeFrame(output, Protocol.VERSION, Protocol.LOAD, 1, Protocol.encodeString(""));
+            }
+            return bytes.toByteArray();
+        }
+    }
+}
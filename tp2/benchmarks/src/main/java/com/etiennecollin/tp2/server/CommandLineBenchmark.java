@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the splitting of the command lines of the requests into their command and argument, and the lookup of the
+ * handler of their command in a {@link CommandRegistry}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandLineBenchmark {
+    /**
+     * The command line of the request.
+     */
+    @Param({"INSCRIRE", "CHARGER Hiver", "CHARGER_PAGE 0 100 Automne", "RECHERCHER structures de donnees"})
+    public String line;
+    /**
+     * The registry of the commands of the server, whose handlers do nothing.
+     */
+    private CommandRegistry commands;
+    /**
+     * The request of the command line.
+     */
+    private Request request;
+
+    /**
+     * Subscribes a handler to every command of the server and parses the command line.
+     */
+    @Setup
+    public void setUp() {
+        CommandRegistry.Builder builder = new CommandRegistry.Builder();
+        for (String command : new String[]{Server.REGISTER_COMMAND, Server.REGISTER_BATCH_COMMAND, Server.LOAD_COMMAND, Server.LOAD_PAGE_COMMAND, Server.LOAD_STREAM_COMMAND, Server.LOAD_IF_MODIFIED_COMMAND, Server.SEARCH_COMMAND, Server.STATS_COMMAND, Server.DISCONNECT_COMMAND}) {
+            builder.subscribe(command, RateLimiter.Budget.READ, (client, request, cmd, arg) -> {
+            });
+        }
+        commands = builder.build();
+        request = Request.parse(line, 0, null);
+    }
+
+    /**
+     * Splits the command line.
+     *
+     * @return The request holding the command and its argument.
+     */
+    @Benchmark
+    public Request parse() {
+        return Request.parse(line, 0, null);
+    }
+
+    /**
+     * Finds the handler of the command of the request.
+     *
+     * @return The registered command.
+     */
+    @Benchmark
+    public CommandRegistry.Command find() {
+        return commands.find(request.getCommand());
+    }
+}
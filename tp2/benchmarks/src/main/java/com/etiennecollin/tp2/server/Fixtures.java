@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import com.etiennecollin.tp2.server.models.Course;
+import com.etiennecollin.tp2.server.models.RegistrationForm;
+import com.etiennecollin.tp2.server.models.Student;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The Fixtures class builds the data measured by the benchmarks, shaped like the data files of the server.
+ */
+final class Fixtures {
+    /**
+     * The semesters during which the generated courses are offered.
+     */
+    private static final String[] SEMESTERS = {"Automne", "Hiver", "Ete"};
+    /**
+     * The prefixes of the codes of the generated courses.
+     */
+    private static final String[] PREFIXES = {"IFT", "MAT", "STT", "PHY"};
+
+    /**
+     * Prevents the instantiation of the class.
+     */
+    private Fixtures() {
+    }
+
+    /**
+     * Generates the lines of a courses file. Every tenth course has a limited number of seats.
+     *
+     * @param count The number of courses.
+     *
+     * @return The lines of the courses file, of the form {@code code\tname\tsemester[\tcapacity]}.
+     */
+    static List<String> courseLines(int count) {
+        ArrayList<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String line = code(i) + "\tProgrammation et structures de donnees " + i + "\t" + SEMESTERS[i % SEMESTERS.length];
+            lines.add(i % 10 == 0 ? line + "\t" + (50 + i % 200) : line);
+        }
+        return lines;
+    }
+
+    /**
+     * Generates courses.
+     *
+     * @param count The number of courses.
+     *
+     * @return The courses.
+     */
+    static ArrayList<Course> courses(int count) {
+        ArrayList<Course> courses = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            courses.add(new Course("Programmation et structures de donnees " + i, code(i), SEMESTERS[i % SEMESTERS.length]));
+        }
+        return courses;
+    }
+
+    /**
+     * Generates a valid registration form.
+     *
+     * @param index The index of the student, which makes the student ID unique.
+     *
+     * @return The registration form.
+     */
+    static RegistrationForm form(int index) {
+        Student student = new Student("Etienne", "Collin", "etienne.collin@umontreal.ca", String.format("%08d", 20000000 + index));
+        return new RegistrationForm(student, new Course("Programmation 2", "IFT1025", "Hiver"));
+    }
+
+    /**
+     * Deletes a directory and its content.
+     *
+     * @param directory The directory.
+     *
+     * @throws IOException If a file cannot be deleted.
+     */
+    static void delete(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Returns the code of a generated course.
+     *
+     * @param index The index of the course.
+     *
+     * @return The code of the course.
+     */
+    private static String code(int index) {
+        return PREFIXES[index % PREFIXES.length] + String.format("%04d", index);
+    }
+}
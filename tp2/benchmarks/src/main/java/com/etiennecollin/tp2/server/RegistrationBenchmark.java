@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import com.etiennecollin.tp2.server.models.RegistrationForm;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the path of a registration to the disk: the encoding of the records and their append to the
+ * {@link RegistrationJournal registrations journal}, which waits until they are saved.
+ * <p>
+ * Running the benchmark with many threads ({@code -t}) shows how the journal gathers the concurrent registrations in
+ * batches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistrationBenchmark {
+    /**
+     * The number of registration forms appended at once.
+     */
+    @Param({"1", "100"})
+    public int batch;
+    /**
+     * When the journal is synchronized with the disk, as the name of a {@link ServerConfig.SyncPolicy}.
+     */
+    @Param({"NONE", "BATCH"})
+    public String sync;
+    /**
+     * The registration forms.
+     */
+    private List<RegistrationForm> forms;
+    /**
+     * The directory containing the registrations log.
+     */
+    private Path dataDirectory;
+
+    /**
+     * Builds the registration forms and starts the journal in an empty directory.
+     *
+     * @throws IOException If the journal cannot be started.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        ArrayList<RegistrationForm> forms = new ArrayList<>(batch);
+        for (int i = 0; i < batch; i++) {
+            forms.add(Fixtures.form(i));
+        }
+        this.forms = List.copyOf(forms);
+
+        dataDirectory = Files.createTempDirectory("registration-benchmark");
+        RegistrationJournal.start(dataDirectory, ServerConfig.SyncPolicy.valueOf(sync), 10, 64L << 20);
+    }
+
+    /**
+     * Deletes the registrations log.
+     *
+     * @throws IOException If the log cannot be deleted.
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        Fixtures.delete(dataDirectory);
+    }
+
+    /**
+     * Encodes the registration forms as records of the registrations log.
+     *
+     * @return The records.
+     *
+     * @throws IOException If a field of a form is too long to be encoded.
+     */
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return RegistrationLog.encode(forms, RegistrationLog.REGISTERED);
+    }
+
+    /**
+     * Appends the registration forms to the journal and waits until they are saved.
+     *
+     * @throws IOException If the registrations cannot be saved.
+     */
+    @Benchmark
+    public void append() throws IOException {
+        RegistrationJournal.append(forms, RegistrationLog.REGISTERED);
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import com.etiennecollin.tp2.server.models.Course;
+import com.etiennecollin.tp2.server.models.RegistrationForm;
+import com.etiennecollin.tp2.server.protocol.Protocol;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the encoding and decoding of the lists of courses and of the registration forms, with Java serialization
+ * as done by the object stream protocol and with the {@link Protocol binary protocol}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+    /**
+     * The number of courses of the list.
+     */
+    @Param({"100", "10000"})
+    public int size;
+    /**
+     * The list of courses.
+     */
+    private ArrayList<Course> courses;
+    /**
+     * The registration form.
+     */
+    private RegistrationForm form;
+    /**
+     * The list of courses serialized by an object stream.
+     */
+    private byte[] serializedCourses;
+    /**
+     * The list of courses encoded by the binary protocol.
+     */
+    private byte[] encodedCourses;
+    /**
+     * The registration form serialized by an object stream.
+     */
+    private byte[] serializedForm;
+    /**
+     * The registration form encoded by the binary protocol.
+     */
+    private byte[] encodedForm;
+
+    /**
+     * Builds the list of courses and the registration form, and encodes them in each format.
+     *
+     * @throws IOException If they cannot be encoded.
+     */
+    @Setup
+    public void setUp() throws IOException {
+        courses = Fixtures.courses(size);
+        form = Fixtures.form(0);
+        serializedCourses = serializeCourses();
+        encodedCourses = encodeCourses();
+        serializedForm = serializeForm();
+        encodedForm = encodeForm();
+    }
+
+    /**
+     * Serializes the list of courses with an object stream.
+     *
+     * @return The serialized courses.
+     *
+     * @throws IOException If the courses cannot be serialized.
+     */
+    @Benchmark
+    public byte[] serializeCourses() throws IOException {
+        return serialize(courses);
+    }
+
+    /**
+     * Encodes the list of courses with the binary protocol.
+     *
+     * @return The encoded courses.
+     */
+    @Benchmark
+    public byte[] encodeCourses() {
+        return Protocol.encodeCourses(courses);
+    }
+
+    /**
+     * Deserializes the list of courses from an object stream.
+     *
+     * @return The courses.
+     *
+     * @throws IOException            If the courses cannot be deserialized.
+     * @throws ClassNotFoundException If the class of the courses cannot be found.
+     */
+    @Benchmark
+    public Object deserializeCourses() throws IOException, ClassNotFoundException {
+        return deserialize(serializedCourses);
+    }
+
+    /**
+     * Decodes the list of courses encoded with the binary protocol.
+     *
+     * @return The courses.
+     *
+     * @throws IOException If the courses cannot be decoded.
+     */
+    @Benchmark
+    public ArrayList<Course> decodeCourses() throws IOException {
+        return Protocol.readCourses(new DataInputStream(new ByteArrayInputStream(encodedCourses)));
+    }
+
+    /**
+     * Serializes the registration form with an object stream.
+     *
+     * @return The serialized form.
+     *
+     * @throws IOException If the form cannot be serialized.
+     */
+    @Benchmark
+    public byte[] serializeForm() throws IOException {
+        return serialize(form);
+    }
+
+    /**
+     * Encodes the registration form with the binary protocol.
+     *
+     * @return The encoded form.
+     *
+     * @throws IOException If the form cannot be encoded.
+     */
+    @Benchmark
+    public byte[] encodeForm() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        Protocol.writeRegistrationForm(new DataOutputStream(bytes), form);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Deserializes the registration form from an object stream.
+     *
+     * @return The form.
+     *
+     * @throws IOException            If the form cannot be deserialized.
+     * @throws ClassNotFoundException If the class of the form cannot be found.
+     */
+    @Benchmark
+    public Object deserializeForm() throws IOException, ClassNotFoundException {
+        return deserialize(serializedForm);
+    }
+
+    /**
+     * Decodes the registration form encoded with the binary protocol.
+     *
+     * @return The form.
+     *
+     * @throws IOException If the form cannot be decoded.
+     */
+    @Benchmark
+    public RegistrationForm decodeForm() throws IOException {
+        return Protocol.readRegistrationForm(new DataInputStream(new ByteArrayInputStream(encodedForm)));
+    }
+
+    /**
+     * Serializes an object with an object stream.
+     *
+     * @param object The object.
+     *
+     * @return The serialized object.
+     *
+     * @throws IOException If the object cannot be serialized.
+     */
+    private static byte[] serialize(Serializable object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Deserializes an object from an object stream.
+     *
+     * @param bytes The serialized object.
+     *
+     * @return The object.
+     *
+     * @throws IOException            If the object cannot be deserialized.
+     * @throws ClassNotFoundException If the class of the object cannot be found.
+     */
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return input.readObject();
+        }
+    }
+}
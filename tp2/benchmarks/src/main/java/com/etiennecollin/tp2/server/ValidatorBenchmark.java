@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import com.etiennecollin.tp2.server.models.Validator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the validation of the emails and the student IDs of the registration forms.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidatorBenchmark {
+    /**
+     * A valid email.
+     */
+    private String validEmail = "etienne.collin@umontreal.ca";
+    /**
+     * An invalid email, which fails late in the pattern.
+     */
+    private String invalidEmail = "etienne.collin@umontreal.c";
+    /**
+     * A valid student ID.
+     */
+    private String validStudentID = "20237904";
+    /**
+     * An invalid student ID.
+     */
+    private String invalidStudentID = "2023790A";
+
+    /**
+     * Validates a valid email.
+     *
+     * @return Whether the email is valid.
+     */
+    @Benchmark
+    public boolean validEmail() {
+        return Validator.isEmailValid(validEmail);
+    }
+
+    /**
+     * Validates an invalid email.
+     *
+     * @return Whether the email is valid.
+     */
+    @Benchmark
+    public boolean invalidEmail() {
+        return Validator.isEmailValid(invalidEmail);
+    }
+
+    /**
+     * Validates a valid student ID.
+     *
+     * @return Whether the student ID is valid.
+     */
+    @Benchmark
+    public boolean validStudentID() {
+        return Validator.isStudentIDValid(validStudentID);
+    }
+
+    /**
+     * Validates an invalid student ID.
+     *
+     * @return Whether the student ID is valid.
+     */
+    @Benchmark
+    public boolean invalidStudentID() {
+        return Validator.isStudentIDValid(invalidStudentID);
+    }
+}
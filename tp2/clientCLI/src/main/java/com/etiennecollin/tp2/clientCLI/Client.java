@@ -6,15 +6,21 @@ package com.etiennecollin.tp2.clientCLI;
 
 import com.etiennecollin.tp2.server.models.Course;
 import com.etiennecollin.tp2.server.models.RegistrationForm;
+import com.etiennecollin.tp2.server.models.RegistrationResult;
 import com.etiennecollin.tp2.server.models.Student;
+import com.etiennecollin.tp2.server.protocol.ServerConnection;
+import com.etiennecollin.tp2.server.protocol.ServerErrorException;
 
 import java.io.IOException;
 import java.io.InterruptedIOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
 
 import static com.etiennecollin.tp2.clientCLI.ClientLauncher.*;
 import static com.etiennecollin.tp2.server.Server.*;
@@ -26,8 +32,8 @@ import static com.etiennecollin.tp2.server.models.Validator.isStudentIDValid;
  * <p>
  * The client can send registration forms, load courses for a specific semester, and disconnect from the server.
  * The client is run using the static method {@link #run(int) run()}, which connects the client to the server and then
- * allows the user to input commands that are sent to the server. The client uses object input/output streams to
- * communicate with the server.
+ * allows the user to input commands that are sent to the server. The client communicates with the server through a
+ * {@link ServerConnection}, which speaks the binary protocol when the server supports it.
  */
 public class Client {
     /**
@@ -35,17 +41,13 @@ public class Client {
      */
     private static final String[] semesters = new String[]{"Automne", "Hiver", "Ete"};
     /**
-     * Represents the client socket.
+     * The maximum number of registration forms sent to the server in a single batch.
      */
-    private static Socket client;
+    private static final int BATCH_SIZE = 5000;
     /**
-     * Represents the input stream of the client socket.
+     * Represents the connection to the server.
      */
-    private static ObjectInputStream objectInputStream;
-    /**
-     * Represents the output stream of the client socket.
-     */
-    private static ObjectOutputStream objectOutputStream;
+    private static ServerConnection server;
     /**
      * Used to tell the client whether to disconnect from the server or not
      */
@@ -56,18 +58,13 @@ public class Client {
      *
      * @param port The port number of the server to connect to.
      *
-     * @throws IOException            If the methods {@link #listen() listen()} or
-     *                                {@link #cleanup() cleanup()} throw the exception or when dealing with the client
-     *                                input/output streams.
-     * @throws ClassNotFoundException If the method {@link #listen() listen()} throws the exception.
+     * @throws IOException If the methods {@link #listen() listen()} or {@link #cleanup() cleanup()} throw the exception
+     *                     or when connecting to the server.
      */
-    static void run(int port) throws IOException, ClassNotFoundException {
+    static void run(int port) throws IOException {
         // Connect to the server
-        client = new Socket("localhost", port);
-
-        // Create streams to write/read to/from the server
-        objectOutputStream = new ObjectOutputStream(client.getOutputStream());
-        objectInputStream = new ObjectInputStream(client.getInputStream());
+        server = ServerConnection.open("localhost", port);
+        System.out.println(CLIENT + "Connected to the server using the " + server.getProtocolName() + " protocol.");
 
         // Continuously get user to input commands
         while (!doDisconnect) {
@@ -81,14 +78,13 @@ public class Client {
     /**
      * Gets the user input command and processes, it if it is valid, before passing it to the server.
      *
-     * @throws IOException            If the methods {@link #register(Scanner) register()},
-     *                                {@link #getCourses(String[]) getCourses()} or {@link #disconnect() disconnect()}
-     *                                throw the exception, or if an I/O error occurs when dealing
-     *                                with the client input/output streams.
-     * @throws ClassNotFoundException If the methods {@link #register(Scanner) register()} or
-     *                                {@link #getCourses(String[]) getCourses()} throw the exception.
+     * @throws IOException If the methods {@link #register(Scanner) register()},
+     *                     {@link #printCourses(String[]) printCourses()},
+     *                     {@link #searchCourses(String[]) searchCourses()} or {@link #disconnect() disconnect()} throw
+     *                     the exception, or if the statistics of the server cannot be received or the server cannot be
+     *                     shut down.
      */
-    private static void listen() throws IOException, ClassNotFoundException {
+    private static void listen() throws IOException {
         // Read and parse user input
         Scanner scanner = new Scanner(System.in);
 
@@ -104,16 +100,28 @@ public class Client {
                 String serverAnswer = register(scanner);
                 // Print server answer
                 System.out.println("\n" + CLIENT_SUCCESS + serverAnswer + "\n");
+            } else if (command[0].equalsIgnoreCase(REGISTER_BATCH_COMMAND)) {
+                registerAll(command);
             } else if (command[0].equalsIgnoreCase(LOAD_COMMAND)) {
-                ArrayList<Course> courses = getCourses(command);
-                // Print available courses if there are any
+                printCourses(command);
+            } else if (command[0].equalsIgnoreCase(SEARCH_COMMAND)) {
+                ArrayList<Course> courses = searchCourses(command);
+                // Print matching courses if there are any
                 if (!courses.isEmpty()) {
-                    System.out.println("\n" + CLIENT_SUCCESS + "Available courses:");
+                    System.out.println("\n" + CLIENT_SUCCESS + "Matching courses:");
                     for (Course course : courses) {
                         System.out.println("\t" + course.getSemester() + "\t" + course.getCode() + "\t" + course.getName());
                     }
                     System.out.println();
                 }
+            } else if (command[0].equalsIgnoreCase(STATS_COMMAND)) {
+                // Print the statistics of the server
+                System.out.println("\n" + CLIENT_SUCCESS + "Server statistics:\n" + server.getStats());
+            } else if (command[0].equalsIgnoreCase(SHUTDOWN_COMMAND)) {
+                // Shut the server down, which closes the connection
+                System.out.println("\n" + CLIENT_SUCCESS + server.shutdown() + "\n");
+                doDisconnect = true;
+                scanner.close();
             } else if (command[0].equalsIgnoreCase(DISCONNECT_COMMAND)) {
                 doDisconnect = true;
                 scanner.close();
@@ -128,18 +136,19 @@ public class Client {
         } catch (InterruptedIOException e) {
             // Case when the user interrupts the registration process
             System.out.println(e.getMessage());
+        } catch (ServerErrorException e) {
+            // Case when the server rejects the request
+            System.out.println(CLIENT_ERROR + e.getMessage());
         }
     }
 
     /**
-     * Closes the objectOutputStream, objectInputStream, and client.
+     * Closes the connection to the server.
      *
-     * @throws IOException If an I/O error occurs when closing the streams or the client socket.
+     * @throws IOException If an I/O error occurs when closing the connection.
      */
     private static void cleanup() throws IOException {
-        objectOutputStream.close();
-        objectInputStream.close();
-        client.close();
+        server.close();
     }
 
     /**
@@ -149,10 +158,9 @@ public class Client {
      *
      * @return The answer from the server.
      *
-     * @throws IOException            If the method {@link #courseSelectionMenu(Scanner) courseSelectionMenu()} throws the exception or if an I/O error occurs when dealing with the client input/output streams.
-     * @throws ClassNotFoundException If the method {@link #courseSelectionMenu(Scanner) courseSelectionMenu()} throws the exception or if the returned String by the server is invalid.
+     * @throws IOException If the method {@link #courseSelectionMenu(Scanner) courseSelectionMenu()} throws the exception or if the request fails.
      */
-    private static String register(Scanner scanner) throws IOException, ClassNotFoundException {
+    private static String register(Scanner scanner) throws IOException {
         System.out.println("\n" + CLIENT + "Welcome to the course registration portal of the UdeM.");
         Course course = courseSelectionMenu(scanner);
         Student student = createStudent(scanner);
@@ -160,16 +168,53 @@ public class Client {
         // Create form
         RegistrationForm form = new RegistrationForm(student, course);
 
-        // Send command to the server
-        objectOutputStream.writeObject(REGISTER_COMMAND);
-        objectOutputStream.flush();
+        // Send form to the server and get its answer
+        return server.register(form);
+    }
 
-        // Send form to the server
-        objectOutputStream.writeObject(form);
-        objectOutputStream.flush();
+    /**
+     * Registers the students listed in a file in batches, then prints the registrations rejected by the server.
+     * <p>
+     * Each line of the file describes a registration with the format of the registrations file of the server, that is
+     * {@code semester \t code \t studentID \t firstName \t lastName \t email}.
+     *
+     * @param command The batch registration command and the path of the file.
+     *
+     * @throws IOException              If the file cannot be read or if a request fails.
+     * @throws IllegalArgumentException If the command has an incorrect number of arguments.
+     */
+    private static void registerAll(String[] command) throws IOException, IllegalArgumentException {
+        if (command.length != 2) {
+            throw new IllegalArgumentException(CLIENT_ERROR + REGISTER_BATCH_COMMAND + " requires 1 argument specifying the file containing the registrations.");
+        }
+        List<String> lines = Files.readAllLines(Path.of(command[1]), StandardCharsets.UTF_8);
+
+        int registered = 0;
+        for (int start = 0; start < lines.size(); start += BATCH_SIZE) {
+            List<String> batch = lines.subList(start, Math.min(start + BATCH_SIZE, lines.size()));
+
+            // Create the forms
+            ArrayList<RegistrationForm> forms = new ArrayList<>(batch.size());
+            for (String line : batch) {
+                String[] tokens = line.split("\t", -1);
+                if (tokens.length != 6) {
+                    throw new IllegalArgumentException(CLIENT_ERROR + "The line `" + line + "` is not properly formatted. The format is `semester\tcode\tstudentID\tfirstName\tlastName\temail`.");
+                }
+                forms.add(new RegistrationForm(new Student(tokens[3], tokens[4], tokens[5], tokens[2]), new Course("", tokens[1], tokens[0])));
+            }
 
-        // Get the answer from the server
-        return (String) objectInputStream.readObject();
+            // Send the forms to the server and print the rejected ones
+            ArrayList<RegistrationResult> results = server.registerAll(forms);
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i).isSuccessful()) {
+                    registered++;
+                } else {
+                    System.out.println(CLIENT_ERROR + "Line " + (start + i + 1) + ": " + results.get(i).getMessage());
+                }
+            }
+        }
+
+        System.out.println("\n" + CLIENT_SUCCESS + "Registered " + registered + " of " + lines.size() + " students.\n");
     }
 
     /**
@@ -179,23 +224,19 @@ public class Client {
      *
      * @return A list containing the available courses.
      *
-     * @throws IOException              If an I/O error occurs when dealing with the client input/output streams.
+     * @throws IOException              If the request fails.
      * @throws IllegalArgumentException If the command has an incorrect number of arguments.
-     * @throws ClassNotFoundException   If the returned Course object by the server is invalid.
      */
-    private static ArrayList<Course> getCourses(String[] command) throws IOException, IllegalArgumentException, ClassNotFoundException {
-        // Send command to server
+    private static ArrayList<Course> getCourses(String[] command) throws IOException, IllegalArgumentException {
+        // Send command to server and get its reply
+        ArrayList<Course> courses;
         if (command.length == 1) {
-            objectOutputStream.writeObject(LOAD_COMMAND);
+            courses = server.loadCourses("");
         } else if (command.length == 2) {
-            objectOutputStream.writeObject(LOAD_COMMAND + " " + command[1]);
+            courses = server.loadCourses(command[1]);
         } else {
             throw new IllegalArgumentException(CLIENT_ERROR + LOAD_COMMAND + " requires a maximum of 1 argument specifying the semester to filter.");
         }
-        objectOutputStream.flush();
-
-        // Get server reply
-        ArrayList<Course> courses = (ArrayList<Course>) objectInputStream.readObject();
 
         // Check if there are available courses or not
         if (courses.isEmpty()) {
@@ -211,14 +252,84 @@ public class Client {
     }
 
     /**
-     * Disconnects the client from the server by sending a DISCONNECT_COMMAND to the server through the objectOutputStream.
+     * Prints the available courses with the option to filter for a specific semester.
+     * <p>
+     * The server sends the courses as a stream of pages, each printed as soon as it is received.
+     *
+     * @param command The load command and its optional argument.
+     *
+     * @throws IOException              If the request fails.
+     * @throws IllegalArgumentException If the command has an incorrect number of arguments.
+     */
+    private static void printCourses(String[] command) throws IOException, IllegalArgumentException {
+        if (command.length > 2) {
+            throw new IllegalArgumentException(CLIENT_ERROR + LOAD_COMMAND + " requires a maximum of 1 argument specifying the semester to filter.");
+        }
+        String semester = command.length == 2 ? command[1] : "";
+
+        // Print each page of available courses as it is received
+        int[] total = {0};
+        try {
+            server.streamCourses(semester, page -> {
+                if (page.getOffset() == 0 && page.getTotal() > 0) {
+                    System.out.println("\n" + CLIENT_SUCCESS + "Available courses:");
+                }
+                for (Course course : page.getCourses()) {
+                    System.out.println("\t" + course.getSemester() + "\t" + course.getCode() + "\t" + course.getName());
+                }
+                total[0] = page.getTotal();
+            }).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException(CLIENT_ERROR + "Interrupted while loading the courses.");
+        }
+
+        // Check if there are available courses or not
+        if (total[0] > 0) {
+            System.out.println();
+        } else if (semester.isEmpty()) {
+            System.out.println(CLIENT_ERROR + "No courses are available.");
+        } else {
+            System.out.println(CLIENT_ERROR + "No courses are available during the " + semester + " semester.");
+        }
+    }
+
+    /**
+     * Asks the server for the courses whose code starts with a query or whose name contains it.
+     *
+     * @param command The search command followed by the words of the query.
+     *
+     * @return A list containing the matching courses.
+     *
+     * @throws IOException              If the request fails.
+     * @throws IllegalArgumentException If no query is provided.
+     */
+    private static ArrayList<Course> searchCourses(String[] command) throws IOException, IllegalArgumentException {
+        String query = String.join(" ", Arrays.asList(command).subList(1, command.length)).strip();
+        if (query.isEmpty()) {
+            throw new IllegalArgumentException(CLIENT_ERROR + SEARCH_COMMAND + " requires an argument specifying the beginning of a course code or a part of a course name.");
+        }
+
+        // Send command to server and get its reply
+        ArrayList<Course> courses = server.searchCourses(query);
+        if (courses.isEmpty()) {
+            System.out.println(CLIENT_ERROR + "No courses match " + query + ".");
+        }
+        return courses;
+    }
+
+    /**
+     * Disconnects the client from the server by sending a DISCONNECT_COMMAND to the server.
      *
-     * @throws IOException If an I/O error occurs when writing to the objectOutputStream.
+     * @throws IOException If the request fails.
      */
     private static void disconnect() throws IOException {
-        objectOutputStream.writeObject(DISCONNECT_COMMAND);
-        objectOutputStream.flush();
         System.out.println(CLIENT + "Disconnecting from server...");
+        server.disconnect();
     }
 
     /**
@@ -228,10 +339,9 @@ public class Client {
      *
      * @return A valid Course object.
      *
-     * @throws IOException            If the method {@link #getCourses(String[]) getCourses()} throws the exception.
-     * @throws ClassNotFoundException If the method {@link #getCourses(String[]) getCourses()} throws the exception.
+     * @throws IOException If the method {@link #getCourses(String[]) getCourses()} throws the exception.
      */
-    private static Course courseSelectionMenu(Scanner scanner) throws IOException, ClassNotFoundException {
+    private static Course courseSelectionMenu(Scanner scanner) throws IOException {
         System.out.println(CLIENT + "At anytime, input -1 to stop the registration process.");
         while (true) {
             String semester = null;
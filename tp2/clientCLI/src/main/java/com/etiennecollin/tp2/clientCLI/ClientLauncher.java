@@ -59,7 +59,7 @@ public class ClientLauncher {
     public static void main(String[] args) {
         try {
             System.out.println(CLIENT + "Running...");
-            System.out.println(CLIENT + "Available commands are: " + ANSI_BLUE + LOAD_COMMAND + ANSI_RESET + ", " + ANSI_BLUE + REGISTER_COMMAND + ANSI_RESET + " and " + ANSI_BLUE + DISCONNECT_COMMAND + ANSI_RESET + ".");
+            System.out.println(CLIENT + "Available commands are: " + ANSI_BLUE + LOAD_COMMAND + ANSI_RESET + ", " + ANSI_BLUE + SEARCH_COMMAND + ANSI_RESET + ", " + ANSI_BLUE + REGISTER_COMMAND + ANSI_RESET + ", " + ANSI_BLUE + REGISTER_BATCH_COMMAND + ANSI_RESET + ", " + ANSI_BLUE + STATS_COMMAND + ANSI_RESET + ", " + ANSI_BLUE + SHUTDOWN_COMMAND + ANSI_RESET + " and " + ANSI_BLUE + DISCONNECT_COMMAND + ANSI_RESET + ".");
 
             Client.run(PORT);
         } catch (ConnectException e) {
@@ -68,7 +68,7 @@ public class ClientLauncher {
         } catch (SocketException | EOFException e) {
             // Handle the case where the server crashes without disconnecting
             System.out.println(CLIENT_ERROR + "The connection to the server was lost.");
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
@@ -4,6 +4,7 @@
 
 package com.etiennecollin.tp2.clientGUI;
 
+import com.etiennecollin.tp2.server.protocol.ServerConnection;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
@@ -12,49 +13,32 @@ import javafx.stage.Stage;
 import javafx.stage.StageStyle;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.Socket;
 
 /**
  * The Client class represents a client that can interact with a server through a socket connection.
  * <p>
  * The client can send registration forms, load courses for a specific semester, and disconnect from the server.
  * The client is run using the static method {@link #run(int) run()}, which connects the client to the server and then
- * allows the user to input commands that are sent to the server. The client uses object input/output streams to
- * communicate with the server.
+ * allows the user to input commands that are sent to the server. The client communicates with the server through a
+ * {@link ServerConnection}, which speaks the binary protocol when the server supports it.
  */
 public class Client extends Application {
     /**
-     * Represents the input stream of the client socket.
+     * Represents the connection to the server.
      */
-    static ObjectInputStream objectInputStream;
-    /**
-     * Represents the output stream of the client socket.
-     */
-    static ObjectOutputStream objectOutputStream;
-    /**
-     * Represents the client socket.
-     */
-    private static Socket client;
+    static ServerConnection server;
 
     /**
      * Runs the client, allowing the user to interact with the server.
      *
      * @param port The port number of the server to connect to.
      *
-     * @throws IOException            If the methods {@link #launch(String...) launch()} or
-     *                                {@link #cleanup() cleanup()} throw the exception or when dealing with the client
-     *                                input/output streams.
-     * @throws ClassNotFoundException If the method {@link #launch(String...) launch()} throws the exception.
+     * @throws IOException If the method {@link #cleanup() cleanup()} throws the exception or when connecting to the
+     *                     server.
      */
-    static void run(int port) throws IOException, ClassNotFoundException {
+    static void run(int port) throws IOException {
         // Connect to the server
-        client = new Socket("localhost", port);
-
-        // Create streams to write/read to/from the server
-        objectOutputStream = new ObjectOutputStream(client.getOutputStream());
-        objectInputStream = new ObjectInputStream(client.getInputStream());
+        server = ServerConnection.open("localhost", port);
 
         // Run GUI
         launch();
@@ -64,14 +48,12 @@ public class Client extends Application {
     }
 
     /**
-     * Closes the objectOutputStream, objectInputStream, and client.
+     * Closes the connection to the server.
      *
-     * @throws IOException If an I/O error occurs when closing the streams or the client socket.
+     * @throws IOException If an I/O error occurs when closing the connection.
      */
     private static void cleanup() throws IOException {
-        objectOutputStream.close();
-        objectInputStream.close();
-        client.close();
+        server.close();
     }
 
     /**
@@ -7,6 +7,8 @@ package com.etiennecollin.tp2.clientGUI;
 import com.etiennecollin.tp2.server.models.Course;
 import com.etiennecollin.tp2.server.models.RegistrationForm;
 import com.etiennecollin.tp2.server.models.Student;
+import com.etiennecollin.tp2.server.protocol.ServerErrorException;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
@@ -21,14 +23,14 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.net.SocketException;
 import java.net.URL;
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Objects;
 import java.util.ResourceBundle;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
-import static com.etiennecollin.tp2.clientGUI.Client.objectInputStream;
-import static com.etiennecollin.tp2.clientGUI.Client.objectOutputStream;
+import static com.etiennecollin.tp2.clientGUI.Client.server;
 import static com.etiennecollin.tp2.clientGUI.ClientLauncher.*;
-import static com.etiennecollin.tp2.server.Server.*;
 import static com.etiennecollin.tp2.server.models.Validator.isEmailValid;
 import static com.etiennecollin.tp2.server.models.Validator.isStudentIDValid;
 
@@ -61,6 +63,14 @@ public class ClientController implements Initializable {
      */
     @FXML
     private BorderPane borderPane;
+    /**
+     * The courses last loaded for each semester, keyed by semester.
+     */
+    private final HashMap<String, ObservableList<Course>> loadedCourses = new HashMap<>();
+    /**
+     * The version of the courses last loaded for each semester, keyed by semester.
+     */
+    private final HashMap<String, String> loadedVersions = new HashMap<>();
     /**
      * Stores the x-coordinate of the client window.
      */
@@ -79,6 +89,11 @@ public class ClientController implements Initializable {
      */
     @FXML
     private TableColumn<Course, String> courseTableColumnName;
+    /**
+     * A text field in the GUI used to search the courses by code or name.
+     */
+    @FXML
+    private TextField textFieldSearch;
     /**
      * A text field in the GUI used to get the first name of the student registering.
      */
@@ -118,14 +133,13 @@ public class ClientController implements Initializable {
     }
 
     /**
-     * Disconnects the client from the server by sending a DISCONNECT_COMMAND to the server through the objectOutputStream.
+     * Disconnects the client from the server by sending a DISCONNECT_COMMAND to the server.
      *
-     * @throws IOException If an I/O error occurs when writing to the objectOutputStream.
+     * @throws IOException If the request fails.
      */
     private void disconnect() throws IOException {
-        objectOutputStream.writeObject(DISCONNECT_COMMAND);
-        objectOutputStream.flush();
         System.out.println(CLIENT + "Disconnecting from server...");
+        server.disconnect();
     }
 
     /**
@@ -165,87 +179,146 @@ public class ClientController implements Initializable {
 
     /**
      * Loads the available courses for the semester selected in the choiceBox.
+     * <p>
+     * The server sends the courses as a stream of pages, each added to the table as soon as it is received, without
+     * blocking the interface in the meantime. If the courses of the semester were already loaded, the server only
+     * sends them again if they changed since.
      */
     @FXML
     private void onLoadButtonClick() {
         String semester = choiceBox.getValue().toString();
-
-        ArrayList<Course> courses = null;
-
-        try {
-            courses = getCourses(semester);
-
-            // Convert courses to Observable
-            ObservableList<Course> observableCourses = FXCollections.observableArrayList(courses);
-
-            // Print available courses
-            courseTable.setItems(observableCourses);
-        } catch (SocketException | EOFException e) {
-            // Handle the case where the server crashes without disconnecting
-            displayErrorAlert("The connection to the server was lost. The client will exit.");
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
-        }
+        labelClientFeedback.setText("Loading the available courses for the " + semester + " semester...");
+
+        // Print available courses as they are received
+        ObservableList<Course> observableCourses = FXCollections.observableArrayList();
+        boolean[] upToDate = {false};
+        server.streamCourses(semester, loadedVersions.get(semester), page -> Platform.runLater(() -> {
+            if (!page.isModified()) {
+                // The courses already loaded did not change
+                upToDate[0] = true;
+                courseTable.setItems(loadedCourses.get(semester));
+                return;
+            }
+
+            if (page.getOffset() == 0) {
+                courseTable.setItems(observableCourses);
+            }
+            observableCourses.addAll(page.getCourses());
+            if (page.isLast()) {
+                loadedCourses.put(semester, observableCourses);
+                loadedVersions.put(semester, page.getVersion());
+            }
+        })).whenComplete((ignored, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                handleRequestError(error, "The connection to the server was lost. The client will exit.");
+                return;
+            }
+
+            // Check if there are available courses or not
+            if (upToDate[0]) {
+                labelClientFeedback.setText("The available courses for the " + semester + " semester are up to date.");
+            } else if (observableCourses.isEmpty()) {
+                labelClientFeedback.setText("No courses are available during the " + semester + " semester.");
+            } else {
+                labelClientFeedback.setText("Loaded the available courses for the " + semester + " semester.");
+            }
+        }));
     }
 
     /**
-     * Sends a command to the server to load available courses for a specific semester.
-     *
-     * @param semester The semester to filter courses with.
-     *
-     * @return An ArrayList containing the available courses.
-     *
-     * @throws IOException            If an I/O error occurs when dealing with the client input/output streams.
-     * @throws ClassNotFoundException If the returned Course object by the server is invalid.
+     * Searches the courses of the semester selected in the choiceBox whose code starts with the text of the search
+     * field or whose name contains it.
+     * <p>
+     * The server searches every semester, then the courses of the other semesters are left out. The courses are
+     * displayed once the server replies, without blocking the interface in the meantime.
      */
-    private ArrayList<Course> getCourses(String semester) throws IOException, ClassNotFoundException {
-        // Send command to server
-        objectOutputStream.writeObject(LOAD_COMMAND + " " + semester);
-        objectOutputStream.flush();
-
-        // Get server reply
-        ArrayList<Course> courses = (ArrayList<Course>) objectInputStream.readObject();
-
-        // Check if there are available courses or not
-        if (courses.isEmpty()) {
-            labelClientFeedback.setText("No courses are available during the " + semester + " semester.");
-        } else {
-            labelClientFeedback.setText("Loaded the available courses for the " + semester + " semester.");
+    @FXML
+    private void onSearch() {
+        String semester = choiceBox.getValue().toString();
+        String query = textFieldSearch.getText().strip();
+        if (query.isEmpty()) {
+            onLoadButtonClick();
+            return;
         }
 
-        return courses;
+        server.searchCoursesAsync(query).whenComplete((courses, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                handleRequestError(error, "The connection to the server was lost. The client will exit.");
+                return;
+            }
+
+            // Keep the courses of the selected semester
+            ObservableList<Course> observableCourses = FXCollections.observableArrayList();
+            for (Course course : courses) {
+                if (course.getSemester().equalsIgnoreCase(semester)) {
+                    observableCourses.add(course);
+                }
+            }
+
+            if (observableCourses.isEmpty()) {
+                labelClientFeedback.setText("No courses of the " + semester + " semester match " + query + ".");
+            } else {
+                labelClientFeedback.setText("Found " + observableCourses.size() + " courses of the " + semester + " semester matching " + query + ".");
+            }
+
+            // Print matching courses
+            courseTable.setItems(observableCourses);
+        }));
     }
 
     /**
      * Sends a registration request to the server and notifies the user of the success of the registration.
+     * <p>
+     * The user is notified once the server replies, without blocking the interface in the meantime.
      */
     @FXML
     private void onRegisterButtonClick() {
         try {
-            String serverAnswer = register();
-            // Print server answer
-            displayInformationAlert(serverAnswer);
-            labelClientFeedback.setText("Successful registration.");
+            register().whenComplete((serverAnswer, error) -> Platform.runLater(() -> {
+                if (error != null) {
+                    handleRequestError(error, "The connection to the server was lost. The client will exit.");
+                    return;
+                }
+
+                // Print server answer
+                displayInformationAlert(serverAnswer);
+                labelClientFeedback.setText("Successful registration.");
+            }));
         } catch (IllegalArgumentException e) {
             labelClientFeedback.setText(e.getMessage());
-        } catch (SocketException | EOFException e) {
+        }
+    }
+
+    /**
+     * Notifies the user that a request failed.
+     *
+     * @param error       The reason why the request failed.
+     * @param lostMessage The message displayed if the connection to the server was lost.
+     */
+    private void handleRequestError(Throwable error, String lostMessage) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+
+        if (error instanceof SocketException || error instanceof EOFException) {
             // Handle the case where the server crashes without disconnecting
-            displayErrorAlert(e.getMessage() + ", the connection to the server was lost. The client will exit.");
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
+            displayErrorAlert(lostMessage);
+        } else if (error instanceof ServerErrorException) {
+            // Handle the case where the server rejects the request
+            labelClientFeedback.setText(error.getMessage());
+        } else {
+            error.printStackTrace();
         }
     }
 
     /**
      * Sends a registration form to the server.
      *
-     * @return The answer from the server.
+     * @return The answer from the server, or an {@link IOException} if the request fails.
      *
-     * @throws IOException              If an I/O error occurs when dealing with the client input/output streams.
-     * @throws ClassNotFoundException   If the returned String by the server is invalid.
      * @throws IllegalArgumentException Iif the {@link #createStudent() createStudent()} method throws the exception.
      */
-    private String register() throws IOException, IllegalArgumentException, ClassNotFoundException {
+    private CompletableFuture<String> register() throws IllegalArgumentException {
         // Create course object
         Course course = courseTable.getSelectionModel().getSelectedItem();
 
@@ -260,16 +333,8 @@ public class ClientController implements Initializable {
         // Create form object
         RegistrationForm form = new RegistrationForm(student, course);
 
-        // Send command to the server
-        objectOutputStream.writeObject(REGISTER_COMMAND);
-        objectOutputStream.flush();
-
-        // Send form to the server
-        objectOutputStream.writeObject(form);
-        objectOutputStream.flush();
-
-        // Get the answer from the server
-        return (String) objectInputStream.readObject();
+        // Send form to the server and get its answer
+        return server.registerAsync(form);
     }
 
     /**
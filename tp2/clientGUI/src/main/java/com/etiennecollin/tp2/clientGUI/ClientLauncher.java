@@ -59,7 +59,7 @@ public class ClientLauncher {
         } catch (SocketException | EOFException e) {
             // Handle the case where the server crashes without disconnecting
             System.out.println(CLIENT_ERROR + "The connection to the server was lost.");
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.loadGenerator;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The LoadConfig class holds the settings of a load test.
+ * <p>
+ * Every setting has a default value which can be overridden by a command-line argument of the form
+ * {@code --<key>=<value>} passed to the {@link LoadGeneratorLauncher}.
+ */
+final class LoadConfig {
+    /**
+     * The host name of the server.
+     */
+    private final String host;
+    /**
+     * The port of the server.
+     */
+    private final int port;
+    /**
+     * Whether the connections speak the object stream protocol instead of the binary protocol.
+     */
+    private final boolean objectStream;
+    /**
+     * The number of concurrent connections.
+     */
+    private final int connections;
+    /**
+     * The duration of the test in seconds.
+     */
+    private final int duration;
+    /**
+     * The number of requests started per second by all the connections, or 0 to send each request as soon as the
+     * previous one of its connection is answered.
+     */
+    private final int rate;
+    /**
+     * The relative weight of each operation in the mix of requests.
+     */
+    private final Map<LoadGenerator.Operation, Integer> mix;
+    /**
+     * The student ID of the first generated student.
+     */
+    private final int firstStudentID;
+
+    /**
+     * Creates a new configuration from the given settings.
+     *
+     * @param settings The settings.
+     *
+     * @throws IllegalArgumentException If a setting has an invalid value.
+     */
+    private LoadConfig(Properties settings) {
+        this.host = settings.getProperty("host", "localhost");
+        this.port = getInt(settings, "port", 1337, 1);
+        this.objectStream = switch (settings.getProperty("protocol", "binary").toLowerCase(Locale.ROOT)) {
+            case "binary" -> false;
+            case "object" -> true;
+            default -> throw new IllegalArgumentException("The setting `protocol` must be `binary` or `object`.");
+        };
+        this.connections = getInt(settings, "connections", 50, 1);
+        this.duration = getInt(settings, "duration", 30, 1);
+        this.rate = getInt(settings, "rate", 0, 0);
+        this.mix = parseMix(settings.getProperty("mix", "register:80,load:15,disconnect:5"));
+        this.firstStudentID = getInt(settings, "firstStudentID", 10000000, 10000000);
+    }
+
+    /**
+     * Builds the configuration from the given command-line arguments.
+     *
+     * @param args The command-line arguments of the form {@code --<key>=<value>}.
+     *
+     * @return The configuration of the load test.
+     *
+     * @throws IllegalArgumentException If an argument is malformed or a setting has an invalid value.
+     */
+    static LoadConfig fromArgs(String[] args) {
+        Properties settings = new Properties();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Invalid argument `" + arg + "`. The format is `--key=value`.");
+            }
+            settings.setProperty(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        return new LoadConfig(settings);
+    }
+
+    /**
+     * Reads an integer setting.
+     *
+     * @param settings     The settings to read from.
+     * @param key          The key of the setting.
+     * @param defaultValue The value used when the setting is absent.
+     * @param minimum      The minimum value of the setting.
+     *
+     * @return The value of the setting.
+     *
+     * @throws IllegalArgumentException If the value is not an integer greater than or equal to the minimum.
+     */
+    private static int getInt(Properties settings, String key, int defaultValue, int minimum) {
+        String value = settings.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            if (parsed >= minimum) {
+                return parsed;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("The setting `" + key + "` must be an integer greater than or equal to " + minimum + ".");
+    }
+
+    /**
+     * Parses the mix of requests.
+     *
+     * @param value The mix, made of comma-separated {@code operation:weight} pairs.
+     *
+     * @return The weight of each operation of the mix.
+     *
+     * @throws IllegalArgumentException If the mix is malformed or has no positive weight.
+     */
+    private static Map<LoadGenerator.Operation, Integer> parseMix(String value) {
+        EnumMap<LoadGenerator.Operation, Integer> mix = new EnumMap<>(LoadGenerator.Operation.class);
+        int total = 0;
+        for (String entry : value.split(",")) {
+            String[] parts = entry.split(":");
+            try {
+                LoadGenerator.Operation operation = LoadGenerator.Operation.valueOf(parts[0].trim().toUpperCase(Locale.ROOT));
+                int weight = Integer.parseInt(parts[1].trim());
+                if (parts.length != 2 || weight < 0) {
+                    throw new IllegalArgumentException();
+                }
+                mix.merge(operation, weight, Integer::sum);
+                total += weight;
+            } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Invalid mix entry `" + entry + "`. The format is `operation:weight` with the operations register, load and disconnect.");
+            }
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("The setting `mix` must have a positive weight.");
+        }
+        return mix;
+    }
+
+    /**
+     * Returns the host name of the server.
+     *
+     * @return The host name of the server.
+     */
+    String getHost() {
+        return host;
+    }
+
+    /**
+     * Returns the port of the server.
+     *
+     * @return The port of the server.
+     */
+    int getPort() {
+        return port;
+    }
+
+    /**
+     * Returns whether the connections speak the object stream protocol instead of the binary protocol.
+     *
+     * @return Whether the connections speak the object stream protocol.
+     */
+    boolean isObjectStream() {
+        return objectStream;
+    }
+
+    /**
+     * Returns the number of concurrent connections.
+     *
+     * @return The number of concurrent connections.
+     */
+    int getConnections() {
+        return connections;
+    }
+
+    /**
+     * Returns the duration of the test.
+     *
+     * @return The duration of the test in seconds.
+     */
+    int getDuration() {
+        return duration;
+    }
+
+    /**
+     * Returns the number of requests started per second by all the connections.
+     *
+     * @return The arrival rate of the requests, or 0 if each connection sends its requests back to back.
+     */
+    int getRate() {
+        return rate;
+    }
+
+    /**
+     * Returns the relative weight of each operation in the mix of requests.
+     *
+     * @return The weight of each operation of the mix.
+     */
+    Map<LoadGenerator.Operation, Integer> getMix() {
+        return mix;
+    }
+
+    /**
+     * Returns the student ID of the first generated student. The following students get the following IDs, so that a
+     * test can avoid the students registered by a previous one.
+     *
+     * @return The first student ID.
+     */
+    int getFirstStudentID() {
+        return firstStudentID;
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.loadGenerator;
+
+import com.etiennecollin.tp2.server.LatencyHistogram;
+import com.etiennecollin.tp2.server.models.Course;
+import com.etiennecollin.tp2.server.models.RegistrationForm;
+import com.etiennecollin.tp2.server.models.Student;
+import com.etiennecollin.tp2.server.protocol.ServerConnection;
+import com.etiennecollin.tp2.server.protocol.ServerErrorException;
+import com.etiennecollin.tp2.server.protocol.ServerThrottledException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.etiennecollin.tp2.loadGenerator.LoadGeneratorLauncher.LOAD;
+
+/**
+ * The LoadGenerator class reproduces the load of many clients on a server and measures the latency of their requests.
+ * <p>
+ * Every connection is driven by its own virtual thread, which sends a request chosen at random from the configured mix
+ * and waits for its reply before sending the next one. When an arrival rate is configured, the requests of each
+ * connection are scheduled at a fixed interval and their latency is measured from the time they were scheduled to be
+ * sent, so that a slow reply also counts against the requests it delayed instead of hiding them. Otherwise, each
+ * connection sends its next request as soon as the previous one is answered and the test measures the maximum
+ * throughput of the server.
+ */
+final class LoadGenerator {
+    /**
+     * The format of the header of the results table.
+     */
+    private static final String HEADER = "%-12s %10s %10s %10s %10s %10s %10s %10s %10s %10s%n";
+    /**
+     * The format of a row of the results table.
+     */
+    private static final String ROW = "%-12s %10d %10d %10d %10.1f %10d %10d %10d %10d %10d%n";
+    /**
+     * The configuration of the test.
+     */
+    private final LoadConfig config;
+    /**
+     * The operations of the mix, in the order of {@link #cumulativeWeights}.
+     */
+    private final Operation[] operations;
+    /**
+     * The sum of the weights of the operations of the mix up to each operation, included.
+     */
+    private final int[] cumulativeWeights;
+    /**
+     * The latency of each operation.
+     */
+    private final EnumMap<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    /**
+     * The number of failed requests of each operation.
+     */
+    private final EnumMap<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+    /**
+     * The number of requests of each operation rejected by the rate limit of the server, which are not counted as
+     * failed.
+     */
+    private final EnumMap<Operation, LongAdder> throttled = new EnumMap<>(Operation.class);
+    /**
+     * The student ID of the next generated student.
+     */
+    private final AtomicInteger nextStudentID;
+    /**
+     * The courses of the server, to which the students register.
+     */
+    private ArrayList<Course> courses;
+
+    /**
+     * Creates a new load generator.
+     *
+     * @param config The configuration of the test.
+     */
+    LoadGenerator(LoadConfig config) {
+        this.config = config;
+        this.nextStudentID = new AtomicInteger(config.getFirstStudentID());
+
+        Map<Operation, Integer> mix = config.getMix();
+        this.operations = mix.keySet().toArray(new Operation[0]);
+        this.cumulativeWeights = new int[operations.length];
+        int total = 0;
+        for (int i = 0; i < operations.length; i++) {
+            total += mix.get(operations[i]);
+            cumulativeWeights[i] = total;
+        }
+
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+            errors.put(operation, new LongAdder());
+            throttled.put(operation, new LongAdder());
+        }
+    }
+
+    /**
+     * Opens the connections, drives them for the configured duration and waits for their last requests.
+     *
+     * @return The duration of the test in nanoseconds.
+     *
+     * @throws IOException          If the courses cannot be loaded or a connection cannot be opened.
+     * @throws InterruptedException If the thread is interrupted while waiting for the connections.
+     */
+    long run() throws IOException, InterruptedException {
+        try (ServerConnection connection = connect()) {
+            courses = connection.loadCourses("");
+            connection.disconnect();
+        }
+        if (courses.isEmpty() && config.getMix().getOrDefault(Operation.REGISTER, 0) > 0) {
+            throw new IOException("The server has no course to register to.");
+        }
+        System.out.println(LOAD + "Loaded " + courses.size() + " courses.");
+
+        ServerConnection[] connections = new ServerConnection[config.getConnections()];
+        try {
+            for (int i = 0; i < connections.length; i++) {
+                connections[i] = connect();
+            }
+        } catch (IOException e) {
+            for (ServerConnection connection : connections) {
+                if (connection != null) {
+                    connection.close();
+                }
+            }
+            throw e;
+        }
+        System.out.println(LOAD + "Opened " + connections.length + " connections.");
+
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(config.getDuration());
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < connections.length; i++) {
+                int index = i;
+                executor.submit(() -> drive(connections[index], index, start, end));
+            }
+            reportProgress(start, end);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Sends requests over a connection until the end of the test, then disconnects it.
+     *
+     * @param connection The connection.
+     * @param index      The index of the connection, which staggers its requests with those of the other connections.
+     * @param start      The time at which the test starts, as given by {@link System#nanoTime()}.
+     * @param end        The time at which the test ends, as given by {@link System#nanoTime()}.
+     */
+    private void drive(ServerConnection connection, int index, long start, long end) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long interval = config.getRate() == 0 ? 0 : TimeUnit.SECONDS.toNanos(config.getConnections()) / config.getRate();
+        long scheduled = start + interval * index / config.getConnections();
+
+        while (true) {
+            long sent = interval == 0 ? System.nanoTime() : scheduled;
+            if (sent - end >= 0) {
+                break;
+            }
+            if (interval != 0) {
+                // Wait until the request is due, unless it is already late
+                long delay;
+                while ((delay = scheduled - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(delay);
+                }
+                scheduled += interval;
+            }
+
+            Operation operation = pick(random);
+            try {
+                if (connection == null) {
+                    connection = connect();
+                }
+                connection = execute(operation, connection, random);
+            } catch (ServerThrottledException e) {
+                throttled.get(operation).increment();
+            } catch (ServerErrorException e) {
+                errors.get(operation).increment();
+            } catch (IOException e) {
+                // The connection is broken, open a new one for the next request
+                errors.get(operation).increment();
+                close(connection);
+                connection = null;
+            }
+            latencies.get(operation).record(System.nanoTime() - sent);
+        }
+
+        if (connection != null) {
+            try {
+                connection.disconnect();
+            } catch (IOException ignored) {
+            }
+            close(connection);
+        }
+    }
+
+    /**
+     * Sends a request over a connection and waits for its reply.
+     *
+     * @param operation  The operation of the request.
+     * @param connection The connection.
+     * @param random     The source of the random choices of the request.
+     *
+     * @return The connection to use for the next request.
+     *
+     * @throws IOException If the request fails.
+     */
+    private ServerConnection execute(Operation operation, ServerConnection connection, ThreadLocalRandom random) throws IOException {
+        switch (operation) {
+            case REGISTER -> {
+                String studentID = String.valueOf(nextStudentID.getAndIncrement());
+                Student student = new Student("Load", "Generator", "load" + studentID + "@umontreal.ca", studentID);
+                connection.register(new RegistrationForm(student, courses.get(random.nextInt(courses.size()))));
+            }
+            case LOAD -> connection.loadCourses("");
+            case DISCONNECT -> {
+                connection.disconnect();
+                close(connection);
+                return connect();
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * Prints the throughput and the number of errors every second until the end of the test.
+     *
+     * @param start The time at which the test starts, as given by {@link System#nanoTime()}.
+     * @param end   The time at which the test ends, as given by {@link System#nanoTime()}.
+     *
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    private void reportProgress(long start, long end) throws InterruptedException {
+        long previousCount = 0;
+        for (int second = 1; start + TimeUnit.SECONDS.toNanos(second) - end <= 0; second++) {
+            long delay;
+            while ((delay = start + TimeUnit.SECONDS.toNanos(second) - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            }
+
+            long count = 0;
+            long errorCount = 0;
+            long throttledCount = 0;
+            for (Operation operation : Operation.values()) {
+                count += latencies.get(operation).getCount();
+                errorCount += errors.get(operation).sum();
+                throttledCount += throttled.get(operation).sum();
+            }
+            System.out.println(LOAD + second + " s: " + (count - previousCount) + " requests/s, " + errorCount + " errors, " + throttledCount + " throttled");
+            previousCount = count;
+        }
+    }
+
+    /**
+     * Builds the table of the results of the test.
+     *
+     * @param elapsed The duration of the test in nanoseconds.
+     *
+     * @return The number of requests, number of errors, number of throttled requests, throughput and latency
+     *         percentiles of each operation of the mix, as a text table.
+     */
+    String report(long elapsed) {
+        double seconds = elapsed / 1e9;
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(HEADER, "Operation", "Count", "Errors", "Throttled", "Ops/s", "Mean(us)", "p50(us)", "p99(us)", "p999(us)", "Max(us)"));
+        for (Operation operation : operations) {
+            LatencyHistogram latency = latencies.get(operation);
+            report.append(String.format(ROW, operation.name().toLowerCase(), latency.getCount(), errors.get(operation).sum(), throttled.get(operation).sum(), latency.getCount() / seconds, latency.getMean(), latency.getPercentile(50), latency.getPercentile(99), latency.getPercentile(99.9), latency.getMax()));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Chooses an operation at random according to the weights of the mix.
+     *
+     * @param random The source of the random choice.
+     *
+     * @return The operation.
+     */
+    private Operation pick(ThreadLocalRandom random) {
+        int value = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int i = 0;
+        while (value >= cumulativeWeights[i]) {
+            i++;
+        }
+        return operations[i];
+    }
+
+    /**
+     * Opens a connection to the server in the configured protocol.
+     *
+     * @return The connection.
+     *
+     * @throws IOException If the server cannot be reached.
+     */
+    private ServerConnection connect() throws IOException {
+        if (config.isObjectStream()) {
+            return ServerConnection.openObjectStream(config.getHost(), config.getPort());
+        }
+        return ServerConnection.open(config.getHost(), config.getPort());
+    }
+
+    /**
+     * Closes a connection, ignoring the errors since it is not used anymore.
+     *
+     * @param connection The connection, or {@code null} if it could not be opened.
+     */
+    private static void close(ServerConnection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * The requests sent by the load generator.
+     */
+    enum Operation {
+        /**
+         * Registers a new student to a random course.
+         */
+        REGISTER,
+        /**
+         * Loads the courses of every semester.
+         */
+        LOAD,
+        /**
+         * Disconnects from the server and opens a new connection.
+         */
+        DISCONNECT
+    }
+}
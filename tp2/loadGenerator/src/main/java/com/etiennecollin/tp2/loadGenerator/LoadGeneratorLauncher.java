@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.loadGenerator;
+
+import java.io.IOException;
+import java.net.ConnectException;
+
+/**
+ * The LoadGeneratorLauncher class launches a load test against a server and prints its results.
+ * <p>
+ * The class contains a main method that reads the configuration of the test from the command-line arguments, runs the
+ * {@link LoadGenerator} and prints the throughput and latency of each operation.
+ */
+public class LoadGeneratorLauncher {
+    /**
+     * Prefix for load generator standard status messages.
+     */
+    static final String LOAD = "[Load] ";
+    /**
+     * Color code to reset text color to default.
+     */
+    private static final String ANSI_RESET = "\u001B[0m";
+    /**
+     * Color code to set text color to red.
+     */
+    private static final String ANSI_RED = "\u001B[31m";
+    /**
+     * Prefix for load generator error status messages.
+     */
+    static final String LOAD_ERROR = ANSI_RED + LOAD + ANSI_RESET;
+
+    /**
+     * The main method of the LoadGeneratorLauncher class runs a load test against a server.
+     *
+     * @param args An array of command-line arguments of the form {@code --<key>=<value>} configuring the test.
+     */
+    public static void main(String[] args) {
+        LoadConfig config;
+        try {
+            config = LoadConfig.fromArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(LOAD_ERROR + e.getMessage());
+            return;
+        }
+
+        try {
+            System.out.println(LOAD + "Running " + config.getConnections() + " connections for " + config.getDuration() + " s at " + (config.getRate() == 0 ? "the maximum rate" : config.getRate() + " requests/s") + "...");
+
+            LoadGenerator generator = new LoadGenerator(config);
+            long elapsed = generator.run();
+            System.out.print(generator.report(elapsed));
+        } catch (ConnectException e) {
+            // Handle the case where no server is found
+            System.out.println(LOAD_ERROR + e.getMessage() + ", no server available on port " + config.getPort() + ".");
+        } catch (IOException e) {
+            System.out.println(LOAD_ERROR + e.getMessage());
+        } catch (InterruptedException e) {
+            System.out.println(LOAD_ERROR + "The load test was interrupted.");
+        }
+    }
+}
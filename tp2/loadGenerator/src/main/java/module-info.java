@@ -0,0 +1,11 @@
+/**
+ * The loadGenerator module contains the necessary classes to reproduce the load of many clients on a server and to
+ * measure its throughput and latency.
+ * <p>
+ * {@link com.etiennecollin.tp2.loadGenerator} provides the necessary methods to configure and launch the load
+ * generator.
+ */
+module loadGenerator {
+    requires server;
+    exports com.etiennecollin.tp2.loadGenerator;
+}
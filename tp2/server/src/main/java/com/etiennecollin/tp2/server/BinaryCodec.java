@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import com.etiennecollin.tp2.server.models.Course;
+import com.etiennecollin.tp2.server.models.RegistrationForm;
+import com.etiennecollin.tp2.server.models.RegistrationResult;
+import com.etiennecollin.tp2.server.protocol.Frame;
+import com.etiennecollin.tp2.server.protocol.Protocol;
+
+import java.io.*;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * The BinaryCodec class speaks the length-prefixed {@link Protocol binary protocol}.
+ * <p>
+ * Each request frame is mapped to the command line of the equivalent object stream command, so that the
+ * {@link ClientHandler} handles both protocols alike. The body of the frame is kept in the {@link Request} until the
+ * handler reads it.
+ * <p>
+ * From version {@link Protocol#COMPRESSION_VERSION 3} of the protocol on, the replies whose payload reaches the
+ * configured threshold are compressed with Deflate if the client accepts it. Smaller replies are sent as is, as
+ * compressing them would cost more time than it saves on the network.
+ */
+final class BinaryCodec implements ClientCodec {
+    /**
+     * The compression offered to the clients.
+     */
+    private static volatile ServerConfig.Compression compression = ServerConfig.Compression.DEFLATE;
+    /**
+     * The size in bytes from which the payload of a reply is compressed.
+     */
+    private static volatile int compressionThreshold = 1024;
+    /**
+     * Represents the input stream of the client.
+     */
+    private final DataInputStream inputStream;
+    /**
+     * Represents the output stream of the client.
+     */
+    private final DataOutputStream outputStream;
+    /**
+     * The version of the protocol negotiated with the client.
+     */
+    private final byte version;
+    /**
+     * Whether the server offered the client to compress the replies.
+     */
+    private final boolean offered;
+    /**
+     * Whether the capabilities accepted by the client precede its first request.
+     */
+    private boolean negotiating;
+    /**
+     * Whether the replies to the client may be compressed, known once the first request is read.
+     */
+    private boolean compressed = false;
+
+    /**
+     * Performs the handshake with the client. The client answers the capabilities offered by the server before its
+     * first request, so they are read with it, and the codec never waits for the client once the handshake is received.
+     *
+     * @param inputStream  The stream from which the client requests are read.
+     * @param outputStream The stream to which the replies are written.
+     *
+     * @throws StreamCorruptedException If the client did not send the magic number of the protocol.
+     * @throws IOException              If an I/O error occurs when dealing with the streams.
+     */
+    BinaryCodec(InputStream inputStream, OutputStream outputStream) throws IOException {
+        // The input is not buffered so that no byte of the next request is read ahead
+        this.inputStream = new DataInputStream(inputStream);
+        this.outputStream = new DataOutputStream(new BufferedOutputStream(outputStream));
+
+        // Read the handshake of the client
+        if (this.inputStream.readInt() != Protocol.MAGIC) {
+            throw new StreamCorruptedException("Unknown protocol.");
+        }
+        byte requested = this.inputStream.readByte();
+        if (requested < 1) {
+            throw new StreamCorruptedException("Invalid protocol version " + requested + ".");
+        }
+        this.version = (byte) Math.min(requested, Protocol.VERSION);
+
+        // Answer with the version that will be used, followed by the offered capabilities from version 3 on
+        this.negotiating = version >= Protocol.COMPRESSION_VERSION;
+        this.offered = compression == ServerConfig.Compression.DEFLATE;
+        this.outputStream.writeInt(Protocol.MAGIC);
+        this.outputStream.writeByte(version);
+        if (negotiating) {
+            this.outputStream.writeByte(offered ? Protocol.DEFLATE : 0);
+        }
+        this.outputStream.flush();
+    }
+
+    /**
+     * Sets the compression offered to the clients connecting from now on.
+     *
+     * @param compression The compression offered to the clients.
+     * @param threshold   The size in bytes from which the payload of a reply is compressed.
+     */
+    static void configure(ServerConfig.Compression compression, int threshold) {
+        BinaryCodec.compression = compression;
+        BinaryCodec.compressionThreshold = threshold;
+    }
+
+    @Override
+    public Request readRequest() throws IOException {
+        if (negotiating) {
+            // Read the capabilities accepted by the client
+            byte accepted = inputStream.readByte();
+            compressed = offered && (accepted & Protocol.DEFLATE) != 0;
+            negotiating = false;
+        }
+
+        Frame frame = Protocol.readFrame(inputStream, version);
+        String argument = frame.getPayload().readUTF();
+
+        String command = switch (frame.getType()) {
+            case Protocol.REGISTER -> Server.REGISTER_COMMAND;
+            case Protocol.REGISTER_BATCH -> Server.REGISTER_BATCH_COMMAND;
+            case Protocol.LOAD -> Server.LOAD_COMMAND;
+            case Protocol.LOAD_PAGE -> Server.LOAD_PAGE_COMMAND;
+            case Protocol.LOAD_STREAM -> Server.LOAD_STREAM_COMMAND;
+            case Protocol.LOAD_IF_MODIFIED -> Server.LOAD_IF_MODIFIED_COMMAND;
+            case Protocol.SEARCH -> Server.SEARCH_COMMAND;
+            case Protocol.STATS -> Server.STATS_COMMAND;
+            case Protocol.SHUTDOWN -> Server.SHUTDOWN_COMMAND;
+            case Protocol.DISCONNECT -> Server.DISCONNECT_COMMAND;
+            default -> "#" + frame.getType();
+        };
+        return new Request(command, argument, frame.getId(), frame.getPayload(), frame.getLength());
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The requests are pipelined from version {@link Protocol#PIPELINING_VERSION 2} of the protocol on, as their
+     * replies carry their correlation identifier.
+     */
+    @Override
+    public boolean isPipelined() {
+        return version >= Protocol.PIPELINING_VERSION;
+    }
+
+    @Override
+    public RegistrationForm readRegistrationForm(Request request) throws IOException {
+        return Protocol.readRegistrationForm(request.getBody());
+    }
+
+    @Override
+    public List<RegistrationForm> readRegistrationForms(Request request) throws IOException {
+        return Protocol.readRegistrationForms(request.getBody());
+    }
+
+    @Override
+    public void writeMessage(Request request, String message) throws IOException {
+        write(Protocol.MESSAGE, request, Protocol.encodeString(message));
+    }
+
+    @Override
+    public void writeCourses(Request request, CourseCatalog.Partition courses) throws IOException {
+        byte[] encoded = courses.getEncoded();
+        byte[] compressed = this.compressed && encoded.length >= compressionThreshold ? courses.getCompressed() : null;
+        if (compressed != null) {
+            writeFrame(Protocol.COURSES | Protocol.COMPRESSED, request, compressed);
+        } else {
+            writeFrame(Protocol.COURSES, request, encoded);
+        }
+    }
+
+    @Override
+    public void writeCourses(Request request, List<Course> courses) throws IOException {
+        write(Protocol.COURSES, request, Protocol.encodeCourses(courses));
+    }
+
+    @Override
+    public void writePage(Request request, CourseCatalog.Partition partition, int offset, int end) throws IOException {
+        List<Course> courses = partition.getCourses();
+        write(Protocol.PAGE, request, Protocol.encodePage(courses.subList(offset, end), offset, courses.size(), partition.getVersion(), true));
+    }
+
+    @Override
+    public void writeNotModified(Request request, CourseCatalog.Partition partition) throws IOException {
+        int total = partition.getCourses().size();
+        write(Protocol.PAGE, request, Protocol.encodePage(List.of(), total, total, partition.getVersion(), false));
+    }
+
+    @Override
+    public void writeResults(Request request, List<RegistrationResult> results) throws IOException {
+        write(Protocol.RESULTS, request, Protocol.encodeResults(results));
+    }
+
+    @Override
+    public void writeError(Request request, String message) throws IOException {
+        write(Protocol.ERROR, request, Protocol.encodeString(message));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Before version {@link Protocol#THROTTLING_VERSION 4} of the protocol, the request is rejected with an error.
+     */
+    @Override
+    public boolean writeThrottled(Request request, int retryAfter) throws IOException {
+        String message = "Too many requests, retry in " + retryAfter + " ms.";
+        if (version >= Protocol.THROTTLING_VERSION) {
+            write(Protocol.THROTTLED, request, Protocol.encodeThrottled(retryAfter, message));
+        } else {
+            writeError(request, message);
+        }
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Before version {@link Protocol#GOODBYE_VERSION 5} of the protocol, the client is not told.
+     */
+    @Override
+    public void writeGoodbye(String message) throws IOException {
+        if (version >= Protocol.GOODBYE_VERSION) {
+            synchronized (outputStream) {
+                Protocol.writeFrame(outputStream, version, Protocol.GOODBYE, Protocol.UNSOLICITED_ID, Protocol.encodeString(message));
+            }
+        }
+    }
+
+    /**
+     * Writes a reply frame, compressing its payload if it reaches the threshold and the client accepts it. The
+     * payloads are compressed with the best speed, as they are built for a single reply.
+     *
+     * @param type    The type of the reply.
+     * @param request The request to which the frame replies.
+     * @param payload The payload of the frame.
+     *
+     * @throws IOException If an I/O error occurs when writing to the client.
+     */
+    private void write(byte type, Request request, byte[] payload) throws IOException {
+        if (compressed && payload.length >= compressionThreshold) {
+            byte[] compressedPayload = Protocol.compress(payload, Deflater.BEST_SPEED);
+            if (compressedPayload != null) {
+                writeFrame(type | Protocol.COMPRESSED, request, compressedPayload);
+                return;
+            }
+        }
+        writeFrame(type, request, payload);
+    }
+
+    /**
+     * Writes a reply frame as is. The replies to pipelined requests may be written concurrently, so the frames are
+     * written one at a time.
+     *
+     * @param type    The type of the reply.
+     * @param request The request to which the frame replies.
+     * @param payload The payload of the frame.
+     *
+     * @throws IOException If an I/O error occurs when writing to the client.
+     */
+    private void writeFrame(int type, Request request, byte[] payload) throws IOException {
+        long start = System.nanoTime();
+        synchronized (outputStream) {
+            ServerStats.OUTPUT_WAIT.record(System.nanoTime() - start);
+            Protocol.writeFrame(outputStream, version, (byte) type, request.getId(), payload);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        outputStream.close();
+        inputStream.close();
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import com.etiennecollin.tp2.server.protocol.Protocol;
+
+import java.io.StreamCorruptedException;
+
+/**
+ * The BinaryFramer class finds the requests of a client speaking the length-prefixed {@link Protocol binary protocol}.
+ * <p>
+ * The first request is the handshake, and each following request is a frame. From version
+ * {@link Protocol#COMPRESSION_VERSION 3} of the protocol on, the byte of the capabilities accepted by the client
+ * precedes its first frame, and is framed with it.
+ */
+final class BinaryFramer implements RequestFramer {
+    /**
+     * The length of the handshake, made of the magic number and of the version requested by the client.
+     */
+    private static final int HANDSHAKE_LENGTH = 5;
+    /**
+     * The version of the protocol negotiated with the client, or 0 until the handshake is received.
+     */
+    private byte version = 0;
+    /**
+     * Whether the byte of the capabilities accepted by the client precedes the next frame.
+     */
+    private boolean negotiating = false;
+
+    @Override
+    public int frame(byte[] bytes, int offset, int length) throws StreamCorruptedException {
+        if (version == 0) {
+            return frameHandshake(bytes, offset, length);
+        }
+
+        // Wait for the length of the frame, then for the whole frame
+        int start = negotiating ? 1 : 0;
+        if (length < start + 4) {
+            return 0;
+        }
+        int frameLength = readInt(bytes, offset + start);
+        if (frameLength < (version >= Protocol.PIPELINING_VERSION ? 5 : 1) || frameLength > Protocol.MAX_FRAME_LENGTH) {
+            throw new StreamCorruptedException("Invalid frame length " + frameLength + ".");
+        }
+        if (length < start + 4 + frameLength) {
+            return 0;
+        }
+
+        negotiating = false;
+        return start + 4 + frameLength;
+    }
+
+    /**
+     * Returns the length of the handshake if the client sent all of it, and negotiates the version of the protocol like
+     * the {@link BinaryCodec} does.
+     *
+     * @param bytes  The bytes sent by the client.
+     * @param offset The position of the first byte of the handshake.
+     * @param length The number of bytes sent by the client from the position of the handshake on.
+     *
+     * @return The length of the handshake, or 0 if the client did not send all of it yet.
+     *
+     * @throws StreamCorruptedException If the client did not send the magic number of the protocol or a valid version.
+     */
+    private int frameHandshake(byte[] bytes, int offset, int length) throws StreamCorruptedException {
+        if (length < HANDSHAKE_LENGTH) {
+            return 0;
+        }
+        if (readInt(bytes, offset) != Protocol.MAGIC) {
+            throw new StreamCorruptedException("Unknown protocol.");
+        }
+        byte requested = bytes[offset + 4];
+        if (requested < 1) {
+            throw new StreamCorruptedException("Invalid protocol version " + requested + ".");
+        }
+
+        version = (byte) Math.min(requested, Protocol.VERSION);
+        negotiating = version >= Protocol.COMPRESSION_VERSION;
+        return HANDSHAKE_LENGTH;
+    }
+
+    /**
+     * Reads a big-endian integer.
+     *
+     * @param bytes  The bytes holding the integer.
+     * @param offset The position of the first byte of the integer.
+     *
+     * @return The integer.
+     */
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 | (bytes[offset + 2] & 0xFF) << 8 | bytes[offset + 3] & 0xFF;
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import com.etiennecollin.tp2.server.models.Course;
+import com.etiennecollin.tp2.server.models.RegistrationForm;
+import com.etiennecollin.tp2.server.models.RegistrationResult;
+import com.etiennecollin.tp2.server.protocol.Protocol;
+
+import java.io.*;
+import java.util.List;
+
+/**
+ * The ClientCodec interface decodes the requests of a client and encodes the replies of the server in the protocol
+ * spoken by the client.
+ * <p>
+ * The protocol is detected from the first bytes sent by the client: an object stream header selects the
+ * {@link ObjectStreamCodec}, whereas the handshake of the {@link Protocol binary protocol} selects the
+ * {@link BinaryCodec}.
+ */
+interface ClientCodec extends Closeable {
+    /**
+     * Detects the protocol spoken by the client and creates the matching codec.
+     * <p>
+     * This method blocks until the client has sent the first bytes of its stream.
+     *
+     * @param inputStream  The stream from which the client requests are read.
+     * @param outputStream The stream to which the replies are written.
+     *
+     * @return The codec of the protocol spoken by the client.
+     *
+     * @throws EOFException             If the client disconnects before sending anything.
+     * @throws StreamCorruptedException If the protocol is not recognized.
+     * @throws IOException              If an I/O error occurs when dealing with the streams.
+     */
+    static ClientCodec open(InputStream inputStream, OutputStream outputStream) throws IOException {
+        // Peek at the first two bytes sent by the client
+        PushbackInputStream input = new PushbackInputStream(inputStream, 2);
+        int first = input.read();
+        int second = input.read();
+        if (second < 0) {
+            throw new EOFException("The client disconnected before choosing a protocol.");
+        }
+        input.unread(second);
+        input.unread(first);
+
+        if ((first << 8 | second) == Protocol.OBJECT_STREAM_MAGIC) {
+            return new ObjectStreamCodec(input, outputStream);
+        }
+        return new BinaryCodec(input, outputStream);
+    }
+
+    /**
+     * Reads the next request sent by the client.
+     *
+     * @return The request.
+     *
+     * @throws IOException            If an I/O error occurs when reading from the client.
+     * @throws ClassNotFoundException If the client sent an object of an unknown class.
+     */
+    Request readRequest() throws IOException, ClassNotFoundException;
+
+    /**
+     * Returns whether the client may send requests without waiting for the replies to its previous requests, in which
+     * case the requests may be handled concurrently.
+     *
+     * @return Whether the requests of the client may be handled concurrently.
+     */
+    boolean isPipelined();
+
+    /**
+     * Reads the registration form of a {@link Server#REGISTER_COMMAND REGISTER_COMMAND} request.
+     *
+     * @param request The request.
+     *
+     * @return The registration form.
+     *
+     * @throws IOException            If an I/O error occurs when reading from the client.
+     * @throws ClassNotFoundException If the client sent an object of an unknown class.
+     */
+    RegistrationForm readRegistrationForm(Request request) throws IOException, ClassNotFoundException;
+
+    /**
+     * Reads the registration forms of a {@link Server#REGISTER_BATCH_COMMAND REGISTER_BATCH_COMMAND} request.
+     *
+     * @param request The request.
+     *
+     * @return The registration forms, in the order in which the client sent them.
+     *
+     * @throws IOException            If an I/O error occurs when reading from the client.
+     * @throws ClassNotFoundException If the client sent an object of an unknown class.
+     */
+    List<RegistrationForm> readRegistrationForms(Request request) throws IOException, ClassNotFoundException;
+
+    /**
+     * Replies to a request with a message.
+     *
+     * @param request The request.
+     * @param message The message.
+     *
+     * @throws IOException If an I/O error occurs when writing to the client.
+     */
+    void writeMessage(Request request, String message) throws IOException;
+
+    /**
+     * Replies to a request with a list of courses.
+     *
+     * @param request The request.
+     * @param courses The partition of the catalog containing the courses.
+     *
+     * @throws IOException If an I/O error occurs when writing to the client.
+     */
+    void writeCourses(Request request, CourseCatalog.Partition courses) throws IOException;
+
+    /**
+     * Replies to a request with a list of courses that are not already encoded by the catalog.
+     *
+     * @param request The request.
+     * @param courses The courses.
+     *
+     * @throws IOException If an I/O error occurs when writing to the client.
+     */
+    void writeCourses(Request request, List<Course> courses) throws IOException;
+
+    /**
+     * Replies to a request with a page of courses. A request may be answered with many pages, which are sent in order.
+     *
+     * @param request   The request.
+     * @param partition The partition of the catalog containing the courses.
+     * @param offset    The position of the first course of the page in the partition.
+     * @param end       The position following the last course of the page in the partition.
+     *
+     * @throws IOException If an I/O error occurs when writing to the client.
+     */
+    void writePage(Request request, CourseCatalog.Partition partition, int offset, int end) throws IOException;
+
+    /**
+     * Tells the client that the courses of a partition did not change since the version it holds, with a page that is
+     * not modified.
+     *
+     * @param request   The request.
+     * @param partition The partition of the catalog containing the courses.
+     *
+     * @throws IOException If an I/O error occurs when writing to the client.
+     */
+    void writeNotModified(Request request, CourseCatalog.Partition partition) throws IOException;
+
+    /**
+     * Replies to a request with the results of a batch of registrations.
+     *
+     * @param request The request.
+     * @param results The results, in the order of the registration forms of the request.
+     *
+     * @throws IOException If an I/O error occurs when writing to the client.
+     */
+    void writeResults(Request request, List<RegistrationResult> results) throws IOException;
+
+    /**
+     * Tells the client that its request failed.
+     *
+     * @param request The request.
+     * @param message The error message.
+     *
+     * @throws IOException If an I/O error occurs when writing to the client.
+     */
+    void writeError(Request request, String message) throws IOException;
+
+    /**
+     * Tells the client that its request was rejected because it exceeded its rate limit, if the protocol can express
+     * it.
+     *
+     * @param request    The request.
+     * @param retryAfter The time in milliseconds after which the request may be retried.
+     *
+     * @return Whether the client was told, otherwise the request must be delayed until it is allowed instead.
+     *
+     * @throws IOException If an I/O error occurs when writing to the client.
+     */
+    boolean writeThrottled(Request request, int retryAfter) throws IOException;
+
+    /**
+     * Tells the client that the server is shutting down, if the protocol can express it, so that it stops sending new
+     * requests. The connection is closed once the requests already received are answered.
+     *
+     * @param message The message telling the client that the server is shutting down.
+     *
+     * @throws IOException If an I/O error occurs when writing to the client.
+     */
+    void writeGoodbye(String message) throws IOException;
+}
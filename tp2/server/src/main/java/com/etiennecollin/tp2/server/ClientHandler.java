@@ -6,15 +6,25 @@ package com.etiennecollin.tp2.server;
 
 import com.etiennecollin.tp2.server.models.Course;
 import com.etiennecollin.tp2.server.models.RegistrationForm;
-import javafx.util.Pair;
+import com.etiennecollin.tp2.server.models.RegistrationResult;
 
 import java.io.*;
+import java.net.InetAddress;
 import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Scanner;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import static com.etiennecollin.tp2.server.ServerLauncher.*;
+import static com.etiennecollin.tp2.server.models.Validator.isEmailValid;
+import static com.etiennecollin.tp2.server.models.Validator.isStudentIDValid;
 
 /**
  * The ClientHandler class implements the Runnable interface and handles incoming client connections to the server.
@@ -25,29 +35,102 @@ import static com.etiennecollin.tp2.server.ServerLauncher.*;
  */
 class ClientHandler implements Runnable {
     /**
-     * Used to make sure that only one client at a time writes into the registrations file.
+     * The maximum number of pipelined requests of a client being handled at once. Further requests are not read until
+     * one of them is handled.
      */
-    private static final Object syncWrite = new Object();
+    private static final int MAX_PIPELINED_REQUESTS = 64;
     /**
-     * Represents the client socket.
+     * The maximum total length in bytes of the bodies of the pipelined requests of a client being handled at once, so
+     * that a client cannot make the server hold many large requests. A larger request waits until it is the only one
+     * being handled.
      */
-    private final Socket client;
+    private static final int MAX_PIPELINED_BYTES = 4 << 20;
     /**
-     * Represents the input stream of the client socket.
+     * The maximum number of courses of a page, whatever the limit asked by the client.
      */
-    private final ObjectInputStream objectInputStream;
+    private static final int MAX_PAGE_SIZE = 1000;
     /**
-     * Represents the output stream of the client socket.
+     * The number of courses of each page of a stream of courses.
      */
-    private final ObjectOutputStream objectOutputStream;
+    private static final int STREAM_PAGE_SIZE = 256;
     /**
-     * Represents the list of event handlers for this ClientHandler.
+     * The maximum length of each field of a registration form, well below the 65535 bytes the registration log can
+     * store for a field.
      */
-    private final ArrayList<EventHandler> handlers;
+    private static final int MAX_FIELD_LENGTH = 256;
+    /**
+     * The value taken by {@link #inFlight} once the shutdown closed the connection, low enough to stay negative when
+     * the requests read afterward are counted.
+     */
+    private static final int CLOSED = Integer.MIN_VALUE / 2;
+    /**
+     * The number of consecutive requests of a client that may fail to be read before the client is disconnected.
+     */
+    private static volatile int maxErrors = 3;
+    /**
+     * Maps the commands of the clients to the event handlers subscribed to them.
+     */
+    private static final CommandRegistry COMMANDS = new CommandRegistry.Builder()
+            .subscribe(Server.REGISTER_COMMAND, RateLimiter.Budget.WRITE, (handler, request, cmd, arg) -> handler.handleRegistration(request))
+            .subscribe(Server.REGISTER_BATCH_COMMAND, RateLimiter.Budget.WRITE, (handler, request, cmd, arg) -> handler.handleBatchRegistration(request))
+            .subscribe(Server.LOAD_COMMAND, RateLimiter.Budget.READ, (handler, request, cmd, arg) -> handler.handleLoadCourses(request, arg))
+            .subscribe(Server.LOAD_PAGE_COMMAND, RateLimiter.Budget.READ, (handler, request, cmd, arg) -> handler.handleLoadPage(request, arg))
+            .subscribe(Server.LOAD_STREAM_COMMAND, RateLimiter.Budget.READ, (handler, request, cmd, arg) -> handler.handleLoadStream(request, arg))
+            .subscribe(Server.LOAD_IF_MODIFIED_COMMAND, RateLimiter.Budget.READ, (handler, request, cmd, arg) -> handler.handleLoadIfModified(request, arg))
+            .subscribe(Server.SEARCH_COMMAND, RateLimiter.Budget.READ, (handler, request, cmd, arg) -> handler.handleSearch(request, arg))
+            .subscribe(Server.STATS_COMMAND, RateLimiter.Budget.READ, (handler, request, cmd, arg) -> handler.handleStats(request))
+            .subscribe(Server.SHUTDOWN_COMMAND, null, (handler, request, cmd, arg) -> handler.handleShutdown(request))
+            .subscribe(Server.DISCONNECT_COMMAND, null, (handler, request, cmd, arg) -> handler.disconnect(request))
+            .build();
+    /**
+     * Represents the name of the client, used in the server messages.
+     */
+    private final String client;
+    /**
+     * Represents the connection to the client, closed when the client disconnects.
+     */
+    private final Closeable connection;
+    /**
+     * Decodes the requests of the client and encodes the replies in the protocol spoken by the client.
+     */
+    private final ClientCodec codec;
+    /**
+     * Runs the pipelined requests of the client, or null if the client does not pipeline its requests.
+     */
+    private final ExecutorService pipeline;
+    /**
+     * Limits the number of pipelined requests of the client being handled at once.
+     */
+    private final Semaphore pipelineSlots = new Semaphore(MAX_PIPELINED_REQUESTS);
+    /**
+     * Limits the total length of the bodies of the pipelined requests of the client being handled at once.
+     */
+    private final Semaphore pipelineBytes = new Semaphore(MAX_PIPELINED_BYTES);
+    /**
+     * Limits the rate of the requests of the client.
+     */
+    private final RateLimiter rateLimiter;
+    /**
+     * Whether the client runs on the machine of the server, which allows it to shut the server down.
+     */
+    private final boolean isLocal;
+    /**
+     * The number of requests of the client read but not answered yet, or a negative number once the shutdown closed
+     * the connection.
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
     /**
      * Used to tell the handler whether it can stop listening to the client or not.
      */
-    private boolean isClientDisconnecting = false;
+    private volatile boolean isClientDisconnecting = false;
+    /**
+     * Whether the server is shutting down, in which case the new requests of the client are not handled.
+     */
+    private volatile boolean draining = false;
+    /**
+     * The number of requests of the client that failed to be read since the last one that was read successfully.
+     */
+    private int consecutiveErrors = 0;
 
     /**
      * Creates a new client handler for a specific client.
@@ -57,222 +140,670 @@ class ClientHandler implements Runnable {
      * @throws IOException If an I/O error occurs when getting the client streams.
      */
     ClientHandler(Socket client) throws IOException {
+        this(client.toString(), client.getInetAddress(), client.getInputStream(), client.getOutputStream(), client);
+    }
+
+    /**
+     * Creates a new client handler for a client reached through the given streams.
+     * <p>
+     * The constructor blocks until the client has sent the first bytes of its stream, which tell the protocol it
+     * speaks.
+     *
+     * @param client       The name of the client, used in the server messages.
+     * @param address      The remote address of the client, whose connections share a rate limit.
+     * @param inputStream  The stream from which the client requests are read.
+     * @param outputStream The stream to which the replies are written.
+     * @param connection   The connection to close when the client disconnects.
+     *
+     * @throws IOException If an I/O error occurs when detecting the protocol of the client.
+     */
+    ClientHandler(String client, InetAddress address, InputStream inputStream, OutputStream outputStream, Closeable connection) throws IOException {
         // Store the client and create streams to read/write from/to the client
         this.client = client;
-        this.objectInputStream = new ObjectInputStream(client.getInputStream());
-        this.objectOutputStream = new ObjectOutputStream(client.getOutputStream());
-
-        // Create handlers
-        this.handlers = new ArrayList<>();
-        addEventHandler(this::handleEvents);
+        this.connection = connection;
+        this.codec = ClientCodec.open(inputStream, outputStream);
+        this.pipeline = codec.isPipelined() ? Executors.newVirtualThreadPerTaskExecutor() : null;
+        this.rateLimiter = RateLimiter.open(address);
+        this.isLocal = address != null && address.isLoopbackAddress();
+        ServerStats.connected();
+        ServerShutdown.add(this);
     }
 
     /**
-     * Adds a new event handler to the server's list of handlers.
+     * Sets the number of consecutive requests of a client that may fail to be read before the client is disconnected.
      *
-     * @param handler The event handler to add.
+     * @param maxErrors The maximum number of consecutive errors of a client.
      */
-    private void addEventHandler(EventHandler handler) {
-        this.handlers.add(handler);
+    static void configure(int maxErrors) {
+        ClientHandler.maxErrors = maxErrors;
     }
 
     /**
-     * Delegates the execution of a command to the appropriate event handler.
+     * Delegates the execution of a command to the event handlers subscribed to it.
+     * <p>
+     * The time spent handling the command and whether it failed are recorded in the {@link ServerStats}, unless the
+     * request was rejected by the rate limit of the client.
      *
-     * @param cmd The command to execute.
-     * @param arg The argument to pass to the event handler.
+     * @param request The request containing the command.
      */
-    private void handleEvents(String cmd, String arg) {
-        System.out.println(SERVER + "Received command " + ANSI_BLUE + cmd + ANSI_RESET + " from client: " + ANSI_BLUE + client + ANSI_RESET);
+    private void dispatch(Request request) {
+        String cmd = request.getCommand();
+        ServerLog.debug(() -> "Received command " + ANSI_BLUE + cmd + ANSI_RESET + " from client: " + ANSI_BLUE + client + ANSI_RESET);
+        long start = System.nanoTime();
+        CommandRegistry.Command command = COMMANDS.find(cmd);
         try {
-            if (cmd.equalsIgnoreCase(Server.REGISTER_COMMAND)) {
-                handleRegistration();
-            } else if (cmd.equalsIgnoreCase(Server.LOAD_COMMAND)) {
-                handleLoadCourses(arg);
-            } else if (cmd.equalsIgnoreCase(Server.DISCONNECT_COMMAND)) {
-                disconnect();
+            if (command == null) {
+                writeError(request, "Unknown command " + cmd + ".");
+            } else if (throttle(request, command.budget())) {
+                return;
+            } else {
+                command.handler().handle(this, request, cmd, request.getArgument());
             }
         } catch (IOException | ClassNotFoundException e) {
-            System.out.println(SERVER_ERROR + e.getMessage());
+            request.fail();
+            ServerLog.error(e.getMessage());
+        }
+        ServerStats.record(command != null ? command.name() : cmd, System.nanoTime() - start, request.isFailed());
+    }
+
+    /**
+     * Spends a token of a budget of the client for a request. When the budget is exhausted, the request is rejected if
+     * the protocol of the client can express it, so that the client retries it later, and delayed until a token is
+     * refilled otherwise, which slows the client down since it waits for the reply.
+     *
+     * @param request The request.
+     * @param budget  The budget spent by the request, or null if the request is never throttled.
+     *
+     * @return Whether the request was rejected.
+     *
+     * @throws IOException If an I/O error occurs while rejecting the request.
+     */
+    private boolean throttle(Request request, RateLimiter.Budget budget) throws IOException {
+        long wait = rateLimiter.acquire(budget);
+        if (wait == 0) {
+            return false;
         }
+
+        ServerStats.throttled();
+        ServerLog.debug(() -> "Throttled command " + ANSI_BLUE + request.getCommand() + ANSI_RESET + " from client: " + ANSI_BLUE + client + ANSI_RESET);
+        if (codec.writeThrottled(request, (int) TimeUnit.NANOSECONDS.toMillis(wait) + 1)) {
+            return true;
+        }
+        do {
+            LockSupport.parkNanos(wait);
+        } while ((wait = rateLimiter.acquire(budget)) > 0);
+        return false;
+    }
+
+    /**
+     * Writes an error to the client and marks the request as failed in the {@link ServerStats}.
+     *
+     * @param request The request that failed.
+     * @param message The error message.
+     *
+     * @throws IOException If an I/O error occurs when writing to the client.
+     */
+    private void writeError(Request request, String message) throws IOException {
+        request.fail();
+        codec.writeError(request, message);
     }
 
     /**
      * This method handles the registration process of a client to a course.
      * <p>
-     * It reads the RegistrationForm object from the objectInputStream, writes the registration information to a text
-     * file, and sends a confirmation message to the client.
+     * It reads the RegistrationForm object sent by the client, validates it, makes sure that the student is not already
+     * registered to the course and that the course has a free seat, saves the registration, and sends a confirmation
+     * message to the client.
+     *
+     * @param request The registration request.
      *
      * @throws IOException            If an I/O error occurs while writing to the text file containing the courses or
      *                                when dealing with the input/output streams.
-     * @throws ClassNotFoundException If the content of the ObjectInputStream is not a RegistrationForm object.
+     * @throws ClassNotFoundException If the client did not send a RegistrationForm object.
      */
-    private void handleRegistration() throws IOException, ClassNotFoundException {
-        // Read the RegistrationForm object from the object input stream
-        RegistrationForm form = (RegistrationForm) objectInputStream.readObject();
+    private void handleRegistration(Request request) throws IOException, ClassNotFoundException {
+        // Read the RegistrationForm object sent by the client
+        RegistrationForm form = codec.readRegistrationForm(request);
 
-        // Get the file
-        String fileName = "registrations.txt";
-        String file = System.getProperty("user.dir") + "/data/" + fileName;
+        // Reject the invalid forms and the duplicate registrations, and put the students on the waitlist of full courses
+        ArrayList<RegistrationForm> waitlisted = new ArrayList<>(1);
+        String error = admit(form, waitlisted);
+        if (!saveRegistrations(request, error == null ? List.of(form) : List.of(), waitlisted)) {
+            return;
+        }
 
-        // Create a PrintWriter object that writes to a file
-        // Use a FileWriter object to append to the file if it already exists
-        synchronized (syncWrite) {
-            PrintWriter writer = new PrintWriter(new FileWriter(file, true));
-            writer.println(form.getCourse().getSemester() + "\t" + form.getCourse().getCode() + "\t" + form.getStudentID() + "\t" + form.getFirstName() + "\t" + form.getLastName() + "\t" + form.getEmail());
-            writer.close();
+        if (error != null) {
+            writeError(request, error);
+            return;
         }
 
         // Send a confirmation message to the client
-        String message = "Registration successful, " + form.getFirstName() + " " + form.getLastName() + ". Thank you for registering to the " + form.getCourse().getSemester() + " " + form.getCourse().getCode() + " course!";
-        objectOutputStream.writeObject(message);
+        codec.writeMessage(request, confirm(form));
     }
 
     /**
-     * Reads a file containing course information, filters the courses by semester if needed,
-     * and writes the filtered courses to an object output stream.
+     * This method handles the registration of many students at once.
+     * <p>
+     * It reads the registration forms sent by the client and validates each of them, rejecting the registrations of a
+     * student to a course to which the student is already registered and putting the students registering to a full
+     * course on its waitlist. The valid registrations are
+     * written to the registrations file in a single write, then the client receives the result of each registration,
+     * in the order of the forms.
      *
-     * @param semester A string representing the semester to filter the courses by.
+     * @param request The batch registration request.
      *
-     * @throws IOException If an I/O error occurs while reading from the text file containing the courses or
-     *                     when writing to the output stream.
+     * @throws IOException            If an I/O error occurs while writing to the registrations file or when dealing with
+     *                                the input/output streams.
+     * @throws ClassNotFoundException If the client did not send a list of RegistrationForm objects.
      */
-    private void handleLoadCourses(String semester) throws IOException {
-        ArrayList<Course> courses = new ArrayList<>();
+    private void handleBatchRegistration(Request request) throws IOException, ClassNotFoundException {
+        List<RegistrationForm> forms = codec.readRegistrationForms(request);
 
-        // Read the file
-        String fileName = "courses.txt";
-        File file = new File(System.getProperty("user.dir") + "/data/" + fileName);
+        ArrayList<RegistrationForm> accepted = new ArrayList<>(forms.size());
+        ArrayList<RegistrationForm> waitlisted = new ArrayList<>();
+        String[] errors = new String[forms.size()];
+        for (int i = 0; i < errors.length; i++) {
+            errors[i] = admit(forms.get(i), waitlisted);
+            if (errors[i] == null) {
+                accepted.add(forms.get(i));
+            }
+        }
 
-        try {
-            // Create the scanner
-            Scanner scanner = new Scanner(file);
-
-            // Read all the lines in the file
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-                // Extract arguments from line. The format is `code \t name \t semester`
-                String[] tokens = line.split("\t");
-
-                // Make sure three arguments form the course in the file
-                if (tokens.length != 3) {
-                    System.out.println(SERVER_ERROR + "The courses in " + fileName + " are not properly formatted. The format is `code\tname\tsemester`");
-                    break;
-                }
+        if (!saveRegistrations(request, accepted, waitlisted)) {
+            return;
+        }
+        int registered = accepted.size();
+        ServerLog.debug(() -> "Registered " + registered + " of " + forms.size() + " students for client: " + ANSI_BLUE + client + ANSI_RESET);
 
-                if (semester.equals("")) {
-                    // If no semester is provided, load all the courses
-                    courses.add(new Course(tokens[1], tokens[0], tokens[2]));
-                } else if (tokens[2].equalsIgnoreCase(semester)) {
-                    // Filter for the right semester
-                    courses.add(new Course(tokens[1], tokens[0], tokens[2]));
-                }
+        // Only tell the results once the registrations and the waitlists are saved
+        ArrayList<RegistrationResult> results = new ArrayList<>(forms.size());
+        for (int i = 0; i < errors.length; i++) {
+            results.add(errors[i] == null ? new RegistrationResult(true, confirm(forms.get(i))) : new RegistrationResult(false, errors[i]));
+        }
+        codec.writeResults(request, results);
+    }
+
+    /**
+     * Validates a registration form.
+     *
+     * @param form The registration form.
+     *
+     * @return The reason why the form is invalid, or null if it is valid.
+     */
+    private static String validate(RegistrationForm form) {
+        if (form == null || form.getStudent() == null || form.getCourse() == null) {
+            return "The registration form is incomplete.";
+        }
+
+        Course course = form.getCourse();
+        if (isTooLong(form.getFirstName()) || isTooLong(form.getLastName()) || isTooLong(form.getEmail()) || isTooLong(form.getStudentID()) || isTooLong(course.getCode()) || isTooLong(course.getSemester())) {
+            return "A field of the registration form is longer than " + MAX_FIELD_LENGTH + " characters.";
+        }
+
+        if (form.getFirstName() == null || form.getFirstName().isBlank() || form.getLastName() == null || form.getLastName().isBlank()) {
+            return "The name of the student is missing.";
+        } else if (form.getEmail() == null || !isEmailValid(form.getEmail())) {
+            return "The email " + form.getEmail() + " is invalid.";
+        } else if (form.getStudentID() == null || !isStudentIDValid(form.getStudentID())) {
+            return "The student ID " + form.getStudentID() + " is invalid.";
+        }
+
+        if (course.getCode() == null || course.getSemester() == null || course.getSemester().isEmpty() || !CourseCatalog.getPartition(course.getSemester()).offers(course.getCode())) {
+            return "The course " + course.getCode() + " is not offered during the " + course.getSemester() + " semester.";
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether a field of a registration form is longer than {@link #MAX_FIELD_LENGTH}.
+     *
+     * @param field The field, which may be null.
+     *
+     * @return Whether the field is too long.
+     */
+    private static boolean isTooLong(String field) {
+        return field != null && field.length() > MAX_FIELD_LENGTH;
+    }
+
+    /**
+     * Validates a registration form, then reserves the registration in the {@link RegistrationIndex} and takes a seat
+     * in the course. Nothing is reserved if the registration is rejected. If the course is full, the student is put on
+     * its {@link CourseWaitlists waitlist} instead.
+     *
+     * @param form       The registration form.
+     * @param waitlisted Receives the form if the student is put on the waitlist of the course.
+     *
+     * @return The reason why the registration is rejected, or null if it is admitted.
+     */
+    private static String admit(RegistrationForm form, List<RegistrationForm> waitlisted) {
+        String error = validate(form);
+        if (error != null) {
+            return error;
+        }
+
+        Course course = form.getCourse();
+        if (!RegistrationIndex.reserve(form)) {
+            return "The student " + form.getStudentID() + " is already registered to the " + course.getSemester() + " " + course.getCode() + " course.";
+        }
+        if (!CourseEnrollments.admit(course)) {
+            int position = CourseWaitlists.enqueue(form);
+            RegistrationIndex.release(form);
+            if (position == 0) {
+                return "The " + course.getSemester() + " " + course.getCode() + " course is full and the student " + form.getStudentID() + " is already on its waitlist.";
+            }
+            waitlisted.add(form);
+            return "The " + course.getSemester() + " " + course.getCode() + " course is full. The student " + form.getStudentID() + " was put on its waitlist at position " + position + ".";
+        }
+        return null;
+    }
+
+    /**
+     * Frees the reservation and the seat of an admitted registration that could not be saved, then offers the seat to
+     * the waitlist of the course.
+     *
+     * @param form The registration form.
+     */
+    private static void release(RegistrationForm form) {
+        CourseEnrollments.release(form.getCourse());
+        RegistrationIndex.release(form);
+        CourseWaitlists.promote(form.getCourse());
+    }
+
+    /**
+     * Returns the message confirming a registration to the client.
+     *
+     * @param form The registration form.
+     *
+     * @return The confirmation message.
+     */
+    private static String confirm(RegistrationForm form) {
+        return "Registration successful, " + form.getFirstName() + " " + form.getLastName() + ". Thank you for registering to the " + form.getCourse().getSemester() + " " + form.getCourse().getCode() + " course!";
+    }
+
+    /**
+     * Appends registrations and the students put on waitlists to the {@link RegistrationJournal registrations journal}
+     * in a single write and waits until they are saved. The client is told if they cannot be saved, in which case
+     * their reservations and seats are freed and the students are removed from the waitlists. Otherwise, the
+     * registered students are removed from the waitlists of their courses.
+     *
+     * @param request    The registration request.
+     * @param forms      The registration forms of the admitted registrations.
+     * @param waitlisted The registration forms of the students put on waitlists.
+     *
+     * @return Whether the registrations were saved.
+     *
+     * @throws IOException If an I/O error occurs when writing to the client.
+     */
+    private boolean saveRegistrations(Request request, List<RegistrationForm> forms, List<RegistrationForm> waitlisted) throws IOException {
+        try {
+            RegistrationJournal.append(forms, waitlisted);
+        } catch (IOException e) {
+            for (RegistrationForm form : forms) {
+                release(form);
             }
+            for (RegistrationForm form : waitlisted) {
+                CourseWaitlists.remove(form);
+            }
+            writeError(request, "The registration could not be saved, please try again later.");
+            return false;
+        }
 
-            scanner.close();
-        } catch (FileNotFoundException e) {
-            System.out.println(SERVER_ERROR + e.getMessage());
-        } finally {
-            // Write the list of courses to the object output stream
-            objectOutputStream.writeObject(courses);
-            objectOutputStream.flush();
+        // A student registered while waiting for a seat does not need it anymore
+        for (RegistrationForm form : forms) {
+            CourseWaitlists.remove(form);
         }
+        return true;
     }
 
     /**
-     * Sends a disconnection confirmation to the client, then closes the input/output streams and the client socket.
+     * Writes the courses of the catalog offered during the given semester, or all the courses if no semester is
+     * provided, to the client.
+     *
+     * @param request  The load request.
+     * @param semester A string representing the semester to filter the courses by.
+     *
+     * @throws IOException If an I/O error occurs when writing to the client.
+     */
+    private void handleLoadCourses(Request request, String semester) throws IOException {
+        codec.writeCourses(request, CourseCatalog.getPartition(semester));
+    }
+
+    /**
+     * Writes a page of the courses of the catalog offered during the given semester, or of all the courses if no
+     * semester is provided, to the client.
+     *
+     * @param request The page request.
+     * @param arg     The offset of the page, its maximum number of courses and optionally the semester, separated by
+     *                spaces.
+     *
+     * @throws IOException If an I/O error occurs when writing to the client.
+     */
+    private void handleLoadPage(Request request, String arg) throws IOException {
+        String[] tokens = arg.split(" ", 3);
+        int offset;
+        int limit;
+        try {
+            offset = Integer.parseInt(tokens[0]);
+            limit = tokens.length > 1 ? Integer.parseInt(tokens[1]) : -1;
+        } catch (NumberFormatException e) {
+            offset = -1;
+            limit = -1;
+        }
+        if (offset < 0 || limit < 1) {
+            writeError(request, Server.LOAD_PAGE_COMMAND + " requires a non-negative offset and a positive limit, optionally followed by the semester.");
+            return;
+        }
+
+        CourseCatalog.Partition partition = CourseCatalog.getPartition(tokens.length > 2 ? tokens[2] : "");
+        int size = partition.getCourses().size();
+        int from = Math.min(offset, size);
+        int to = from + Math.min(Math.min(limit, MAX_PAGE_SIZE), size - from);
+        codec.writePage(request, partition, from, to);
+    }
+
+    /**
+     * Writes the courses of the catalog offered during the given semester, or all the courses if no semester is
+     * provided, to the client as a stream of pages of {@link #STREAM_PAGE_SIZE} courses, so that the client can display
+     * the first courses right away and that a single page is encoded at once.
+     *
+     * @param request  The stream request.
+     * @param semester A string representing the semester to filter the courses by.
+     *
+     * @throws IOException If an I/O error occurs when writing to the client.
+     */
+    private void handleLoadStream(Request request, String semester) throws IOException {
+        writeStream(request, CourseCatalog.getPartition(semester));
+    }
+
+    /**
+     * Writes the courses of the catalog offered during the given semester, or all the courses if no semester is
+     * provided, to the client as a stream of pages, unless they did not change since the version held by the client.
+     * In that case, the client is only told that they are not modified.
+     *
+     * @param request The conditional request.
+     * @param arg     The version of the courses held by the client, optionally followed by a space and the semester.
+     *
+     * @throws IOException If an I/O error occurs when writing to the client.
+     */
+    private void handleLoadIfModified(Request request, String arg) throws IOException {
+        String[] tokens = arg.split(" ", 2);
+        CourseCatalog.Partition partition = CourseCatalog.getPartition(tokens.length > 1 ? tokens[1] : "");
+        if (partition.getVersion().equals(tokens[0])) {
+            codec.writeNotModified(request, partition);
+        } else {
+            writeStream(request, partition);
+        }
+    }
+
+    /**
+     * Writes the courses of a partition of the catalog to the client as a stream of pages of {@link #STREAM_PAGE_SIZE}
+     * courses.
+     *
+     * @param request   The request.
+     * @param partition The partition of the catalog.
+     *
+     * @throws IOException If an I/O error occurs when writing to the client.
+     */
+    private void writeStream(Request request, CourseCatalog.Partition partition) throws IOException {
+        int size = partition.getCourses().size();
+        int offset = 0;
+        do {
+            int end = Math.min(offset + STREAM_PAGE_SIZE, size);
+            codec.writePage(request, partition, offset, end);
+            offset = end;
+        } while (offset < size);
+    }
+
+    /**
+     * Writes the courses of the catalog whose code starts with the query or whose name contains it to the client.
+     *
+     * @param request The search request.
+     * @param query   The query, case-insensitive.
+     *
+     * @throws IOException If an I/O error occurs when writing to the client.
+     */
+    private void handleSearch(Request request, String query) throws IOException {
+        if (query.isBlank()) {
+            writeError(request, "The search query is empty.");
+            return;
+        }
+        codec.writeCourses(request, CourseCatalog.search(query.strip()));
+    }
+
+    /**
+     * Writes the statistics of the server to the client.
+     *
+     * @param request The statistics request.
+     *
+     * @throws IOException If an I/O error occurs when writing to the client.
+     */
+    private void handleStats(Request request) throws IOException {
+        codec.writeMessage(request, ServerStats.report());
+    }
+
+    /**
+     * Waits for the pipelined requests of the client to be handled, sends a disconnection confirmation to the client,
+     * then closes the input/output streams and the client socket.
+     *
+     * @param request The disconnection request.
      *
      * @throws IOException If an I/O error occurs while closing the object input/output streams or the socket.
      */
-    private void disconnect() throws IOException {
+    private void disconnect(Request request) throws IOException {
         // Tell the handler it can stop listening to the client
         isClientDisconnecting = true;
+        ServerStats.disconnected();
+        rateLimiter.close();
+        ServerShutdown.remove(this);
+
+        // Wait for the requests still being handled
+        if (pipeline != null) {
+            pipeline.close();
+        }
 
         // Send confirmation
-        objectOutputStream.writeObject(SERVER + "Confirming disconnection...");
-        System.out.println(SERVER + "Client disconnected: " + ANSI_BLUE + client + ANSI_RESET);
-        objectOutputStream.flush();
+        codec.writeMessage(request, SERVER + "Confirming disconnection...");
+        ServerLog.info(() -> "Client disconnected: " + ANSI_BLUE + client + ANSI_RESET);
 
         // Close streams
-        objectOutputStream.close();
-        objectInputStream.close();
+        codec.close();
 
-        // Close socket
-        client.close();
+        // Close connection
+        connection.close();
     }
 
     /**
-     * Runs a continuous loop that listens to the client's command until the client disconnects.
-     * <p>
-     * It catches any IO exceptions or class not found exceptions that may occur while listening to the client's command
-     * and handles the case where the client crashes without disconnecting by properly terminating the connection to the
-     * crashed client.
+     * Shuts the server down if the client runs on the machine of the server.
+     *
+     * @param request The shutdown request.
+     *
+     * @throws IOException If an I/O error occurs while writing to the client.
      */
-    @Override
-    public void run() {
-        while (!isClientDisconnecting) {
-            try {
-                // Listen to the client's command
-                listen();
-            } catch (EOFException e) {
-                System.out.println(SERVER_ERROR + "Client improperly disconnected. Trying to properly close the streams...");
-                // Handle the case where the client crashes without disconnecting
-                try {
-                    // Properly terminate the connection to the crashed client
-                    disconnect();
-                } catch (IOException ex) {
-                    ex.getStackTrace();
-                }
-            } catch (IOException | ClassNotFoundException e) {
-                e.printStackTrace();
-            }
+    private void handleShutdown(Request request) throws IOException {
+        if (!isLocal) {
+            writeError(request, "Only the clients running on the machine of the server may shut it down.");
+            return;
         }
+
+        ServerLog.info(() -> "Shutdown requested by client: " + ANSI_BLUE + client + ANSI_RESET);
+        codec.writeMessage(request, SERVER + "Shutting down the server...");
+        ServerShutdown.request();
     }
 
     /**
-     * Reads a command from the client through the object input stream and alerts the registered event handlers
-     * to handle the received command.
+     * Tells the client that the server is shutting down. The requests received afterward are not handled, except for
+     * disconnections, and the connection is closed by the shutdown once the requests being handled are answered.
+     */
+    void drain() {
+        if (draining) {
+            return;
+        }
+        draining = true;
+
+        try {
+            codec.writeGoodbye(SERVER + "The server is shutting down.");
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Closes the connection if every request read from the client was answered. The check and the closing are atomic
+     * with the counting of the requests, so that a request read meanwhile is either answered before the connection
+     * is closed or never handled.
      *
-     * @throws IOException            If an I/O error occurs while reading from the input stream.
-     * @throws ClassNotFoundException If the class of the serialized object in the input stream cannot be found.
+     * @return Whether the connection was closed.
      */
-    private void listen() throws IOException, ClassNotFoundException {
-        String line;
+    boolean closeIfIdle() {
+        if (!inFlight.compareAndSet(0, CLOSED)) {
+            return false;
+        }
+        abort();
+        return true;
+    }
 
-        if ((line = this.objectInputStream.readObject().toString()) != null) {
-            Pair<String, String> parts = processCommandLine(line);
-            String cmd = parts.getKey();
-            String arg = parts.getValue();
-            this.alertHandlers(cmd, arg);
+    /**
+     * Terminates the connection to a client that cannot be talked to anymore, without sending it anything.
+     */
+    void abort() {
+        if (isClientDisconnecting) {
+            return;
+        }
+        isClientDisconnecting = true;
+        ServerStats.disconnected();
+        rateLimiter.close();
+        ServerShutdown.remove(this);
+
+        try {
+            connection.close();
+        } catch (IOException ignored) {
         }
+        // The requests still being handled fail to write their reply to the closed connection
+        if (pipeline != null) {
+            pipeline.close();
+        }
+        ServerLog.info(() -> "Client disconnected: " + ANSI_BLUE + client + ANSI_RESET);
     }
 
     /**
-     * Processes a given command line into a pair of command and argument strings.
+     * Runs a continuous loop that listens to the client's command until the client disconnects.
      *
-     * @param line The command line to process.
+     * @see #step()
+     */
+    @Override
+    public void run() {
+        while (!isClientDisconnecting) {
+            step();
+        }
+    }
+
+    /**
+     * Returns whether the client has disconnected.
      *
-     * @return A pair containing the command and its arguments.
+     * @return Whether the client has disconnected.
      */
-    private Pair<String, String> processCommandLine(String line) {
-        // Split the command into two parts
-        String[] parts = line.split(" ");
+    boolean isClientDisconnecting() {
+        return isClientDisconnecting;
+    }
 
-        // The first word is considered the command, and the rest is considered the arguments.
-        String cmd = parts[0];
-        String args = String.join(" ", Arrays.asList(parts).subList(1, parts.length));
-        return new Pair<>(cmd, args);
+    /**
+     * Listens to a single command of the client and handles it.
+     * <p>
+     * It catches any IO exceptions or class not found exceptions that may occur while listening to the client's command
+     * and handles the case where the client crashes without disconnecting by properly terminating the connection to the
+     * crashed client. The connection is also terminated when the client stays idle for longer than the idle timeout of
+     * its socket, when the connection is lost, or when {@link #maxErrors} requests in a row cannot be read, so that a
+     * dead client does not keep a thread busy failing to read from it.
+     */
+    void step() {
+        try {
+            // Listen to the client's command
+            listen();
+            consecutiveErrors = 0;
+        } catch (SocketTimeoutException e) {
+            ServerLog.info(() -> "Client " + ANSI_BLUE + client + ANSI_RESET + " was idle for too long.");
+            abort();
+        } catch (EOFException e) {
+            if (isClientDisconnecting) {
+                // The server closed the connection
+                return;
+            }
+            ServerLog.error("Client improperly disconnected. Trying to properly close the streams...");
+            // Handle the case where the client crashes without disconnecting
+            try {
+                // Properly terminate the connection to the crashed client
+                disconnect(new Request(Server.DISCONNECT_COMMAND, "", 0, null));
+            } catch (IOException ex) {
+                ex.getStackTrace();
+            }
+        } catch (SocketException e) {
+            if (isClientDisconnecting) {
+                return;
+            }
+            ServerLog.error("The connection to client " + client + " was lost: " + e.getMessage());
+            abort();
+        } catch (IOException | ClassNotFoundException e) {
+            if (isClientDisconnecting) {
+                return;
+            }
+            ServerLog.error("The connection to client " + client + " failed.", e);
+            if (++consecutiveErrors >= maxErrors) {
+                ServerLog.error("Too many consecutive errors from client " + client + ".");
+                abort();
+            }
+        }
     }
 
     /**
-     * Alerts the registered event handlers to handle a given command and argument.
+     * Reads a command from the client and dispatches it to the event handlers subscribed to it.
+     * <p>
+     * When the client pipelines its requests, the command is handled in a separate virtual thread so that the next
+     * request can be read right away, unless the client already has {@link #MAX_PIPELINED_REQUESTS} requests or
+     * {@link #MAX_PIPELINED_BYTES} bytes of requests being handled. Disconnections are always handled in order. Once
+     * the server is shutting down, the new requests other than disconnections are answered with an error instead of
+     * being handled, and the shutdown closes the connection once they are answered.
      *
-     * @param cmd The command to handle.
-     * @param arg The argument of the command to handle.
+     * @throws IOException            If an I/O error occurs while reading from the input stream.
+     * @throws ClassNotFoundException If the class of the serialized object in the input stream cannot be found.
      */
-    private void alertHandlers(String cmd, String arg) {
-        for (EventHandler handler : this.handlers) {
-            handler.handle(cmd, arg);
+    private void listen() throws IOException, ClassNotFoundException {
+        Request request;
+
+        if ((request = codec.readRequest()) != null) {
+            boolean isDisconnection = request.getCommand().equalsIgnoreCase(Server.DISCONNECT_COMMAND);
+            // Count the request before checking for the shutdown, so that the shutdown waits for it
+            if (inFlight.getAndIncrement() < 0) {
+                // The shutdown closed the connection before the request was counted
+                return;
+            }
+            if (draining && !isDisconnection) {
+                try {
+                    codec.writeError(request, SERVER + "The server is shutting down.");
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+                return;
+            }
+
+            if (pipeline == null || isDisconnection) {
+                try {
+                    dispatch(request);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            } else {
+                int length = Math.min(request.getLength(), MAX_PIPELINED_BYTES);
+                pipelineSlots.acquireUninterruptibly();
+                pipelineBytes.acquireUninterruptibly(length);
+                pipeline.execute(() -> {
+                    try {
+                        dispatch(request);
+                    } finally {
+                        pipelineBytes.release(length);
+                        pipelineSlots.release();
+                        inFlight.decrementAndGet();
+                    }
+                });
+            }
         }
     }
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+/**
+ * The CommandRegistry class maps the commands of the requests to the event handlers subscribed to them.
+ * <p>
+ * The commands are matched regardless of their case. They are kept in an open-addressing hash table whose hash ignores
+ * the case of the letters, so that finding the handler of a request takes a single hash of its command and usually a
+ * single comparison, without allocating any object, however many commands are registered.
+ * <p>
+ * A registry is immutable once {@link Builder built}, so that a single registry is shared by every client. The
+ * handlers receive the {@link ClientHandler} of the request when they are called.
+ */
+final class CommandRegistry {
+    /**
+     * The registered commands, indexed by the hash of their name. Empty slots are null.
+     */
+    private final Command[] table;
+
+    /**
+     * Creates a registry of the commands of a table.
+     *
+     * @param table The registered commands, indexed by the hash of their name.
+     */
+    private CommandRegistry(Command[] table) {
+        this.table = table;
+    }
+
+    /**
+     * Finds the command matching the command of a request.
+     *
+     * @param command The command of the request, case-insensitive.
+     *
+     * @return The registered command, or null if no handler is subscribed to it.
+     */
+    Command find(String command) {
+        Command candidate;
+        for (int slot = hash(command) & (table.length - 1); (candidate = table[slot]) != null; slot = (slot + 1) & (table.length - 1)) {
+            if (candidate.name().equals(command) || candidate.name().equalsIgnoreCase(command)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the slot of a table holding a command, or the empty slot where it would be inserted.
+     *
+     * @param table   The table.
+     * @param command The command, case-insensitive.
+     *
+     * @return The index of the slot.
+     */
+    private static int slot(Command[] table, String command) {
+        int slot = hash(command) & (table.length - 1);
+        while (table[slot] != null && !table[slot].name().equalsIgnoreCase(command)) {
+            slot = (slot + 1) & (table.length - 1);
+        }
+        return slot;
+    }
+
+    /**
+     * Hashes a command regardless of its case.
+     *
+     * @param command The command.
+     *
+     * @return The hash of the command.
+     */
+    private static int hash(String command) {
+        int hash = 0;
+        for (int i = 0; i < command.length(); i++) {
+            char c = command.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            } else if (c >= 0x80) {
+                // Fold the non-ASCII letters like String.equalsIgnoreCase does
+                c = Character.toLowerCase(Character.toUpperCase(c));
+            }
+            hash = 31 * hash + c;
+        }
+        // Spread the high bits, as only the low bits select the slot
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * A registered command.
+     *
+     * @param name    The name of the command, as registered.
+     * @param budget  The rate limit budget spent by the requests of the command, or null if they are never throttled.
+     * @param handler The event handler called for the requests of the command.
+     */
+    record Command(String name, RateLimiter.Budget budget, EventHandler handler) {
+    }
+
+    /**
+     * Subscribes the event handlers to their commands, then builds the registry.
+     */
+    static final class Builder {
+        /**
+         * The initial number of slots of the table, which must be a power of two.
+         */
+        private static final int INITIAL_CAPACITY = 16;
+        /**
+         * The registered commands, indexed by the hash of their name. Empty slots are null.
+         */
+        private Command[] table = new Command[INITIAL_CAPACITY];
+        /**
+         * The number of registered commands.
+         */
+        private int size = 0;
+
+        /**
+         * Subscribes an event handler to a command. The handlers subscribed to the same command are called in the
+         * order of their subscription, and the requests of the command spend the budget given at its first
+         * subscription.
+         *
+         * @param command The command, case-insensitive.
+         * @param budget  The rate limit budget spent by the requests of the command, or null if they are never
+         *                throttled.
+         * @param handler The event handler to call for the requests of the command.
+         *
+         * @return This builder.
+         */
+        Builder subscribe(String command, RateLimiter.Budget budget, EventHandler handler) {
+            int slot = slot(table, command);
+            Command existing = table[slot];
+            if (existing != null) {
+                EventHandler first = existing.handler();
+                table[slot] = new Command(existing.name(), existing.budget(), (client, request, cmd, arg) -> {
+                    first.handle(client, request, cmd, arg);
+                    handler.handle(client, request, cmd, arg);
+                });
+                return this;
+            }
+
+            table[slot] = new Command(command, budget, handler);
+            size++;
+            // Keep the table at most half full so that the probe sequences stay short
+            if (size * 2 > table.length) {
+                resize();
+            }
+            return this;
+        }
+
+        /**
+         * Builds the registry of the subscribed handlers. The builder may keep being used without changing the
+         * registry.
+         *
+         * @return The registry.
+         */
+        CommandRegistry build() {
+            return new CommandRegistry(table.clone());
+        }
+
+        /**
+         * Doubles the number of slots of the table.
+         */
+        private void resize() {
+            Command[] resized = new Command[table.length * 2];
+            for (Command command : table) {
+                if (command != null) {
+                    resized[slot(resized, command.name())] = command;
+                }
+            }
+            table = resized;
+        }
+    }
+}
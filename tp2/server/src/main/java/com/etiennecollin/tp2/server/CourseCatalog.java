@@ -0,0 +1,496 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import com.etiennecollin.tp2.server.models.Course;
+import com.etiennecollin.tp2.server.protocol.Protocol;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+
+/**
+ * The CourseCatalog class keeps the courses offered by the server in memory.
+ * <p>
+ * The catalog is shared by every client handler of the process. It is loaded once from the courses file when the
+ * server starts, then atomically replaced whenever a {@link WatchService} notices that the file changed, so that the
+ * handlers never read the file themselves.
+ * <p>
+ * Each version of the catalog is an immutable {@link Snapshot} in which the courses are partitioned by semester. Every
+ * {@link Partition} holds its courses already encoded in each protocol, so that answering a request only requires
+ * copying bytes to the client, along with a version derived from its courses. A client sending back the version of the
+ * courses it holds is told that they did not change, without receiving them again. As the version only depends on the
+ * courses, it survives the reloads of the file that leave a semester unchanged and the restarts of the server.
+ * <p>
+ * Each snapshot also holds a {@link CourseIndex} of its courses, through which the clients search the catalog by code
+ * or name without downloading it.
+ * <p>
+ * A course may have a limited number of seats, given by an optional fourth column of the courses file. The seats taken
+ * are counted by {@link CourseEnrollments}.
+ */
+final class CourseCatalog {
+    /**
+     * The name of the file containing the courses.
+     */
+    private static final String FILE_NAME = "courses.txt";
+    /**
+     * The capacity of the courses whose number of seats is not limited.
+     */
+    static final int UNLIMITED = Integer.MAX_VALUE;
+    /**
+     * The length of the header written by an {@link ObjectOutputStream} when it is created.
+     */
+    private static final int STREAM_HEADER_LENGTH = 4;
+    /**
+     * The current version of the catalog.
+     */
+    private static final AtomicReference<Snapshot> snapshot = new AtomicReference<>(new Snapshot(List.of(), Map.of()));
+
+    /**
+     * Prevents the instantiation of the class.
+     */
+    private CourseCatalog() {
+    }
+
+    /**
+     * Loads the catalog from the data directory and starts watching the courses file for changes. Like the previous
+     * versions of the server, the courses preceding the first malformed line of the file are loaded.
+     *
+     * @param dataDirectory The directory containing the courses file.
+     */
+    static void start(Path dataDirectory) {
+        Path file = dataDirectory.resolve(FILE_NAME);
+        reload(file, true);
+
+        try {
+            WatchService watcher = dataDirectory.getFileSystem().newWatchService();
+            dataDirectory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            Thread.ofPlatform().name("catalog-watcher").daemon().start(() -> watch(watcher, file));
+        } catch (IOException e) {
+            ServerLog.error("Cannot watch " + FILE_NAME + " for changes: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the courses currently offered by the server.
+     *
+     * @return An immutable list of the courses.
+     */
+    static List<Course> getCourses() {
+        return snapshot.get().courses;
+    }
+
+    /**
+     * Returns the courses offered during the given semester.
+     *
+     * @param semester The semester, case-insensitive, or an empty string for all the semesters.
+     *
+     * @return The partition of the catalog containing the courses of the semester.
+     */
+    static Partition getPartition(String semester) {
+        return snapshot.get().getPartition(semester);
+    }
+
+    /**
+     * Finds the courses whose code starts with the query or whose name contains it, ignoring the case.
+     *
+     * @param query The query, which must not be empty.
+     *
+     * @return An immutable list of the matching courses, in the order of the courses file.
+     */
+    static List<Course> search(String query) {
+        return snapshot.get().index.search(query);
+    }
+
+    /**
+     * Returns the number of seats of a course.
+     *
+     * @param course The course.
+     *
+     * @return The number of seats of the course, or {@link #UNLIMITED} if it is not limited.
+     */
+    static int getCapacity(Course course) {
+        return snapshot.get().capacities.getOrDefault(key(course), UNLIMITED);
+    }
+
+    /**
+     * Returns the key identifying a course offered during a semester.
+     *
+     * @param course The course.
+     *
+     * @return The case-insensitive key of the semester and the code of the course.
+     */
+    static String key(Course course) {
+        return key(course.getSemester()) + '\t' + key(course.getCode());
+    }
+
+    /**
+     * Reloads the catalog each time the courses file is created or modified.
+     *
+     * @param watcher The watch service on which the data directory is registered.
+     * @param file    The courses file.
+     */
+    private static void watch(WatchService watcher, Path file) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            boolean changed = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+                    changed = true;
+                }
+            }
+            if (changed) {
+                reload(file, false);
+            }
+
+            if (!key.reset()) {
+                ServerLog.error("Stopped watching " + FILE_NAME + " for changes.");
+                return;
+            }
+        }
+    }
+
+    /**
+     * Parses the courses file and replaces the catalog. The current catalog is kept if the file cannot be read, or if
+     * it is malformed or empty unless this is the initial load. An empty file is most likely being rewritten.
+     *
+     * @param file    The courses file.
+     * @param initial Whether this is the initial load, which loads the courses preceding the first malformed line.
+     */
+    private static void reload(Path file, boolean initial) {
+        try {
+            HashMap<String, Integer> capacities = new HashMap<>();
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            if (lines.isEmpty() && !initial) {
+                ServerLog.error("The file " + FILE_NAME + " is empty. Keeping the previous courses.");
+                return;
+            }
+            List<Course> parsed = parse(lines, capacities, initial);
+            snapshot.set(new Snapshot(parsed, Map.copyOf(capacities)));
+            ServerLog.info("Loaded " + parsed.size() + " courses from " + FILE_NAME + ".");
+
+            // Fill the seats added to the courses
+            CourseWaitlists.promoteAll();
+        } catch (NoSuchFileException e) {
+            ServerLog.error("The file " + e.getMessage() + " does not exist.");
+        } catch (StreamCorruptedException e) {
+            ServerLog.error(e.getMessage() + " Keeping the previous courses.");
+        } catch (IOException e) {
+            ServerLog.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Parses the lines of the courses file. This method is package-private so that it can be measured by the
+     * benchmarks.
+     *
+     * @param lines      The lines of the courses file.
+     * @param capacities Receives the number of seats of the courses whose number of seats is limited, keyed by
+     *                   {@link #key(Course) course key}.
+     *
+     * @return An immutable list of the courses.
+     *
+     * @throws StreamCorruptedException If a line is malformed.
+     */
+    static List<Course> parse(List<String> lines, Map<String, Integer> capacities) throws StreamCorruptedException {
+        return parse(lines, capacities, false);
+    }
+
+    /**
+     * Parses the lines of the courses file.
+     *
+     * @param lines      The lines of the courses file.
+     * @param capacities Receives the number of seats of the courses whose number of seats is limited, keyed by
+     *                   {@link #key(Course) course key}.
+     * @param partial    Whether to return the courses preceding the first malformed line instead of throwing.
+     *
+     * @return An immutable list of the courses.
+     *
+     * @throws StreamCorruptedException If a line is malformed and partial is false.
+     */
+    private static List<Course> parse(List<String> lines, Map<String, Integer> capacities, boolean partial) throws StreamCorruptedException {
+        ArrayList<Course> parsed = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            // Extract arguments from line. The format is `code \t name \t semester [\t capacity]`
+            String[] tokens = line.split("\t");
+
+            // Make sure three or four arguments form the course in the file
+            if (tokens.length != 3 && tokens.length != 4) {
+                String message = "The courses in " + FILE_NAME + " are not properly formatted. The format is `code\tname\tsemester[\tcapacity]`";
+                if (!partial) {
+                    throw new StreamCorruptedException(message + ".");
+                }
+                ServerLog.error(message);
+                break;
+            }
+
+            Course course = new Course(tokens[1], tokens[0], tokens[2]);
+            if (tokens.length == 4) {
+                int capacity;
+                try {
+                    capacity = Integer.parseInt(tokens[3].trim());
+                } catch (NumberFormatException e) {
+                    capacity = -1;
+                }
+                if (capacity < 0) {
+                    String message = "The capacity of the course " + course.getCode() + " in " + FILE_NAME + " must be a positive integer.";
+                    if (!partial) {
+                        throw new StreamCorruptedException(message);
+                    }
+                    ServerLog.error(message);
+                    break;
+                }
+                capacities.put(key(course), capacity);
+            }
+            parsed.add(course);
+        }
+        return List.copyOf(parsed);
+    }
+
+    /**
+     * Returns the key under which the partition of a semester is stored.
+     *
+     * @param semester The semester.
+     *
+     * @return The case-insensitive key of the semester.
+     */
+    private static String key(String semester) {
+        return semester.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * An immutable version of the catalog, partitioned by semester.
+     */
+    private static final class Snapshot {
+        /**
+         * All the courses of the catalog.
+         */
+        private final List<Course> courses;
+        /**
+         * The number of seats of the courses whose number of seats is limited, keyed by
+         * {@link CourseCatalog#key(Course) course key}.
+         */
+        private final Map<String, Integer> capacities;
+        /**
+         * The partition containing all the courses.
+         */
+        private final Partition all;
+        /**
+         * The partitions of the courses of each semester, keyed by {@link CourseCatalog#key(String) semester key}.
+         */
+        private final Map<String, Partition> semesters;
+        /**
+         * The index used to search the courses by code or name.
+         */
+        private final CourseIndex index;
+
+        /**
+         * Partitions the given courses, serializes each partition and indexes the courses.
+         *
+         * @param courses    All the courses of the catalog.
+         * @param capacities The number of seats of the courses whose number of seats is limited, keyed by
+         *                   {@link CourseCatalog#key(Course) course key}.
+         */
+        private Snapshot(List<Course> courses, Map<String, Integer> capacities) {
+            this.courses = courses;
+            this.capacities = capacities;
+            this.all = new Partition(courses);
+
+            // Group the courses by semester, keeping the order of the file
+            LinkedHashMap<String, ArrayList<Course>> grouped = new LinkedHashMap<>();
+            for (Course course : courses) {
+                grouped.computeIfAbsent(key(course.getSemester()), k -> new ArrayList<>()).add(course);
+            }
+
+            HashMap<String, Partition> partitions = new HashMap<>();
+            grouped.forEach((semester, semesterCourses) -> partitions.put(semester, new Partition(List.copyOf(semesterCourses))));
+            this.semesters = Map.copyOf(partitions);
+            this.index = new CourseIndex(courses);
+        }
+
+        /**
+         * Returns the courses offered during the given semester.
+         *
+         * @param semester The semester, case-insensitive, or an empty string for all the semesters.
+         *
+         * @return The partition containing the courses of the semester, empty if no course is offered.
+         */
+        private Partition getPartition(String semester) {
+            if (semester.isEmpty()) {
+                return all;
+            }
+            return semesters.getOrDefault(key(semester), Partition.EMPTY);
+        }
+    }
+
+    /**
+     * An immutable list of courses along with their serialized form.
+     */
+    static final class Partition {
+        /**
+         * The partition containing no course.
+         */
+        private static final Partition EMPTY = new Partition(List.of());
+        /**
+         * The value of {@link #compressed} once the encoded courses turned out not to be worth compressing.
+         */
+        private static final byte[] INCOMPRESSIBLE = new byte[0];
+        /**
+         * The courses of the partition.
+         */
+        private final List<Course> courses;
+        /**
+         * The {@link CourseCatalog#key(String) keys} of the codes of the courses of the partition.
+         */
+        private final Set<String> codes;
+        /**
+         * The courses serialized as an {@link ArrayList} by an {@link ObjectOutputStream} between two resets, without
+         * the stream header.
+         */
+        private final byte[] serialized;
+        /**
+         * The courses encoded as the payload of a {@link Protocol#COURSES COURSES} frame of the binary protocol.
+         */
+        private final byte[] encoded;
+        /**
+         * The version of the courses of the partition.
+         */
+        private final String version;
+        /**
+         * The encoded courses compressed with Deflate, computed the first time they are sent compressed.
+         */
+        private volatile byte[] compressed;
+
+        /**
+         * Creates a partition and encodes its courses in each protocol.
+         *
+         * @param courses The courses of the partition.
+         */
+        private Partition(List<Course> courses) {
+            this.courses = courses;
+            this.codes = courses.stream().map(course -> key(course.getCode())).collect(Collectors.toUnmodifiableSet());
+            this.serialized = serialize(new ArrayList<>(courses));
+            this.encoded = Protocol.encodeCourses(courses);
+            this.version = version(encoded);
+        }
+
+        /**
+         * Computes the version of encoded courses, made of the first bytes of their SHA-256 digest.
+         *
+         * @param encoded The encoded courses.
+         *
+         * @return The version of the courses, as hexadecimal digits.
+         */
+        private static String version(byte[] encoded) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(encoded);
+                return HexFormat.of().formatHex(digest, 0, 8);
+            } catch (NoSuchAlgorithmException e) {
+                // Every Java platform implements SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Serializes an object between two {@link ObjectOutputStream#reset() resets} and without the header of the
+         * object stream, so that the bytes can be appended as is to an existing object stream that holds no reference
+         * to a previous object.
+         *
+         * @param object The object to serialize.
+         *
+         * @return The serialized object.
+         */
+        private static byte[] serialize(Serializable object) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream stream = new ObjectOutputStream(bytes)) {
+                stream.reset();
+                stream.writeObject(object);
+                stream.reset();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            byte[] serialized = bytes.toByteArray();
+            return Arrays.copyOfRange(serialized, STREAM_HEADER_LENGTH, serialized.length);
+        }
+
+        /**
+         * Returns the courses of the partition.
+         *
+         * @return An immutable list of the courses.
+         */
+        List<Course> getCourses() {
+            return courses;
+        }
+
+        /**
+         * Returns the version of the courses of the partition, which changes whenever its courses change.
+         *
+         * @return The version of the courses.
+         */
+        String getVersion() {
+            return version;
+        }
+
+        /**
+         * Returns whether the partition contains the course with the given code.
+         *
+         * @param code The code of the course, case-insensitive.
+         *
+         * @return Whether the partition contains the course.
+         */
+        boolean offers(String code) {
+            return codes.contains(key(code));
+        }
+
+        /**
+         * Returns the courses serialized as an {@link ArrayList} by an {@link ObjectOutputStream} between two resets,
+         * without the stream header.
+         *
+         * @return The serialized courses. The array must not be modified.
+         */
+        byte[] getSerialized() {
+            return serialized;
+        }
+
+        /**
+         * Returns the courses encoded as the payload of a {@link Protocol#COURSES COURSES} frame of the binary
+         * protocol.
+         *
+         * @return The encoded courses. The array must not be modified.
+         */
+        byte[] getEncoded() {
+            return encoded;
+        }
+
+        /**
+         * Returns the encoded courses compressed as the payload of a {@link Protocol#COMPRESSED compressed} frame. They
+         * are compressed once with the best compression, as they are sent to every client loading the courses.
+         *
+         * @return The compressed courses, or {@code null} if they are not shorter than the encoded courses. The array
+         *         must not be modified.
+         */
+        byte[] getCompressed() {
+            byte[] compressed = this.compressed;
+            if (compressed == null) {
+                // Concurrent callers may compress the courses more than once, which only wastes some time
+                compressed = Protocol.compress(encoded, Deflater.BEST_COMPRESSION);
+                this.compressed = compressed = compressed == null ? INCOMPRESSIBLE : compressed;
+            }
+            return compressed == INCOMPRESSIBLE ? null : compressed;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import com.etiennecollin.tp2.server.models.Course;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The CourseEnrollments class counts the seats taken in each course, so that a course does not admit more students
+ * than its capacity.
+ * <p>
+ * The counters are shared by every client handler of the process. Each course has its own atomic counter, which a
+ * handler increments with a compare-and-set loop only while the course has free seats, so that concurrent
+ * registrations to a popular course never exceed its capacity without taking any lock. The counters are restored from
+ * the {@link RegistrationLog} when the server starts.
+ */
+final class CourseEnrollments {
+    /**
+     * The number of seats taken in each course, keyed by {@link CourseCatalog#key(Course) course key}.
+     */
+    private static final ConcurrentHashMap<String, AtomicInteger> enrollments = new ConcurrentHashMap<>();
+
+    /**
+     * Prevents the instantiation of the class.
+     */
+    private CourseEnrollments() {
+    }
+
+    /**
+     * Counts a registration restored from the registrations log, regardless of the capacity of the course.
+     *
+     * @param course The course.
+     */
+    static void restore(Course course) {
+        counter(course).incrementAndGet();
+    }
+
+    /**
+     * Takes a seat in a course if it is not full.
+     *
+     * @param course The course.
+     *
+     * @return Whether a seat was taken, false if the course is full.
+     */
+    static boolean admit(Course course) {
+        int capacity = CourseCatalog.getCapacity(course);
+        AtomicInteger counter = counter(course);
+        while (true) {
+            int taken = counter.get();
+            if (taken >= capacity) {
+                return false;
+            }
+            if (counter.compareAndSet(taken, taken + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Frees a seat taken in a course.
+     *
+     * @param course The course.
+     */
+    static void release(Course course) {
+        counter(course).decrementAndGet();
+    }
+
+    /**
+     * Returns the counter of a course, creating it if needed.
+     *
+     * @param course The course.
+     *
+     * @return The counter of the course.
+     */
+    private static AtomicInteger counter(Course course) {
+        return enrollments.computeIfAbsent(CourseCatalog.key(course), key -> new AtomicInteger());
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import com.etiennecollin.tp2.server.models.Course;
+
+import java.util.*;
+
+/**
+ * The CourseIndex class finds the courses whose code starts with a query or whose name contains it, without going
+ * through every course of the catalog.
+ * <p>
+ * The codes are stored in a prefix trie in which every node keeps the courses whose code starts with the prefix leading
+ * to it, so that a code query only walks down the trie. The names are indexed by their n-grams, the substrings of at
+ * most {@link #GRAM_LENGTH} characters: a shorter query is answered by a single lookup, whereas a longer one intersects
+ * the courses containing each of its n-grams and only checks the names of the remaining courses.
+ * <p>
+ * An index is immutable and built along with each {@link CourseCatalog} snapshot. The courses are identified by their
+ * position in the catalog, so that the results keep the order of the courses file.
+ */
+final class CourseIndex {
+    /**
+     * The maximum length of the n-grams of the names.
+     */
+    private static final int GRAM_LENGTH = 3;
+    /**
+     * The positions of no course.
+     */
+    private static final int[] NONE = new int[0];
+    /**
+     * The indexed courses.
+     */
+    private final List<Course> courses;
+    /**
+     * The {@link #normalize(String) normalized} names of the courses, by position.
+     */
+    private final String[] names;
+    /**
+     * The root of the trie of the {@link #normalize(String) normalized} codes of the courses.
+     */
+    private final Node codes;
+    /**
+     * The positions of the courses whose normalized name contains each n-gram, in ascending order.
+     */
+    private final Map<String, int[]> grams;
+
+    /**
+     * Indexes the given courses.
+     *
+     * @param courses The courses, in the order of the catalog.
+     */
+    CourseIndex(List<Course> courses) {
+        this.courses = courses;
+        this.names = new String[courses.size()];
+        this.codes = new Node();
+
+        HashMap<String, Postings> postings = new HashMap<>();
+        for (int i = 0; i < courses.size(); i++) {
+            Course course = courses.get(i);
+
+            // Add the course to every node of the trie along its code
+            Node node = codes;
+            node.courses.add(i);
+            for (char c : normalize(course.getCode()).toCharArray()) {
+                node = node.children.computeIfAbsent(c, key -> new Node());
+                node.courses.add(i);
+            }
+
+            // Add the course to the postings of every n-gram of its name
+            String name = normalize(course.getName());
+            names[i] = name;
+            for (int start = 0; start < name.length(); start++) {
+                for (int end = start + 1; end <= Math.min(start + GRAM_LENGTH, name.length()); end++) {
+                    postings.computeIfAbsent(name.substring(start, end), key -> new Postings()).add(i);
+                }
+            }
+        }
+
+        HashMap<String, int[]> grams = new HashMap<>(postings.size() * 4 / 3 + 1);
+        postings.forEach((gram, positions) -> grams.put(gram, positions.toArray()));
+        this.grams = grams;
+        codes.freeze();
+    }
+
+    /**
+     * Finds the courses whose code starts with the query or whose name contains it, ignoring the case.
+     *
+     * @param query The query, which must not be empty.
+     *
+     * @return An immutable list of the matching courses, in the order of the catalog.
+     */
+    List<Course> search(String query) {
+        String normalized = normalize(query);
+        int[] matches = union(searchCodes(normalized), searchNames(normalized));
+
+        ArrayList<Course> results = new ArrayList<>(matches.length);
+        for (int position : matches) {
+            results.add(courses.get(position));
+        }
+        return Collections.unmodifiableList(results);
+    }
+
+    /**
+     * Finds the courses whose code starts with the query.
+     *
+     * @param query The normalized query.
+     *
+     * @return The positions of the matching courses, in ascending order.
+     */
+    private int[] searchCodes(String query) {
+        Node node = codes;
+        for (int i = 0; i < query.length() && node != null; i++) {
+            node = node.children.get(query.charAt(i));
+        }
+        return node == null ? NONE : node.positions;
+    }
+
+    /**
+     * Finds the courses whose name contains the query.
+     *
+     * @param query The normalized query.
+     *
+     * @return The positions of the matching courses, in ascending order.
+     */
+    private int[] searchNames(String query) {
+        if (query.length() <= GRAM_LENGTH) {
+            return grams.getOrDefault(query, NONE);
+        }
+
+        // Gather the postings of the n-grams of the query, the rarest first
+        int[][] postings = new int[query.length() - GRAM_LENGTH + 1][];
+        for (int start = 0; start < postings.length; start++) {
+            postings[start] = grams.get(query.substring(start, start + GRAM_LENGTH));
+            if (postings[start] == null) {
+                return NONE;
+            }
+        }
+        Arrays.sort(postings, Comparator.comparingInt(positions -> positions.length));
+
+        // Keep the courses containing every n-gram, then the ones containing the whole query
+        int[] candidates = postings[0];
+        for (int i = 1; i < postings.length && candidates.length > 0; i++) {
+            candidates = intersection(candidates, postings[i]);
+        }
+        return Arrays.stream(candidates).filter(position -> names[position].contains(query)).toArray();
+    }
+
+    /**
+     * Normalizes a code, a name or a query so that they are compared regardless of their case.
+     *
+     * @param value The value to normalize.
+     *
+     * @return The normalized value.
+     */
+    private static String normalize(String value) {
+        return value.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Computes the intersection of two sets of positions.
+     *
+     * @param first  The first positions, in ascending order.
+     * @param second The second positions, in ascending order.
+     *
+     * @return The positions found in both sets, in ascending order.
+     */
+    private static int[] intersection(int[] first, int[] second) {
+        int[] result = new int[Math.min(first.length, second.length)];
+        int size = 0;
+        for (int i = 0, j = 0; i < first.length && j < second.length; ) {
+            if (first[i] < second[j]) {
+                i++;
+            } else if (first[i] > second[j]) {
+                j++;
+            } else {
+                result[size++] = first[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Computes the union of two sets of positions.
+     *
+     * @param first  The first positions, in ascending order.
+     * @param second The second positions, in ascending order.
+     *
+     * @return The positions found in either set, in ascending order.
+     */
+    private static int[] union(int[] first, int[] second) {
+        int[] result = new int[first.length + second.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < first.length && j < second.length) {
+            if (first[i] < second[j]) {
+                result[size++] = first[i++];
+            } else if (first[i] > second[j]) {
+                result[size++] = second[j++];
+            } else {
+                result[size++] = first[i++];
+                j++;
+            }
+        }
+        while (i < first.length) {
+            result[size++] = first[i++];
+        }
+        while (j < second.length) {
+            result[size++] = second[j++];
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * A node of the trie of the codes.
+     */
+    private static final class Node {
+        /**
+         * The children of the node, keyed by the next character of the code.
+         */
+        private final HashMap<Character, Node> children = new HashMap<>();
+        /**
+         * The positions of the courses whose code starts with the prefix leading to the node, while the trie is built.
+         */
+        private Postings courses = new Postings();
+        /**
+         * The positions of the courses whose code starts with the prefix leading to the node, in ascending order, once
+         * the trie is built.
+         */
+        private int[] positions = NONE;
+
+        /**
+         * Replaces the positions being built by their final array in the node and its descendants.
+         */
+        private void freeze() {
+            ArrayDeque<Node> nodes = new ArrayDeque<>();
+            nodes.push(this);
+            while (!nodes.isEmpty()) {
+                Node node = nodes.pop();
+                node.positions = node.courses.toArray();
+                node.courses = null;
+                node.children.values().forEach(nodes::push);
+            }
+        }
+    }
+
+    /**
+     * A growing set of positions, added in ascending order.
+     */
+    private static final class Postings {
+        /**
+         * The positions, of which only the first {@link #size} are used.
+         */
+        private int[] positions = new int[4];
+        /**
+         * The number of positions.
+         */
+        private int size = 0;
+
+        /**
+         * Adds a position unless it was the last one added.
+         *
+         * @param position The position, greater than or equal to the positions already added.
+         */
+        private void add(int position) {
+            if (size > 0 && positions[size - 1] == position) {
+                return;
+            }
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = position;
+        }
+
+        /**
+         * Returns the positions.
+         *
+         * @return The positions, in ascending order.
+         */
+        private int[] toArray() {
+            return Arrays.copyOf(positions, size);
+        }
+    }
+}
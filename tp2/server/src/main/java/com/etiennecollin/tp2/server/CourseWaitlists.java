@@ -0,0 +1,275 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import com.etiennecollin.tp2.server.models.Course;
+import com.etiennecollin.tp2.server.models.RegistrationForm;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The CourseWaitlists class keeps the students waiting for a seat in a full course.
+ * <p>
+ * The waitlists are shared by every client handler of the process. Each course has its own waitlist, a priority queue
+ * ordered by the moment at which the students were put on it, so that both putting a student on the waitlist and
+ * promoting its head take a logarithmic time. The students put on a waitlist are saved in the {@link RegistrationLog}
+ * along with the registrations, from which the waitlists are restored when the server starts.
+ * <p>
+ * The head of a waitlist is only promoted when a registration holding a seat of its course could not be saved, or
+ * when the capacity of the course is raised in the courses file, which is applied when the file is reloaded or when
+ * the server starts. The server has no command to cancel a registration, so no other seat frees up. The promoted
+ * students are saved in the log, but neither they nor their clients are notified, since a promotion does not answer a
+ * request: a student learns of it by registering to the course again.
+ */
+final class CourseWaitlists {
+    /**
+     * The waitlists of the courses, keyed by {@link CourseCatalog#key(Course) course key}.
+     */
+    private static final ConcurrentHashMap<String, Waitlist> waitlists = new ConcurrentHashMap<>();
+    /**
+     * The order in which the students were put on the waitlists.
+     */
+    private static final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Prevents the instantiation of the class.
+     */
+    private CourseWaitlists() {
+    }
+
+    /**
+     * Puts a student restored from the registrations log on the waitlist of a course, unless the student was already
+     * registered to the course.
+     *
+     * @param form The registration form.
+     */
+    static void restore(RegistrationForm form) {
+        if (!RegistrationIndex.contains(form)) {
+            waitlist(form.getCourse()).add(form);
+        }
+    }
+
+    /**
+     * Removes a student restored from the registrations log from the waitlist of a course, once the student is
+     * registered to the course.
+     *
+     * @param form The registration form.
+     */
+    static void restoreRegistration(RegistrationForm form) {
+        Waitlist waitlist = waitlists.get(CourseCatalog.key(form.getCourse()));
+        if (waitlist != null) {
+            waitlist.remove(form.getStudentID());
+        }
+    }
+
+    /**
+     * Puts a student on the waitlist of a full course. The caller saves the student in the registrations log.
+     *
+     * @param form The registration form.
+     *
+     * @return The position of the student on the waitlist, starting at 1, or 0 if the student was already on it.
+     */
+    static int enqueue(RegistrationForm form) {
+        return waitlist(form.getCourse()).add(form);
+    }
+
+    /**
+     * Removes a student from the waitlist of a course, either because the student could not be saved in the
+     * registrations log or because the student got registered to the course.
+     *
+     * @param form The registration form.
+     */
+    static void remove(RegistrationForm form) {
+        restoreRegistration(form);
+    }
+
+    /**
+     * Registers the students at the head of the waitlist of a course while the course has free seats.
+     *
+     * @param course The course.
+     */
+    static void promote(Course course) {
+        Waitlist waitlist = waitlists.get(CourseCatalog.key(course));
+        if (waitlist != null) {
+            waitlist.promote();
+        }
+    }
+
+    /**
+     * Registers the students at the head of every waitlist while their course has free seats.
+     */
+    static void promoteAll() {
+        for (Waitlist waitlist : waitlists.values()) {
+            waitlist.promote();
+        }
+    }
+
+    /**
+     * Returns the waitlist of a course, creating it if needed.
+     *
+     * @param course The course.
+     *
+     * @return The waitlist of the course.
+     */
+    private static Waitlist waitlist(Course course) {
+        return waitlists.computeIfAbsent(CourseCatalog.key(course), key -> new Waitlist());
+    }
+
+    /**
+     * The waitlist of a course. Its methods are synchronized on the waitlist, so that the waitlists of different
+     * courses are used concurrently.
+     */
+    private static final class Waitlist {
+        /**
+         * The students waiting for a seat, ordered by the moment at which they were put on the waitlist. The entries
+         * removed from the waitlist are only discarded once they reach the head of the queue.
+         */
+        private final PriorityQueue<Entry> queue = new PriorityQueue<>(Comparator.comparingLong(entry -> entry.sequence));
+        /**
+         * The entries of the students waiting for a seat, keyed by student ID.
+         */
+        private final HashMap<String, Entry> waiting = new HashMap<>();
+
+        /**
+         * Puts a student at the end of the waitlist.
+         *
+         * @param form The registration form.
+         *
+         * @return The position of the student on the waitlist, starting at 1, or 0 if the student was already on it.
+         */
+        private synchronized int add(RegistrationForm form) {
+            if (waiting.containsKey(form.getStudentID())) {
+                return 0;
+            }
+
+            Entry entry = new Entry(form, sequence.incrementAndGet());
+            waiting.put(form.getStudentID(), entry);
+            queue.add(entry);
+            return waiting.size();
+        }
+
+        /**
+         * Removes a student from the waitlist.
+         *
+         * @param studentID The ID of the student.
+         */
+        private synchronized void remove(String studentID) {
+            Entry entry = waiting.remove(studentID);
+            if (entry != null) {
+                entry.removed = true;
+            }
+        }
+
+        /**
+         * Takes the students at the head of the waitlist while the course has free seats, and reserves their
+         * registrations in the {@link RegistrationIndex}. Nobody is taken while the course is missing from the catalog,
+         * which happens while the courses file is being rewritten.
+         * <p>
+         * A student whose registration is already reserved is either being registered by a request, which removes the
+         * student from the waitlist once saved, or held by a request that may still be rolled back. The student keeps
+         * their place on the waitlist and the seat goes to the next student.
+         *
+         * @return The entries of the students, who hold a seat and a reservation.
+         */
+        private synchronized List<Entry> poll() {
+            ArrayList<Entry> promoted = new ArrayList<>();
+            ArrayList<Entry> skipped = new ArrayList<>();
+            Entry head;
+            while ((head = queue.peek()) != null) {
+                Course course = head.form.getCourse();
+                if (!CourseCatalog.getPartition(course.getSemester()).offers(course.getCode())) {
+                    break;
+                } else if (head.removed) {
+                    queue.poll();
+                } else if (!CourseEnrollments.admit(course)) {
+                    break;
+                } else if (RegistrationIndex.reserve(head.form)) {
+                    queue.poll();
+                    waiting.remove(head.form.getStudentID());
+                    promoted.add(head);
+                } else {
+                    CourseEnrollments.release(course);
+                    skipped.add(queue.poll());
+                }
+            }
+            queue.addAll(skipped);
+            return promoted;
+        }
+
+        /**
+         * Puts students back on the waitlist at their previous positions.
+         *
+         * @param entries The entries of the students.
+         */
+        private synchronized void restore(List<Entry> entries) {
+            for (Entry entry : entries) {
+                if (waiting.putIfAbsent(entry.form.getStudentID(), entry) == null) {
+                    queue.add(entry);
+                }
+            }
+        }
+
+        /**
+         * Registers the students at the head of the waitlist while the course has free seats.
+         */
+        private void promote() {
+            List<Entry> promoted = poll();
+            if (promoted.isEmpty()) {
+                return;
+            }
+
+            ArrayList<RegistrationForm> forms = new ArrayList<>(promoted.size());
+            for (Entry entry : promoted) {
+                forms.add(entry.form);
+            }
+
+            try {
+                RegistrationJournal.append(forms, RegistrationLog.REGISTERED);
+                for (RegistrationForm form : forms) {
+                    ServerLog.info(() -> "Promoted student " + form.getStudentID() + " from the waitlist of the " + form.getCourse().getSemester() + " " + form.getCourse().getCode() + " course.");
+                }
+            } catch (IOException e) {
+                // Give the seats back and keep the students on the waitlist
+                for (RegistrationForm form : forms) {
+                    RegistrationIndex.release(form);
+                    CourseEnrollments.release(form.getCourse());
+                }
+                restore(promoted);
+            }
+        }
+    }
+
+    /**
+     * A student waiting for a seat.
+     */
+    private static final class Entry {
+        /**
+         * The registration form of the student.
+         */
+        private final RegistrationForm form;
+        /**
+         * The order in which the student was put on the waitlist.
+         */
+        private final long sequence;
+        /**
+         * Whether the student was removed from the waitlist.
+         */
+        private boolean removed = false;
+
+        /**
+         * Creates a new entry.
+         *
+         * @param form     The registration form of the student.
+         * @param sequence The order in which the student was put on the waitlist.
+         */
+        private Entry(RegistrationForm form, long sequence) {
+            this.form = form;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -4,18 +4,27 @@
 
 package com.etiennecollin.tp2.server;
 
+import java.io.IOException;
+
 /**
  * A functional interface for handling events received by the server.
  * <p>
- * Implementations of this interface must provide a method to handle events, taking in a command and an argument as strings.
+ * Implementations of this interface must provide a method to handle events, taking in the handler of the client and
+ * the request that raised the event along with its command and argument as strings. A handler is subscribed to the
+ * commands it handles in a {@link CommandRegistry} shared by every client.
  */
 @FunctionalInterface
 interface EventHandler {
     /**
      * Handles an event with the given command and argument.
      *
-     * @param cmd The command associated with the event.
-     * @param arg The argument associated with the event.
+     * @param client  The handler of the client that sent the request.
+     * @param request The request that raised the event, used to read its body and to reply to it.
+     * @param cmd     The command associated with the event.
+     * @param arg     The argument associated with the event.
+     *
+     * @throws IOException            If an I/O error occurs when reading the request or writing the reply.
+     * @throws ClassNotFoundException If the class of an object sent by the client cannot be found.
      */
-    void handle(String cmd, String arg);
+    void handle(ClientHandler client, Request request, String cmd, String arg) throws IOException, ClassNotFoundException;
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The LatencyHistogram class records durations concurrently and estimates their percentiles.
+ * <p>
+ * The durations are counted in buckets whose width grows with the duration: every power of two is split in
+ * {@link #SUB_BUCKETS} buckets of equal width, so that a percentile is estimated within about 6 % of its value whatever
+ * its magnitude. Recording a duration only increments a counter, without taking any lock or allocating any object, so
+ * that the histogram can be updated by every request.
+ * <p>
+ * The class is public so that the load generator reports the latencies it measures like the server does.
+ */
+public final class LatencyHistogram {
+    /**
+     * The number of buckets splitting every power of two, which must be a power of two itself.
+     */
+    private static final int SUB_BUCKETS = 16;
+    /**
+     * The base-2 logarithm of {@link #SUB_BUCKETS}.
+     */
+    private static final int SUB_BUCKET_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+    /**
+     * The number of buckets needed to count any positive {@code long}.
+     */
+    private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    /**
+     * The number of durations of each bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    /**
+     * The number of recorded durations.
+     */
+    private final LongAdder count = new LongAdder();
+    /**
+     * The sum of the recorded durations, in microseconds.
+     */
+    private final LongAdder sum = new LongAdder();
+    /**
+     * The longest recorded duration, in microseconds.
+     */
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos The duration in nanoseconds.
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(bucket(micros));
+        count.increment();
+        sum.add(micros);
+        max.accumulate(micros);
+    }
+
+    /**
+     * Returns the number of recorded durations.
+     *
+     * @return The number of recorded durations.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the mean of the recorded durations.
+     *
+     * @return The mean duration in microseconds, or 0 if no duration was recorded.
+     */
+    public long getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : sum.sum() / count;
+    }
+
+    /**
+     * Returns the longest recorded duration.
+     *
+     * @return The longest duration in microseconds.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Estimates a percentile of the recorded durations. Durations recorded meanwhile may or may not be taken into
+     * account.
+     *
+     * @param percentile The percentile, between 0 and 100.
+     *
+     * @return The upper bound of the bucket containing the percentile, in microseconds, or 0 if no duration was
+     *         recorded.
+     */
+    public long getPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Returns the bucket counting a duration.
+     *
+     * @param micros The duration in microseconds, non-negative.
+     *
+     * @return The index of the bucket.
+     */
+    private static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(micros);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((micros >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Returns the longest duration counted by a bucket.
+     *
+     * @param bucket The index of the bucket.
+     *
+     * @return The longest duration of the bucket, in microseconds.
+     */
+    private static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long first = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return first + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import com.etiennecollin.tp2.server.models.Course;
+import com.etiennecollin.tp2.server.models.CoursePage;
+import com.etiennecollin.tp2.server.models.RegistrationForm;
+import com.etiennecollin.tp2.server.models.RegistrationResult;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The ObjectStreamCodec class speaks the original protocol of the server, in which the commands, the registration
+ * forms and the replies are exchanged as serialized Java objects.
+ * <p>
+ * Every reply ends with a reset of the object stream, so that the stream never refers to the objects of a previous
+ * reply and the courses serialized by the catalog can be copied to the client as is.
+ */
+final class ObjectStreamCodec implements ClientCodec {
+    /**
+     * Represents the raw output stream of the client, on which the object output stream is built.
+     */
+    private final OutputStream outputStream;
+    /**
+     * Represents the input stream of the client socket.
+     */
+    private final ObjectInputStream objectInputStream;
+    /**
+     * Represents the output stream of the client socket.
+     */
+    private final ObjectOutputStream objectOutputStream;
+
+    /**
+     * Creates the object streams of the client.
+     *
+     * @param inputStream  The stream from which the client requests are read.
+     * @param outputStream The stream to which the replies are written.
+     *
+     * @throws IOException If an I/O error occurs when creating the object streams.
+     */
+    ObjectStreamCodec(InputStream inputStream, OutputStream outputStream) throws IOException {
+        this.outputStream = outputStream;
+        this.objectOutputStream = new ObjectOutputStream(outputStream);
+        this.objectOutputStream.flush();
+        this.objectInputStream = new ObjectInputStream(inputStream);
+    }
+
+    @Override
+    public Request readRequest() throws IOException, ClassNotFoundException {
+        return Request.parse(objectInputStream.readObject().toString(), 0, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The objects are exchanged in lock-step, so the requests are never pipelined.
+     */
+    @Override
+    public boolean isPipelined() {
+        return false;
+    }
+
+    @Override
+    public RegistrationForm readRegistrationForm(Request request) throws IOException, ClassNotFoundException {
+        return (RegistrationForm) objectInputStream.readObject();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The client sends the registration forms as a list.
+     */
+    @Override
+    public List<RegistrationForm> readRegistrationForms(Request request) throws IOException, ClassNotFoundException {
+        if (!(objectInputStream.readObject() instanceof List<?> list)) {
+            throw new InvalidObjectException("Expected a list of registration forms.");
+        }
+
+        ArrayList<RegistrationForm> forms = new ArrayList<>(list.size());
+        for (Object form : list) {
+            if (!(form instanceof RegistrationForm)) {
+                throw new InvalidObjectException("Expected a list of registration forms.");
+            }
+            forms.add((RegistrationForm) form);
+        }
+        return forms;
+    }
+
+    @Override
+    public void writeMessage(Request request, String message) throws IOException {
+        objectOutputStream.writeObject(message);
+        objectOutputStream.reset();
+        objectOutputStream.flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The courses are already serialized by the catalog between two resets of the stream, so that the client decodes
+     * them independently of the objects previously sent. They are copied to the client in a single write, as small
+     * writes of the same reply would wait for the acknowledgement of the previous ones.
+     */
+    @Override
+    public void writeCourses(Request request, CourseCatalog.Partition courses) throws IOException {
+        outputStream.write(courses.getSerialized());
+        outputStream.flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The courses are sent as a list, after which the stream is reset so that it does not keep them referenced.
+     */
+    @Override
+    public void writeCourses(Request request, List<Course> courses) throws IOException {
+        objectOutputStream.writeObject(new ArrayList<>(courses));
+        objectOutputStream.reset();
+        objectOutputStream.flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The page is sent as a {@link CoursePage}, after which the stream is reset so that it does not keep the courses
+     * referenced.
+     */
+    @Override
+    public void writePage(Request request, CourseCatalog.Partition partition, int offset, int end) throws IOException {
+        List<Course> courses = partition.getCourses();
+        objectOutputStream.writeObject(new CoursePage(new ArrayList<>(courses.subList(offset, end)), offset, courses.size(), partition.getVersion(), true));
+        objectOutputStream.reset();
+        objectOutputStream.flush();
+    }
+
+    @Override
+    public void writeNotModified(Request request, CourseCatalog.Partition partition) throws IOException {
+        int total = partition.getCourses().size();
+        objectOutputStream.writeObject(new CoursePage(new ArrayList<>(), total, total, partition.getVersion(), false));
+        objectOutputStream.reset();
+        objectOutputStream.flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The results are sent as a list, after which the stream is reset so that it does not keep them referenced.
+     */
+    @Override
+    public void writeResults(Request request, List<RegistrationResult> results) throws IOException {
+        objectOutputStream.writeObject(new ArrayList<>(results));
+        objectOutputStream.reset();
+        objectOutputStream.flush();
+    }
+
+    @Override
+    public void writeError(Request request, String message) throws IOException {
+        writeMessage(request, message);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The clients of the object stream protocol expect the reply of some requests to be of a given class, so a
+     * rejection cannot be told and the request is always delayed.
+     */
+    @Override
+    public boolean writeThrottled(Request request, int retryAfter) {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The objects are exchanged in lock-step, so the client is not told.
+     */
+    @Override
+    public void writeGoodbye(String message) {
+    }
+
+    @Override
+    public void close() throws IOException {
+        objectOutputStream.close();
+        objectInputStream.close();
+    }
+}
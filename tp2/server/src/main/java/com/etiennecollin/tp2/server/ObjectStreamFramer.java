@@ -0,0 +1,611 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import static java.io.ObjectStreamConstants.*;
+
+/**
+ * The ObjectStreamFramer class finds the requests of a client speaking the object stream protocol, by following the
+ * grammar of the serialization stream without creating any object.
+ * <p>
+ * The first request is the header of the stream. Each following request is a command, along with the object holding
+ * the registration forms for the {@link Server#REGISTER_COMMAND REGISTER_COMMAND} and
+ * {@link Server#REGISTER_BATCH_COMMAND REGISTER_BATCH_COMMAND} commands, which the clients send as strings. As the
+ * stream refers back to the class descriptors and the strings it already sent, the framer assigns them the same handles
+ * as the {@link ObjectInputStream} of the {@link ObjectStreamCodec}.
+ * <p>
+ * The objects of classes writing their data in their own format, like the externalizable objects of the first version
+ * of the serialization protocol, cannot be framed.
+ */
+final class ObjectStreamFramer implements RequestFramer {
+    /**
+     * The maximum depth of the objects nested in a request, which keeps the event loop from overflowing its stack.
+     */
+    private static final int MAX_DEPTH = 256;
+    /**
+     * The header of the stream: the magic number followed by the version of the serialization protocol.
+     */
+    private static final int HEADER = (STREAM_MAGIC & 0xFFFF) << 16 | STREAM_VERSION & 0xFFFF;
+    /**
+     * Thrown when the request being framed is not complete. It has no stack trace, as it is thrown whenever the client
+     * sends a request in many packets.
+     */
+    private static final Incomplete INCOMPLETE = new Incomplete();
+    /**
+     * The objects to which the stream may refer, indexed by handle: the class descriptors, the strings, and null for
+     * the other objects.
+     */
+    private ArrayList<Object> handles = new ArrayList<>();
+    /**
+     * The handles before the stream was reset by the request being framed, or null if it did not reset the stream.
+     */
+    private ArrayList<Object> handlesBeforeReset;
+    /**
+     * Whether the header of the stream was received.
+     */
+    private boolean headerReceived = false;
+    /**
+     * The number of bytes of the request being framed that must be received before trying to frame it again.
+     */
+    private int needed = 0;
+    /**
+     * The bytes sent by the client, while a request is being framed.
+     */
+    private byte[] bytes;
+    /**
+     * The position of the first byte of the request being framed.
+     */
+    private int start;
+    /**
+     * The position of the next byte to read.
+     */
+    private int position;
+    /**
+     * The position following the last byte sent by the client.
+     */
+    private int limit;
+
+    @Override
+    public int frame(byte[] bytes, int offset, int length) throws StreamCorruptedException {
+        // Do not read the request again until the bytes it lacked are received
+        if (length < needed) {
+            return 0;
+        }
+
+        this.bytes = bytes;
+        this.start = offset;
+        this.position = offset;
+        this.limit = offset + length;
+        int assigned = handles.size();
+        try {
+            if (!headerReceived) {
+                readHeader();
+            } else if (readObject(0) instanceof String line && isRegistration(line)) {
+                // The registration forms follow their command
+                readObject(0);
+            }
+            needed = 0;
+            handlesBeforeReset = null;
+            return position - offset;
+        } catch (Incomplete e) {
+            // Forget the handles assigned while reading the incomplete request
+            if (handlesBeforeReset != null) {
+                handles = handlesBeforeReset;
+                handlesBeforeReset = null;
+            }
+            handles.subList(assigned, handles.size()).clear();
+            return 0;
+        } finally {
+            this.bytes = null;
+        }
+    }
+
+    /**
+     * Returns whether a command line is a registration, followed by the object holding the registration forms.
+     *
+     * @param line The command line.
+     *
+     * @return Whether the command is a registration.
+     */
+    private static boolean isRegistration(String line) {
+        String command = Request.parse(line, 0, null).getCommand();
+        return command.equalsIgnoreCase(Server.REGISTER_COMMAND) || command.equalsIgnoreCase(Server.REGISTER_BATCH_COMMAND);
+    }
+
+    /**
+     * Returns the number of bytes of a value of a field or of an array element, given its type code.
+     *
+     * @param type The type code.
+     *
+     * @return The number of bytes of a primitive value, or 0 for an object.
+     *
+     * @throws StreamCorruptedException If the type code is invalid.
+     */
+    private static int getPrimitiveLength(int type) throws StreamCorruptedException {
+        return switch (type) {
+            case 'B', 'Z' -> 1;
+            case 'C', 'S' -> 2;
+            case 'I', 'F' -> 4;
+            case 'J', 'D' -> 8;
+            case 'L', '[' -> 0;
+            default -> throw new StreamCorruptedException("Invalid type code '" + (char) type + "'.");
+        };
+    }
+
+    /**
+     * Reads the header of the stream.
+     *
+     * @throws StreamCorruptedException If the header is invalid or incomplete.
+     */
+    private void readHeader() throws StreamCorruptedException {
+        if (readInt() != HEADER) {
+            throw new StreamCorruptedException("Invalid stream header.");
+        }
+        headerReceived = true;
+    }
+
+    /**
+     * Reads an object, preceded by the resets of the stream at the top level.
+     *
+     * @param depth The number of objects in which the object is nested.
+     *
+     * @return The object if it is a string or a class descriptor, otherwise null.
+     *
+     * @throws StreamCorruptedException If the object is invalid or incomplete.
+     */
+    private Object readObject(int depth) throws StreamCorruptedException {
+        checkDepth(depth);
+        int code;
+        while ((code = readByte()) == TC_RESET) {
+            if (depth > 0) {
+                throw new StreamCorruptedException("Unexpected reset.");
+            }
+            if (handlesBeforeReset == null) {
+                handlesBeforeReset = handles;
+            }
+            handles = new ArrayList<>();
+        }
+
+        switch (code) {
+            case TC_NULL -> {
+                return null;
+            }
+            case TC_REFERENCE -> {
+                return readReference();
+            }
+            case TC_STRING -> {
+                return assign(readUTF(readUnsignedShort()));
+            }
+            case TC_LONGSTRING -> {
+                return assign(readUTF(readLong()));
+            }
+            case TC_CLASSDESC, TC_PROXYCLASSDESC -> {
+                position--;
+                return readClassDescriptor(depth);
+            }
+            case TC_CLASS -> {
+                readClassDescriptor(depth + 1);
+                return assign(null);
+            }
+            case TC_ENUM -> {
+                readClassDescriptor(depth + 1);
+                assign(null);
+                // The name of the constant
+                readString(depth + 1);
+                return null;
+            }
+            case TC_ARRAY -> {
+                readArray(depth);
+                return null;
+            }
+            case TC_OBJECT -> {
+                ClassDescriptor descriptor = readClassDescriptor(depth + 1);
+                if (descriptor == null) {
+                    throw new StreamCorruptedException("Expected a class descriptor.");
+                }
+                assign(null);
+                if ((descriptor.flags & SC_EXTERNALIZABLE) == 0) {
+                    readClassData(descriptor, depth + 1);
+                } else if ((descriptor.flags & SC_BLOCK_DATA) != 0) {
+                    readAnnotation(depth + 1);
+                } else {
+                    throw new StreamCorruptedException("Cannot read the externalizable objects written without block data.");
+                }
+                return null;
+            }
+            default -> throw new StreamCorruptedException(String.format("Invalid type code %02X.", code));
+        }
+    }
+
+    /**
+     * Reads a string, or a reference to a string.
+     *
+     * @param depth The number of objects in which the string is nested.
+     *
+     * @throws StreamCorruptedException If the string is invalid or incomplete.
+     */
+    private void readString(int depth) throws StreamCorruptedException {
+        require(1);
+        int code = bytes[position];
+        if (code != TC_STRING && code != TC_LONGSTRING && code != TC_REFERENCE && code != TC_NULL) {
+            throw new StreamCorruptedException("Expected a string.");
+        }
+        readObject(depth);
+    }
+
+    /**
+     * Reads a class descriptor, a reference to a class descriptor, or null.
+     *
+     * @param depth The number of objects in which the class descriptor is nested.
+     *
+     * @return The class descriptor, or null.
+     *
+     * @throws StreamCorruptedException If the class descriptor is invalid or incomplete.
+     */
+    private ClassDescriptor readClassDescriptor(int depth) throws StreamCorruptedException {
+        checkDepth(depth);
+        int code = readByte();
+        switch (code) {
+            case TC_NULL -> {
+                return null;
+            }
+            case TC_REFERENCE -> {
+                if (!(readReference() instanceof ClassDescriptor descriptor)) {
+                    throw new StreamCorruptedException("Expected a class descriptor.");
+                }
+                return descriptor;
+            }
+            case TC_CLASSDESC -> {
+                int handle = handles.size();
+                assign(null);
+                String name = readUTF(readUnsignedShort());
+                // Skip the serial version UID
+                skip(8);
+                int flags = readByte();
+
+                int count = readShort();
+                if (count < 0) {
+                    throw new StreamCorruptedException("Invalid field count " + count + ".");
+                }
+                int primitiveLength = 0;
+                int objectFields = 0;
+                for (int i = 0; i < count; i++) {
+                    int type = readByte();
+                    // Skip the name of the field
+                    skip(readUnsignedShort());
+                    int length = getPrimitiveLength(type);
+                    if (length == 0) {
+                        objectFields++;
+                        // The class of the field
+                        readString(depth + 1);
+                    }
+                    primitiveLength += length;
+                }
+                readAnnotation(depth + 1);
+
+                ClassDescriptor descriptor = new ClassDescriptor(name, flags, primitiveLength, objectFields, readClassDescriptor(depth + 1));
+                handles.set(handle, descriptor);
+                return descriptor;
+            }
+            case TC_PROXYCLASSDESC -> {
+                int handle = handles.size();
+                assign(null);
+                int count = readInt();
+                if (count < 0 || count > 65535) {
+                    throw new StreamCorruptedException("Invalid interface count " + count + ".");
+                }
+                for (int i = 0; i < count; i++) {
+                    // Skip the name of the interface
+                    skip(readUnsignedShort());
+                }
+                readAnnotation(depth + 1);
+
+                ClassDescriptor descriptor = new ClassDescriptor("", SC_SERIALIZABLE, 0, 0, readClassDescriptor(depth + 1));
+                handles.set(handle, descriptor);
+                return descriptor;
+            }
+            default -> throw new StreamCorruptedException("Expected a class descriptor.");
+        }
+    }
+
+    /**
+     * Reads the data of an object, written by each of its serializable classes from the topmost superclass on.
+     *
+     * @param descriptor The class descriptor of the object.
+     * @param depth      The number of objects in which the values of the fields are nested.
+     *
+     * @throws StreamCorruptedException If the data is invalid or incomplete.
+     */
+    private void readClassData(ClassDescriptor descriptor, int depth) throws StreamCorruptedException {
+        if (descriptor.superDescriptor != null) {
+            readClassData(descriptor.superDescriptor, depth);
+        }
+        if ((descriptor.flags & SC_SERIALIZABLE) == 0) {
+            return;
+        }
+
+        // The values of the primitive fields precede the values of the object fields
+        skip(descriptor.primitiveLength);
+        for (int i = 0; i < descriptor.objectFields; i++) {
+            readObject(depth);
+        }
+        if ((descriptor.flags & SC_WRITE_METHOD) != 0) {
+            readAnnotation(depth);
+        }
+    }
+
+    /**
+     * Reads an array, from its class descriptor on.
+     *
+     * @param depth The number of objects in which the array is nested.
+     *
+     * @throws StreamCorruptedException If the array is invalid or incomplete.
+     */
+    private void readArray(int depth) throws StreamCorruptedException {
+        ClassDescriptor descriptor = readClassDescriptor(depth + 1);
+        if (descriptor == null || descriptor.name.length() < 2 || descriptor.name.charAt(0) != '[') {
+            throw new StreamCorruptedException("Expected the class descriptor of an array.");
+        }
+        assign(null);
+
+        int size = readInt();
+        if (size < 0) {
+            throw new StreamCorruptedException("Invalid array size " + size + ".");
+        }
+        int length = getPrimitiveLength(descriptor.name.charAt(1));
+        if (length > 0) {
+            skip((long) size * length);
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            readObject(depth + 1);
+        }
+    }
+
+    /**
+     * Reads the blocks of data and the objects written by a class on its own, up to the end marker.
+     *
+     * @param depth The number of objects in which the objects of the annotation are nested.
+     *
+     * @throws StreamCorruptedException If the annotation is invalid or incomplete.
+     */
+    private void readAnnotation(int depth) throws StreamCorruptedException {
+        while (true) {
+            require(1);
+            switch (bytes[position]) {
+                case TC_ENDBLOCKDATA -> {
+                    position++;
+                    return;
+                }
+                case TC_BLOCKDATA -> {
+                    position++;
+                    skip(readByte());
+                }
+                case TC_BLOCKDATALONG -> {
+                    position++;
+                    int length = readInt();
+                    if (length < 0) {
+                        throw new StreamCorruptedException("Invalid block length " + length + ".");
+                    }
+                    skip(length);
+                }
+                default -> readObject(depth);
+            }
+        }
+    }
+
+    /**
+     * Reads a reference to an object already read.
+     *
+     * @return The object, if it is a string or a class descriptor, otherwise null.
+     *
+     * @throws StreamCorruptedException If the handle is invalid or incomplete.
+     */
+    private Object readReference() throws StreamCorruptedException {
+        int handle = readInt() - baseWireHandle;
+        if (handle < 0 || handle >= handles.size()) {
+            throw new StreamCorruptedException("Invalid handle " + Integer.toHexString(handle + baseWireHandle) + ".");
+        }
+        return handles.get(handle);
+    }
+
+    /**
+     * Assigns the next handle to an object.
+     *
+     * @param object The object, if it is a string or a class descriptor, otherwise null.
+     *
+     * @return The object.
+     */
+    private Object assign(Object object) {
+        handles.add(object);
+        return object;
+    }
+
+    /**
+     * Makes sure that the objects are not nested too deeply.
+     *
+     * @param depth The number of objects in which the next object is nested.
+     *
+     * @throws StreamCorruptedException If the objects are nested too deeply.
+     */
+    private static void checkDepth(int depth) throws StreamCorruptedException {
+        if (depth > MAX_DEPTH) {
+            throw new StreamCorruptedException("The objects are nested more than " + MAX_DEPTH + " levels deep.");
+        }
+    }
+
+    /**
+     * Makes sure that the given number of bytes follow the position.
+     *
+     * @param count The number of bytes.
+     *
+     * @throws StreamCorruptedException If the request would be longer than {@link #MAX_REQUEST_LENGTH} bytes, or
+     *                                  {@link #INCOMPLETE} if the bytes were not received yet.
+     */
+    private void require(long count) throws StreamCorruptedException {
+        if (limit - position >= count) {
+            return;
+        }
+
+        // Compare without adding the count, which may be as large as the length of a long string
+        if (count > MAX_REQUEST_LENGTH - (position - start)) {
+            throw new StreamCorruptedException("The request is longer than " + MAX_REQUEST_LENGTH + " bytes.");
+        }
+        needed = (int) (position - start + count);
+        throw INCOMPLETE;
+    }
+
+    /**
+     * Skips the given number of bytes.
+     *
+     * @param count The number of bytes.
+     *
+     * @throws StreamCorruptedException If the bytes were not received yet.
+     */
+    private void skip(long count) throws StreamCorruptedException {
+        require(count);
+        position += (int) count;
+    }
+
+    /**
+     * Reads an unsigned byte.
+     *
+     * @return The byte.
+     *
+     * @throws StreamCorruptedException If the byte was not received yet.
+     */
+    private int readByte() throws StreamCorruptedException {
+        require(1);
+        return bytes[position++] & 0xFF;
+    }
+
+    /**
+     * Reads a big-endian signed short.
+     *
+     * @return The short.
+     *
+     * @throws StreamCorruptedException If the bytes were not received yet.
+     */
+    private int readShort() throws StreamCorruptedException {
+        return (short) readUnsignedShort();
+    }
+
+    /**
+     * Reads a big-endian unsigned short.
+     *
+     * @return The short.
+     *
+     * @throws StreamCorruptedException If the bytes were not received yet.
+     */
+    private int readUnsignedShort() throws StreamCorruptedException {
+        require(2);
+        int value = (bytes[position] & 0xFF) << 8 | bytes[position + 1] & 0xFF;
+        position += 2;
+        return value;
+    }
+
+    /**
+     * Reads a big-endian integer.
+     *
+     * @return The integer.
+     *
+     * @throws StreamCorruptedException If the bytes were not received yet.
+     */
+    private int readInt() throws StreamCorruptedException {
+        require(4);
+        int value = (bytes[position] & 0xFF) << 24 | (bytes[position + 1] & 0xFF) << 16 | (bytes[position + 2] & 0xFF) << 8 | bytes[position + 3] & 0xFF;
+        position += 4;
+        return value;
+    }
+
+    /**
+     * Reads a big-endian long.
+     *
+     * @return The long.
+     *
+     * @throws StreamCorruptedException If the bytes were not received yet.
+     */
+    private long readLong() throws StreamCorruptedException {
+        return (long) readInt() << 32 | readInt() & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Reads a string encoded in modified UTF-8. It is decoded as UTF-8, which only differs for the null character and
+     * the characters outside the basic multilingual plane, none of which appears in a command or a class name.
+     *
+     * @param length The number of bytes of the string.
+     *
+     * @return The string.
+     *
+     * @throws StreamCorruptedException If the length is invalid or the bytes were not received yet.
+     */
+    private String readUTF(long length) throws StreamCorruptedException {
+        if (length < 0) {
+            throw new StreamCorruptedException("Invalid string length " + length + ".");
+        }
+        require(length);
+        String value = new String(bytes, position, (int) length, StandardCharsets.UTF_8);
+        position += (int) length;
+        return value;
+    }
+
+    /**
+     * The layout of the data of the objects of a class, as described by the stream.
+     */
+    private static final class ClassDescriptor {
+        /**
+         * The name of the class.
+         */
+        private final String name;
+        /**
+         * The flags of the class, telling how its objects are serialized.
+         */
+        private final int flags;
+        /**
+         * The number of bytes of the values of the primitive fields.
+         */
+        private final int primitiveLength;
+        /**
+         * The number of object fields.
+         */
+        private final int objectFields;
+        /**
+         * The class descriptor of the serializable superclass, or null.
+         */
+        private final ClassDescriptor superDescriptor;
+
+        /**
+         * Creates a class descriptor.
+         *
+         * @param name            The name of the class.
+         * @param flags           The flags of the class.
+         * @param primitiveLength The number of bytes of the values of the primitive fields.
+         * @param objectFields    The number of object fields.
+         * @param superDescriptor The class descriptor of the serializable superclass, or null.
+         */
+        private ClassDescriptor(String name, int flags, int primitiveLength, int objectFields, ClassDescriptor superDescriptor) {
+            this.name = name;
+            this.flags = flags;
+            this.primitiveLength = primitiveLength;
+            this.objectFields = objectFields;
+            this.superDescriptor = superDescriptor;
+        }
+    }
+
+    /**
+     * Signals that the request being framed is not complete.
+     */
+    private static final class Incomplete extends StreamCorruptedException {
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
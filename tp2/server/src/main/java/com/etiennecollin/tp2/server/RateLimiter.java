@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The RateLimiter class limits the rate of the requests of a client with token buckets.
+ * <p>
+ * Each connection has a budget of reads, spent by the requests loading or searching courses, and a budget of writes,
+ * spent by the registrations. Each remote address also has a budget of reads and writes shared by all its connections,
+ * so that a client cannot escape its limit by opening more connections. A request takes a token from the bucket of
+ * its connection and from the bucket of its address, and is throttled while either of them is empty. The buckets
+ * refill at their configured rate and hold up to {@link ServerConfig#getRateBurst() rateBurst} seconds of it, so that a
+ * client that was quiet may send a short burst of requests.
+ * <p>
+ * The budgets of an address are dropped once its last connection is closed.
+ */
+final class RateLimiter {
+    /**
+     * The limiter of the connections when the rate limiting is disabled, which never throttles a request.
+     */
+    private static final RateLimiter UNLIMITED = new RateLimiter(null, null, null, null);
+    /**
+     * The budgets of the remote addresses having at least one open connection.
+     */
+    private static final ConcurrentHashMap<InetAddress, AddressBudgets> addresses = new ConcurrentHashMap<>();
+    /**
+     * The configuration of the server, or null if the rate limiting is disabled.
+     */
+    private static volatile ServerConfig config = null;
+    /**
+     * The remote address of the connection.
+     */
+    private final InetAddress address;
+    /**
+     * The budgets of the remote address of the connection.
+     */
+    private final AddressBudgets addressBudgets;
+    /**
+     * The budget of reads of the connection.
+     */
+    private final TokenBucket reads;
+    /**
+     * The budget of writes of the connection.
+     */
+    private final TokenBucket writes;
+    /**
+     * Whether the limiter was closed.
+     */
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Creates a new limiter for a connection.
+     *
+     * @param address        The remote address of the connection.
+     * @param addressBudgets The budgets of the remote address of the connection.
+     * @param reads          The budget of reads of the connection.
+     * @param writes         The budget of writes of the connection.
+     */
+    private RateLimiter(InetAddress address, AddressBudgets addressBudgets, TokenBucket reads, TokenBucket writes) {
+        this.address = address;
+        this.addressBudgets = addressBudgets;
+        this.reads = reads;
+        this.writes = writes;
+    }
+
+    /**
+     * Enables the rate limiting with the budgets of a configuration, unless it disables it.
+     *
+     * @param config The configuration of the server.
+     */
+    static void configure(ServerConfig config) {
+        RateLimiter.config = config.isRateLimit() ? config : null;
+    }
+
+    /**
+     * Creates the limiter of a new connection and counts the connection against the budgets of its address.
+     *
+     * @param address The remote address of the connection.
+     *
+     * @return The limiter of the connection, to be closed with the connection.
+     */
+    static RateLimiter open(InetAddress address) {
+        ServerConfig config = RateLimiter.config;
+        if (config == null || address == null) {
+            return UNLIMITED;
+        }
+
+        AddressBudgets addressBudgets = addresses.compute(address, (key, budgets) -> {
+            if (budgets == null) {
+                budgets = new AddressBudgets(new TokenBucket(config.getAddressReadRate(), config.getRateBurst()), new TokenBucket(config.getAddressWriteRate(), config.getRateBurst()));
+            }
+            budgets.connections++;
+            return budgets;
+        });
+        return new RateLimiter(address, addressBudgets, new TokenBucket(config.getReadRate(), config.getRateBurst()), new TokenBucket(config.getWriteRate(), config.getRateBurst()));
+    }
+
+    /**
+     * Takes a token from a budget of the connection and from the same budget of its address.
+     *
+     * @param budget The budget spent by the request, or null if the request is never throttled.
+     *
+     * @return 0 if the request is allowed, otherwise the time in nanoseconds after which it may be retried.
+     */
+    long acquire(Budget budget) {
+        if (budget == null || this == UNLIMITED) {
+            return 0;
+        }
+
+        long now = System.nanoTime();
+        TokenBucket own = budget == Budget.READ ? reads : writes;
+        long wait = own.acquire(now);
+        if (wait > 0) {
+            return wait;
+        }
+        wait = (budget == Budget.READ ? addressBudgets.reads : addressBudgets.writes).acquire(now);
+        if (wait > 0) {
+            // The request is not sent, so it does not spend the budget of the connection
+            own.refund();
+        }
+        return wait;
+    }
+
+    /**
+     * Stops counting the connection against the budgets of its address, and drops them if it was its last connection.
+     */
+    void close() {
+        if (this == UNLIMITED || !closed.compareAndSet(false, true)) {
+            return;
+        }
+        addresses.computeIfPresent(address, (key, budgets) -> --budgets.connections == 0 ? null : budgets);
+    }
+
+    /**
+     * The budgets that the requests may spend.
+     */
+    enum Budget {
+        /**
+         * The budget of the requests loading or searching courses and asking for the statistics.
+         */
+        READ,
+        /**
+         * The budget of the registrations.
+         */
+        WRITE
+    }
+
+    /**
+     * The budgets shared by the connections of a remote address.
+     */
+    private static final class AddressBudgets {
+        /**
+         * The budget of reads of the address.
+         */
+        private final TokenBucket reads;
+        /**
+         * The budget of writes of the address.
+         */
+        private final TokenBucket writes;
+        /**
+         * The number of open connections of the address. Only accessed while computing the entry of the address.
+         */
+        private int connections = 0;
+
+        /**
+         * Creates the budgets of an address.
+         *
+         * @param reads  The budget of reads of the address.
+         * @param writes The budget of writes of the address.
+         */
+        private AddressBudgets(TokenBucket reads, TokenBucket writes) {
+            this.reads = reads;
+            this.writes = writes;
+        }
+    }
+
+    /**
+     * A bucket of tokens refilled at a constant rate.
+     * <p>
+     * Instead of counting its tokens, the bucket stores the moment at which it will be full again, which moves forward
+     * by one refill interval for each token taken. A token can be taken as long as this moment is less than the burst
+     * duration away, so that taking a token is a single compare-and-set without any lock or refill timer.
+     */
+    private static final class TokenBucket {
+        /**
+         * The time in nanoseconds needed to refill a single token.
+         */
+        private final long interval;
+        /**
+         * The time in nanoseconds needed to refill the whole bucket.
+         */
+        private final long burst;
+        /**
+         * The moment at which the bucket will be full again, as given by {@link System#nanoTime()}.
+         */
+        private final AtomicLong full = new AtomicLong(System.nanoTime());
+
+        /**
+         * Creates a full bucket.
+         *
+         * @param rate  The number of tokens refilled per second.
+         * @param burst The number of seconds of the rate that the bucket holds.
+         */
+        private TokenBucket(int rate, int burst) {
+            this.interval = TimeUnit.SECONDS.toNanos(1) / rate;
+            this.burst = TimeUnit.SECONDS.toNanos(burst);
+        }
+
+        /**
+         * Takes a token if the bucket holds one.
+         *
+         * @param now The current time, as given by {@link System#nanoTime()}.
+         *
+         * @return 0 if a token was taken, otherwise the time in nanoseconds until the bucket holds one.
+         */
+        private long acquire(long now) {
+            while (true) {
+                long current = full.get();
+                long next = (current - now > 0 ? current : now) + interval;
+                long excess = next - now - burst;
+                if (excess > 0) {
+                    return excess;
+                }
+                if (full.compareAndSet(current, next)) {
+                    return 0;
+                }
+            }
+        }
+
+        /**
+         * Gives back a token taken by a request that was not sent.
+         */
+        private void refund() {
+            full.addAndGet(-interval);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import com.etiennecollin.tp2.server.models.RegistrationForm;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The RegistrationIndex class remembers which students are registered to which courses, so that a student cannot
+ * register twice to the same course.
+ * <p>
+ * The index is shared by every client handler of the process. It is rebuilt from the {@link RegistrationLog} when the
+ * server starts, then a registration is added to the index before being saved, which lets concurrent handlers agree
+ * on which of two identical registrations is the duplicate. A registration that cannot be saved is removed from the
+ * index.
+ */
+final class RegistrationIndex {
+    /**
+     * The keys of the registrations, made of the student ID, the semester and the code of the course.
+     */
+    private static final Set<String> registrations = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Prevents the instantiation of the class.
+     */
+    private RegistrationIndex() {
+    }
+
+    /**
+     * Adds a registration restored from the registrations log to the index.
+     *
+     * @param form The registration form.
+     *
+     * @return Whether the registration was added, false if the log already contained it.
+     */
+    static boolean restore(RegistrationForm form) {
+        return registrations.add(key(form));
+    }
+
+    /**
+     * Adds a registration to the index unless the student is already registered to the course.
+     *
+     * @param form The registration form.
+     *
+     * @return Whether the registration was added, false if it is a duplicate.
+     */
+    static boolean reserve(RegistrationForm form) {
+        return registrations.add(key(form));
+    }
+
+    /**
+     * Returns whether the student of a registration is registered to its course.
+     *
+     * @param form The registration form.
+     *
+     * @return Whether the registration is in the index.
+     */
+    static boolean contains(RegistrationForm form) {
+        return registrations.contains(key(form));
+    }
+
+    /**
+     * Removes a registration from the index, after it could not be saved.
+     *
+     * @param form The registration form.
+     */
+    static void release(RegistrationForm form) {
+        registrations.remove(key(form));
+    }
+
+    /**
+     * Returns the key of a registration in the index.
+     *
+     * @param form The registration form.
+     *
+     * @return The key of the registration, case-insensitive for the semester and the code of the course.
+     */
+    private static String key(RegistrationForm form) {
+        return form.getStudentID() + '\t' + CourseCatalog.key(form.getCourse());
+    }
+}
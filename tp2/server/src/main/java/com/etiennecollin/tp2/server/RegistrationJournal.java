@@ -0,0 +1,360 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import com.etiennecollin.tp2.server.models.RegistrationForm;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The RegistrationJournal class appends the registrations to the {@link RegistrationLog registrations log}.
+ * <p>
+ * The journal is shared by every client handler of the process. The handlers queue their registrations without taking
+ * any lock, then wait while a single writer thread appends every queued registration to the log at once. The
+ * registrations queued while the writer is busy form the next batch, so that the number of writes and of
+ * synchronizations with the disk grows with the load much more slowly than the number of registrations.
+ * <p>
+ * A handler is only told that its registrations are saved once they are as durable as required by the
+ * {@link ServerConfig.SyncPolicy synchronization policy}. When the journal is stopped, the queued registrations are
+ * written and the log is synchronized with the disk whatever the policy.
+ * <p>
+ * If the log cannot be synchronized with the disk, the registrations written since the last synchronization are
+ * removed from the log before their handlers are told that they could not be saved, so that they are not restored
+ * when the server restarts. Since the disk may have lost any of them, the journal then stops and refuses the next
+ * registrations.
+ */
+final class RegistrationJournal {
+    /**
+     * The name of the directory containing the segments of the registrations log.
+     */
+    private static final String LOG_DIRECTORY = "registrations";
+    /**
+     * The name of the text file containing the registrations saved by the previous versions of the server.
+     */
+    private static final String TEXT_FILE_NAME = "registrations.txt";
+    /**
+     * The registrations waiting to be written.
+     */
+    private static final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    /**
+     * The thread writing the registrations, or null if the journal is not started.
+     */
+    private static volatile Thread writer;
+    /**
+     * Whether the journal was asked to stop.
+     */
+    private static volatile boolean stopping = false;
+    /**
+     * Whether the writer took its last batch of registrations, after which no registration is accepted.
+     */
+    private static volatile boolean closed = false;
+
+    /**
+     * Prevents the instantiation of the class.
+     */
+    private RegistrationJournal() {
+    }
+
+    /**
+     * Opens the registrations log of the data directory and starts the writer thread.
+     * <p>
+     * If the log is empty while the data directory contains the registrations text file of a previous version of the
+     * server, the text file is first imported into the log, then renamed so that it is not imported again. The
+     * {@link RegistrationIndex}, the {@link CourseEnrollments} and the {@link CourseWaitlists} are then restored from
+     * the log.
+     *
+     * @param dataDirectory The directory containing the registrations log.
+     * @param policy        When the registrations are synchronized with the disk.
+     * @param syncInterval  The minimum time in milliseconds between two synchronizations with the
+     *                      {@link ServerConfig.SyncPolicy#TIMED TIMED} policy.
+     * @param segmentSize   The size in bytes above which a segment of the log is sealed.
+     *
+     * @throws IOException If the registrations log cannot be opened or read, or if the text file cannot be imported.
+     */
+    static void start(Path dataDirectory, ServerConfig.SyncPolicy policy, int syncInterval, long segmentSize) throws IOException {
+        RegistrationLog log = RegistrationLog.open(dataDirectory.resolve(LOG_DIRECTORY), segmentSize);
+
+        // Import the registrations of the previous versions of the server
+        Path textFile = dataDirectory.resolve(TEXT_FILE_NAME);
+        if (log.isEmpty() && Files.exists(textFile)) {
+            int count = RegistrationLogConverter.convert(textFile, log);
+            Files.move(textFile, dataDirectory.resolve(TEXT_FILE_NAME + ".imported"), StandardCopyOption.REPLACE_EXISTING);
+            ServerLog.info("Imported " + count + " registrations from " + TEXT_FILE_NAME + ".");
+        }
+
+        // Restore the state derived from the registrations. A registration saved twice, such as one retried by its
+        // client after being told it could not be saved, only takes one seat.
+        int[] count = {0};
+        log.replay((kind, form) -> {
+            if (kind == RegistrationLog.WAITLISTED) {
+                CourseWaitlists.restore(form);
+            } else if (RegistrationIndex.restore(form)) {
+                CourseEnrollments.restore(form.getCourse());
+                CourseWaitlists.restoreRegistration(form);
+                count[0]++;
+            }
+        });
+        ServerLog.info("Restored " + count[0] + " registrations.");
+
+        writer = Thread.ofPlatform().name("registration-journal").daemon().start(() -> write(log, policy, TimeUnit.MILLISECONDS.toNanos(syncInterval)));
+
+        // Fill the seats added to the courses file while the server was stopped
+        CourseWaitlists.promoteAll();
+    }
+
+    /**
+     * Appends registrations to the registrations log and waits until they are saved.
+     *
+     * @param forms The registration forms.
+     * @param kind  Whether the students are {@link RegistrationLog#REGISTERED registered} to the courses or put on
+     *              their {@link RegistrationLog#WAITLISTED waitlists}.
+     *
+     * @throws IOException If the registrations cannot be saved.
+     */
+    static void append(List<RegistrationForm> forms, byte kind) throws IOException {
+        if (forms.isEmpty()) {
+            return;
+        }
+        save(RegistrationLog.encode(forms, kind));
+    }
+
+    /**
+     * Appends registrations and students put on waitlists to the registrations log in a single write, so that either
+     * all of them or none of them are saved, and waits until they are saved.
+     *
+     * @param registered The registration forms of the students registered to the courses.
+     * @param waitlisted The registration forms of the students put on the waitlists of the courses.
+     *
+     * @throws IOException If the registrations cannot be saved.
+     */
+    static void append(List<RegistrationForm> registered, List<RegistrationForm> waitlisted) throws IOException {
+        if (registered.isEmpty() && waitlisted.isEmpty()) {
+            return;
+        }
+
+        byte[] waitlistedRecords = RegistrationLog.encode(waitlisted, RegistrationLog.WAITLISTED);
+        byte[] registeredRecords = RegistrationLog.encode(registered, RegistrationLog.REGISTERED);
+        byte[] records = Arrays.copyOf(waitlistedRecords, waitlistedRecords.length + registeredRecords.length);
+        System.arraycopy(registeredRecords, 0, records, waitlistedRecords.length, registeredRecords.length);
+        save(records);
+    }
+
+    /**
+     * Queues records for the writer and waits until they are saved.
+     *
+     * @param records The records, as encoded by {@link RegistrationLog#encode(List, byte)}.
+     *
+     * @throws IOException If the records cannot be saved.
+     */
+    private static void save(byte[] records) throws IOException {
+        Thread writer = RegistrationJournal.writer;
+        if (writer == null) {
+            throw new IOException("The registrations journal is not started.");
+        }
+
+        // Queue the registrations and wake the writer up
+        Entry entry = new Entry(records);
+        long start = System.nanoTime();
+        queue.add(entry);
+        if (closed && queue.remove(entry)) {
+            // The writer took its last batch before the registrations were queued
+            throw new IOException("The registrations journal is stopped.");
+        }
+        LockSupport.unpark(writer);
+
+        try {
+            entry.saved.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException cause ? cause : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while saving the registrations.");
+        } finally {
+            ServerStats.JOURNAL_WAIT.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Stops the journal: waits for the writer to write the queued registrations, synchronize the log with the disk and
+     * close it. The registrations appended afterwards are refused.
+     */
+    static void stop() {
+        Thread writer = RegistrationJournal.writer;
+        if (writer == null) {
+            return;
+        }
+
+        stopping = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes the queued registrations in batches and acknowledges them according to the synchronization policy, until
+     * the journal is stopped. Runs on the writer thread.
+     *
+     * @param log          The registrations log.
+     * @param policy       When the registrations are synchronized with the disk.
+     * @param syncInterval The minimum time in nanoseconds between two synchronizations with the
+     *                     {@link ServerConfig.SyncPolicy#TIMED TIMED} policy.
+     */
+    private static void write(RegistrationLog log, ServerConfig.SyncPolicy policy, long syncInterval) {
+        // The registrations written but not synchronized yet
+        ArrayList<Entry> unsynced = new ArrayList<>();
+        long lastSync = System.nanoTime();
+
+        while (true) {
+            // Once stopping, refuse the new registrations before taking the last batch, so that none is left behind
+            boolean last = stopping;
+            if (last) {
+                closed = true;
+            }
+
+            // Write every queued registration at once
+            ArrayList<Entry> batch = new ArrayList<>();
+            Entry entry;
+            while ((entry = queue.poll()) != null) {
+                batch.add(entry);
+            }
+            if (!batch.isEmpty()) {
+                try {
+                    ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+                    for (int i = 0; i < buffers.length; i++) {
+                        buffers[i] = ByteBuffer.wrap(batch.get(i).records);
+                    }
+                    log.append(buffers);
+                    unsynced.addAll(batch);
+                } catch (IOException e) {
+                    fail(batch, e);
+                }
+            }
+
+            if (!unsynced.isEmpty()) {
+                long now = System.nanoTime();
+                if (policy == ServerConfig.SyncPolicy.TIMED && now - lastSync < syncInterval && !last) {
+                    // Wait for the next synchronization, or for more registrations
+                    LockSupport.parkNanos(syncInterval - (now - lastSync));
+                    continue;
+                }
+
+                try {
+                    if (policy != ServerConfig.SyncPolicy.NONE) {
+                        log.force();
+                    }
+                    for (Entry saved : unsynced) {
+                        saved.saved.complete(null);
+                    }
+                } catch (IOException e) {
+                    abort(log, unsynced, e);
+                    return;
+                }
+                unsynced.clear();
+                lastSync = now;
+            }
+
+            if (last) {
+                // Synchronize even the registrations acknowledged without waiting for the disk
+                try {
+                    log.force();
+                    log.close();
+                } catch (IOException e) {
+                    ServerLog.error("Cannot save the registrations: " + e.getMessage());
+                }
+                return;
+            }
+
+            // Wait for more registrations. A registration queued after this check unparks the writer, which prevents
+            // it from parking.
+            if (queue.isEmpty() && !stopping) {
+                LockSupport.park();
+            }
+        }
+    }
+
+    /**
+     * Stops the journal after the log could not be synchronized with the disk: removes the registrations written since
+     * the last synchronization from the log, then tells their handlers and the handlers of the queued registrations
+     * that they could not be saved. The registrations appended afterwards are refused.
+     *
+     * @param log      The registrations log.
+     * @param unsynced The registrations written since the last synchronization.
+     * @param cause    The reason why the log could not be synchronized.
+     */
+    private static void abort(RegistrationLog log, List<Entry> unsynced, IOException cause) {
+        try {
+            log.rollback();
+        } catch (IOException e) {
+            ServerLog.error("Cannot remove the unsaved registrations from the log, they may be restored on the next start: " + e.getMessage());
+        }
+        try {
+            log.close();
+        } catch (IOException ignored) {
+        }
+
+        // Refuse the new registrations before taking the queued ones, so that none is left behind
+        closed = true;
+        ArrayList<Entry> entries = new ArrayList<>(unsynced);
+        Entry entry;
+        while ((entry = queue.poll()) != null) {
+            entries.add(entry);
+        }
+        fail(entries, cause);
+        ServerLog.error("Stopped the registrations journal, the server no longer accepts registrations.");
+    }
+
+    /**
+     * Tells the handlers waiting for registrations that they could not be saved.
+     *
+     * @param entries The registrations.
+     * @param cause   The reason why they could not be saved.
+     */
+    private static void fail(List<Entry> entries, IOException cause) {
+        ServerLog.error("Cannot save the registrations: " + cause.getMessage());
+        for (Entry entry : entries) {
+            entry.saved.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Registrations queued by a handler.
+     */
+    private static final class Entry {
+        /**
+         * The records of the registrations log describing the registrations.
+         */
+        private final byte[] records;
+        /**
+         * Completed once the registrations are saved.
+         */
+        private final CompletableFuture<Void> saved = new CompletableFuture<>();
+
+        /**
+         * Creates a new entry.
+         *
+         * @param records The records of the registrations log describing the registrations.
+         */
+        private Entry(byte[] records) {
+            this.records = records;
+        }
+    }
+}
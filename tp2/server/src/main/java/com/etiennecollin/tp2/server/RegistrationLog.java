@@ -0,0 +1,470 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import com.etiennecollin.tp2.server.models.Course;
+import com.etiennecollin.tp2.server.models.RegistrationForm;
+import com.etiennecollin.tp2.server.models.Student;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * The RegistrationLog class stores the registrations in an append-only binary log split into segments.
+ * <p>
+ * Each segment is a file named after its sequence number, which starts with a fixed header followed by records:
+ * <pre>
+ * segment := magic:int version:short reserved:short sequence:long record*
+ * record  := length:int crc:int payload
+ * payload := kind:byte semester:utf code:utf studentID:utf firstName:utf lastName:utf email:utf
+ * </pre>
+ * The kind tells whether the student was {@link #REGISTERED registered} to the course or put on its
+ * {@link #WAITLISTED waitlist}. The payloads of the segments of version 1 have no kind and are registrations.
+ * The checksum is the CRC-32C of the payload. Records are only appended to the last segment, which is sealed and
+ * replaced by a new one once it exceeds the configured size, so that the sealed segments may be archived or read
+ * independently. When the log is opened, the records of the last segment are verified and the segment is truncated
+ * after the last valid record, which removes the record torn by a crash.
+ * <p>
+ * The log is not thread-safe. Its writes are serialized by the {@link RegistrationJournal}.
+ */
+final class RegistrationLog implements Closeable {
+    /**
+     * The magic number opening each segment, the ASCII encoding of {@code TP2R}.
+     */
+    private static final int MAGIC = 0x54503252;
+    /**
+     * The version of the format of the segments.
+     */
+    private static final short VERSION = 2;
+    /**
+     * The kind of the records of registrations.
+     */
+    static final byte REGISTERED = 0;
+    /**
+     * The kind of the records of students put on the waitlist of a course.
+     */
+    static final byte WAITLISTED = 1;
+    /**
+     * The length of the header of each segment.
+     */
+    private static final int HEADER_LENGTH = 16;
+    /**
+     * The length of the header of each record.
+     */
+    private static final int RECORD_HEADER_LENGTH = 8;
+    /**
+     * The maximum length of the payload of a record, above which a record is considered corrupted.
+     */
+    private static final int MAX_RECORD_LENGTH = 1 << 20;
+    /**
+     * The pattern of the names of the segments.
+     */
+    private static final Pattern SEGMENT_NAME = Pattern.compile("registrations-(\\d{8})\\.log");
+    /**
+     * The directory containing the segments.
+     */
+    private final Path directory;
+    /**
+     * The size in bytes above which the last segment is sealed.
+     */
+    private final long segmentSize;
+    /**
+     * The segments of the log, ordered by sequence number. The last one is the segment being appended to.
+     */
+    private final ArrayList<Path> segments;
+    /**
+     * The channel of the last segment.
+     */
+    private FileChannel channel;
+    /**
+     * The sequence number of the last segment.
+     */
+    private long sequence;
+    /**
+     * The size in bytes of the last segment, which only counts the records that were completely written.
+     */
+    private long size;
+    /**
+     * The size in bytes of the last segment when it was last synchronized with the disk.
+     */
+    private long synced;
+    /**
+     * Whether the last segment ends with records that failed to be completely written and could not be removed, in
+     * which case it is sealed before the next records are appended.
+     */
+    private boolean torn = false;
+
+    /**
+     * Opens the log, recovering its last segment.
+     *
+     * @param directory   The directory containing the segments.
+     * @param segmentSize The size in bytes above which the last segment is sealed.
+     * @param segments    The existing segments, ordered by sequence number.
+     *
+     * @throws IOException If the last segment cannot be opened or created.
+     */
+    private RegistrationLog(Path directory, long segmentSize, ArrayList<Path> segments) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.segments = segments;
+
+        if (segments.isEmpty()) {
+            createSegment(1);
+        } else {
+            Path last = segments.get(segments.size() - 1);
+            if (Files.size(last) < HEADER_LENGTH) {
+                // The server crashed while creating the segment
+                segments.remove(last);
+                Files.delete(last);
+                createSegment(sequenceOf(last));
+                return;
+            }
+
+            this.sequence = sequenceOf(last);
+            this.channel = FileChannel.open(last, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = recover(last, channel);
+            this.synced = size;
+            channel.position(size);
+
+            // Only append records of the current version
+            ByteBuffer version = ByteBuffer.allocate(2);
+            channel.read(version, 4);
+            if (version.flip().getShort() < VERSION) {
+                channel.close();
+                createSegment(sequence + 1);
+            }
+        }
+    }
+
+    /**
+     * Opens the log stored in the given directory, creating the directory and the first segment if needed.
+     *
+     * @param directory   The directory containing the segments.
+     * @param segmentSize The size in bytes above which the last segment is sealed.
+     *
+     * @return The log.
+     *
+     * @throws IOException If the directory cannot be listed or if the last segment cannot be opened.
+     */
+    static RegistrationLog open(Path directory, long segmentSize) throws IOException {
+        Files.createDirectories(directory);
+        ArrayList<Path> segments;
+        try (Stream<Path> files = Files.list(directory)) {
+            segments = new ArrayList<>(files.filter(file -> SEGMENT_NAME.matcher(file.getFileName().toString()).matches()).sorted().toList());
+        }
+        return new RegistrationLog(directory, segmentSize, segments);
+    }
+
+    /**
+     * Returns whether the log contains no segment or only an empty one.
+     *
+     * @return Whether the log is empty.
+     */
+    boolean isEmpty() {
+        return segments.size() == 1 && size == HEADER_LENGTH;
+    }
+
+    /**
+     * Encodes registrations as records of the log.
+     *
+     * @param forms The registration forms.
+     * @param kind  The kind of the records, either {@link #REGISTERED} or {@link #WAITLISTED}.
+     *
+     * @return The records.
+     *
+     * @throws IOException If a field of a form is longer than 65535 bytes once encoded.
+     */
+    static byte[] encode(List<RegistrationForm> forms, byte kind) throws IOException {
+        ByteArrayOutputStream records = new ByteArrayOutputStream(forms.size() * 80);
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(80);
+        DataOutputStream recordOutput = new DataOutputStream(records);
+        DataOutputStream payloadOutput = new DataOutputStream(payload);
+        CRC32C crc = new CRC32C();
+        for (RegistrationForm form : forms) {
+            payload.reset();
+            payloadOutput.writeByte(kind);
+            payloadOutput.writeUTF(form.getCourse().getSemester());
+            payloadOutput.writeUTF(form.getCourse().getCode());
+            payloadOutput.writeUTF(form.getStudentID());
+            payloadOutput.writeUTF(form.getFirstName());
+            payloadOutput.writeUTF(form.getLastName());
+            payloadOutput.writeUTF(form.getEmail());
+
+            crc.reset();
+            crc.update(payload.toByteArray());
+            recordOutput.writeInt(payload.size());
+            recordOutput.writeInt((int) crc.getValue());
+            payload.writeTo(recordOutput);
+        }
+        return records.toByteArray();
+    }
+
+    /**
+     * Appends records to the last segment, after sealing it and starting a new one if it exceeds the segment size.
+     * The records are not synchronized with the disk until {@link #force()} is called.
+     * <p>
+     * If the records cannot be completely written, the part that was written is truncated, so that the next records
+     * directly follow the last complete one. Otherwise, the recovery of the segment would stop at the torn records and
+     * drop every record appended after them.
+     *
+     * @param records The records, as encoded by {@link #encode(List, byte)}.
+     *
+     * @throws IOException If an I/O error occurs when writing the records.
+     */
+    void append(ByteBuffer[] records) throws IOException {
+        if (torn) {
+            // Seal the last segment after the torn records, which end the replay of the segment
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            createSegment(sequence + 1);
+            torn = false;
+        } else if (size >= segmentSize) {
+            // Seal the last segment
+            channel.force(false);
+            channel.close();
+            createSegment(sequence + 1);
+        }
+
+        long written = 0;
+        try {
+            while (records.length > 0 && records[records.length - 1].hasRemaining()) {
+                written += channel.write(records);
+            }
+        } catch (IOException e) {
+            try {
+                channel.truncate(size);
+                channel.position(size);
+            } catch (IOException truncation) {
+                e.addSuppressed(truncation);
+                torn = true;
+            }
+            throw e;
+        }
+        size += written;
+    }
+
+    /**
+     * Synchronizes the last segment with the disk.
+     *
+     * @throws IOException If an I/O error occurs when synchronizing the segment.
+     */
+    void force() throws IOException {
+        channel.force(false);
+        synced = size;
+    }
+
+    /**
+     * Truncates the last segment after the records that were synchronized with the disk, once {@link #force()} failed,
+     * so that the records whose synchronization failed are not replayed. The records of the segments sealed after
+     * torn records are not synchronized, and cannot be removed.
+     *
+     * @throws IOException If an I/O error occurs when truncating the segment.
+     */
+    void rollback() throws IOException {
+        channel.truncate(synced);
+        channel.position(synced);
+        channel.force(true);
+        size = synced;
+    }
+
+    /**
+     * Reads every record of the log, from the oldest to the newest. The records of a segment following a corrupted
+     * record are skipped.
+     *
+     * @param consumer Receives the records.
+     *
+     * @throws IOException If a segment cannot be read.
+     */
+    void replay(RecordConsumer consumer) throws IOException {
+        for (Path segment : segments) {
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment)))) {
+                read(segment, input, Long.MAX_VALUE, consumer);
+            }
+        }
+    }
+
+    /**
+     * Closes the last segment.
+     *
+     * @throws IOException If an I/O error occurs when closing the segment.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Creates a segment with its header and makes it the last segment.
+     *
+     * @param sequence The sequence number of the segment.
+     *
+     * @throws IOException If the segment cannot be created.
+     */
+    private void createSegment(long sequence) throws IOException {
+        Path segment = directory.resolve(String.format("registrations-%08d.log", sequence));
+        FileChannel channel = FileChannel.open(segment, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putLong(sequence).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.force(true);
+
+        this.channel = channel;
+        this.sequence = sequence;
+        this.size = HEADER_LENGTH;
+        this.synced = HEADER_LENGTH;
+        segments.add(segment);
+    }
+
+    /**
+     * Verifies the records of the last segment and truncates the segment after the last valid record.
+     *
+     * @param segment The path of the segment.
+     * @param channel The channel of the segment.
+     *
+     * @return The size of the segment once recovered.
+     *
+     * @throws IOException If the segment cannot be read or truncated.
+     */
+    private static long recover(Path segment, FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0))));
+        long valid = read(segment, input, fileSize, (kind, form) -> {
+        });
+
+        if (valid < fileSize) {
+            ServerLog.error("Discarding " + (fileSize - valid) + " bytes after the last valid record of " + segment.getFileName() + ".");
+            channel.truncate(valid);
+            channel.force(true);
+        }
+        return valid;
+    }
+
+    /**
+     * Reads the records of a segment until its end or until a torn or corrupted record.
+     *
+     * @param segment  The path of the segment, used in the error messages.
+     * @param input    The input positioned at the start of the segment.
+     * @param limit    The size of the segment, or {@link Long#MAX_VALUE} if unknown.
+     * @param consumer Receives the records.
+     *
+     * @return The position following the last valid record.
+     *
+     * @throws StreamCorruptedException If the header of the segment is invalid.
+     * @throws IOException              If an I/O error occurs when reading the segment.
+     */
+    private static long read(Path segment, DataInputStream input, long limit, RecordConsumer consumer) throws IOException {
+        short version;
+        try {
+            if (input.readInt() != MAGIC) {
+                throw new StreamCorruptedException("The segment " + segment.getFileName() + " is not a registrations log.");
+            }
+            version = input.readShort();
+            if (version < 1 || version > VERSION) {
+                throw new StreamCorruptedException("The segment " + segment.getFileName() + " has the unsupported version " + version + ".");
+            }
+            input.readShort();
+            input.readLong();
+        } catch (EOFException e) {
+            throw new StreamCorruptedException("The header of the segment " + segment.getFileName() + " is incomplete.");
+        }
+
+        long position = HEADER_LENGTH;
+        CRC32C crc = new CRC32C();
+        while (position < limit) {
+            byte[] payload;
+            int checksum;
+            try {
+                int length = input.readInt();
+                checksum = input.readInt();
+                if (length < 0 || length > MAX_RECORD_LENGTH) {
+                    ServerLog.error("Invalid record length at offset " + position + " of " + segment.getFileName() + ".");
+                    return position;
+                }
+                payload = new byte[length];
+                input.readFully(payload);
+            } catch (EOFException e) {
+                // The end of the segment, or a record torn by a crash
+                return position;
+            }
+
+            crc.reset();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                ServerLog.error("Invalid checksum at offset " + position + " of " + segment.getFileName() + ".");
+                return position;
+            }
+
+            DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+            byte kind = version >= 2 ? record.readByte() : REGISTERED;
+            consumer.accept(kind, decode(record));
+            position += RECORD_HEADER_LENGTH + payload.length;
+        }
+        return position;
+    }
+
+    /**
+     * Decodes the registration form of a record.
+     *
+     * @param input The payload of the record, positioned after its kind.
+     *
+     * @return The registration form. The name of the course is not stored and is left empty.
+     *
+     * @throws IOException If the payload is malformed.
+     */
+    private static RegistrationForm decode(DataInputStream input) throws IOException {
+        String semester = input.readUTF();
+        String code = input.readUTF();
+        String studentID = input.readUTF();
+        String firstName = input.readUTF();
+        String lastName = input.readUTF();
+        String email = input.readUTF();
+        return new RegistrationForm(new Student(firstName, lastName, email, studentID), new Course("", code, semester));
+    }
+
+    /**
+     * Returns the sequence number of a segment.
+     *
+     * @param segment The path of the segment.
+     *
+     * @return The sequence number of the segment.
+     */
+    private static long sequenceOf(Path segment) {
+        Matcher matcher = SEGMENT_NAME.matcher(segment.getFileName().toString());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid segment name " + segment.getFileName() + ".");
+        }
+        return Long.parseLong(matcher.group(1));
+    }
+
+    /**
+     * Receives the records read from the log.
+     */
+    @FunctionalInterface
+    interface RecordConsumer {
+        /**
+         * Receives a record.
+         *
+         * @param kind The kind of the record, either {@link #REGISTERED} or {@link #WAITLISTED}.
+         * @param form The registration form of the record.
+         */
+        void accept(byte kind, RegistrationForm form);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import com.etiennecollin.tp2.server.models.Course;
+import com.etiennecollin.tp2.server.models.RegistrationForm;
+import com.etiennecollin.tp2.server.models.Student;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+/**
+ * The RegistrationLogConverter class imports the registrations of the text file used by the previous versions of the
+ * server into a {@link RegistrationLog}.
+ * <p>
+ * The server imports the text file of its data directory by itself when it starts with an empty log. The converter can
+ * also be run on its own with the path of the text file and the path of the directory of the log as arguments.
+ */
+public final class RegistrationLogConverter {
+    /**
+     * The number of registrations appended to the log at once.
+     */
+    private static final int BATCH_SIZE = 1024;
+
+    /**
+     * Prevents the instantiation of the class.
+     */
+    private RegistrationLogConverter() {
+    }
+
+    /**
+     * Imports a registrations text file into a log.
+     *
+     * @param args The path of the text file and the path of the directory of the log.
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            ServerLog.error("Usage: RegistrationLogConverter <registrations.txt> <log directory>");
+            return;
+        }
+
+        try (RegistrationLog log = RegistrationLog.open(Path.of(args[1]), Long.MAX_VALUE)) {
+            int count = convert(Path.of(args[0]), log);
+            ServerLog.info("Imported " + count + " registrations into " + args[1] + ".");
+        } catch (IOException e) {
+            ServerLog.error(e.getMessage());
+        }
+    }
+
+    /**
+     * Appends the registrations of a text file to a log and synchronizes the log with the disk. Each line of the file
+     * has the format {@code semester \t code \t studentID \t firstName \t lastName \t email}. Malformed lines are
+     * skipped.
+     *
+     * @param textFile The registrations text file.
+     * @param log      The log.
+     *
+     * @return The number of imported registrations.
+     *
+     * @throws IOException If the file cannot be read or if the log cannot be written.
+     */
+    static int convert(Path textFile, RegistrationLog log) throws IOException {
+        int count = 0;
+        int lineNumber = 0;
+        ArrayList<RegistrationForm> batch = new ArrayList<>(BATCH_SIZE);
+
+        try (BufferedReader reader = Files.newBufferedReader(textFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                String[] tokens = line.split("\t", -1);
+                if (tokens.length != 6) {
+                    ServerLog.error("Skipping the malformed line " + lineNumber + " of " + textFile.getFileName() + ".");
+                    continue;
+                }
+
+                batch.add(new RegistrationForm(new Student(tokens[3], tokens[4], tokens[5], tokens[2]), new Course("", tokens[1], tokens[0])));
+                if (batch.size() == BATCH_SIZE) {
+                    count += flush(batch, log);
+                }
+            }
+        }
+
+        count += flush(batch, log);
+        log.force();
+        return count;
+    }
+
+    /**
+     * Appends a batch of registrations to the log and clears the batch.
+     *
+     * @param batch The registrations.
+     * @param log   The log.
+     *
+     * @return The number of appended registrations.
+     *
+     * @throws IOException If the log cannot be written.
+     */
+    private static int flush(ArrayList<RegistrationForm> batch, RegistrationLog log) throws IOException {
+        int count = batch.size();
+        if (count > 0) {
+            log.append(new ByteBuffer[]{ByteBuffer.wrap(RegistrationLog.encode(batch, RegistrationLog.REGISTERED))});
+            batch.clear();
+        }
+        return count;
+    }
+}
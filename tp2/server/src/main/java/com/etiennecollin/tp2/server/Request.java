@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import java.io.DataInputStream;
+
+/**
+ * The Request class represents a request read from a client by a {@link ClientCodec}.
+ * <p>
+ * It holds the command of the request and its argument and, for the binary protocol, the correlation identifier to put
+ * on the reply and the body of the request frame.
+ */
+final class Request {
+    /**
+     * The command of the request.
+     */
+    private final String command;
+    /**
+     * The argument of the command, or an empty string if it has none.
+     */
+    private final String argument;
+    /**
+     * The correlation identifier of the request.
+     */
+    private final int id;
+    /**
+     * The body of the request frame positioned after its argument, or null if the request has no frame.
+     */
+    private final DataInputStream body;
+    /**
+     * The length in bytes of the body of the request frame, or 0 if the request has no frame.
+     */
+    private final int length;
+    /**
+     * Whether the request was answered with an error. Only used by the thread handling the request.
+     */
+    private boolean failed = false;
+
+    /**
+     * Creates a new request.
+     *
+     * @param command  The command of the request.
+     * @param argument The argument of the command, or an empty string if it has none.
+     * @param id       The correlation identifier of the request.
+     * @param body     The body of the request frame positioned after its argument, or null if the request has no frame.
+     */
+    Request(String command, String argument, int id, DataInputStream body) {
+        this(command, argument, id, body, 0);
+    }
+
+    /**
+     * Creates a new request read from a frame.
+     *
+     * @param command  The command of the request.
+     * @param argument The argument of the command, or an empty string if it has none.
+     * @param id       The correlation identifier of the request.
+     * @param body     The body of the request frame positioned after its argument.
+     * @param length   The length in bytes of the body of the request frame.
+     */
+    Request(String command, String argument, int id, DataInputStream body, int length) {
+        this.command = command;
+        this.argument = argument;
+        this.id = id;
+        this.body = body;
+        this.length = length;
+    }
+
+    /**
+     * Creates a request from a command line, made of the command and its argument separated by a space.
+     * <p>
+     * The line is cut at its first space and the spaces ending the argument are dropped, without building any
+     * intermediate array or list.
+     *
+     * @param line The command line.
+     * @param id   The correlation identifier of the request.
+     * @param body The body of the request frame positioned after its argument, or null if the request has no frame.
+     *
+     * @return The request.
+     */
+    static Request parse(String line, int id, DataInputStream body) {
+        int space = line.indexOf(' ');
+        if (space < 0) {
+            return new Request(line, "", id, body);
+        }
+
+        int end = line.length();
+        while (end > space + 1 && line.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return new Request(line.substring(0, space), line.substring(space + 1, end), id, body);
+    }
+
+    /**
+     * Returns the command of the request.
+     *
+     * @return The command of the request.
+     */
+    String getCommand() {
+        return command;
+    }
+
+    /**
+     * Returns the argument of the command.
+     *
+     * @return The argument of the command, or an empty string if it has none.
+     */
+    String getArgument() {
+        return argument;
+    }
+
+    /**
+     * Returns the correlation identifier of the request.
+     *
+     * @return The correlation identifier of the request.
+     */
+    int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the body of the request frame.
+     *
+     * @return The body of the request frame positioned after its argument, or null if the request has no frame.
+     */
+    DataInputStream getBody() {
+        return body;
+    }
+
+    /**
+     * Returns the length of the body of the request frame, which stays in memory until the request is handled.
+     *
+     * @return The length of the body in bytes, or 0 if the request has no frame.
+     */
+    int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns whether the request was answered with an error.
+     *
+     * @return Whether the request failed.
+     */
+    boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Marks the request as answered with an error.
+     */
+    void fail() {
+        failed = true;
+    }
+}
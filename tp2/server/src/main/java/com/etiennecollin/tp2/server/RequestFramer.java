@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import com.etiennecollin.tp2.server.protocol.Protocol;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+
+/**
+ * The RequestFramer interface finds where the requests of a client end among the bytes it sent, so that the
+ * {@link SelectorConnection} only hands complete requests to the {@link ClientHandler}, which then reads them without
+ * ever waiting for the client.
+ * <p>
+ * The first request is the opening of the stream, read by the {@link ClientCodec} when it is created. Each following
+ * request is made of the exact bytes read by the codec for a single request, including the body read by the handler.
+ */
+interface RequestFramer {
+    /**
+     * The maximum length of a request: the largest frame of the binary protocol, along with its length and the byte of
+     * the capabilities accepted by the client.
+     */
+    int MAX_REQUEST_LENGTH = Protocol.MAX_FRAME_LENGTH + 5;
+
+    /**
+     * Creates the framer of the protocol spoken by the client, detected from its first bytes like
+     * {@link ClientCodec#open(InputStream, OutputStream)} does.
+     *
+     * @param first  The first byte sent by the client.
+     * @param second The second byte sent by the client.
+     *
+     * @return The framer of the protocol spoken by the client.
+     */
+    static RequestFramer open(int first, int second) {
+        if ((first << 8 | second) == Protocol.OBJECT_STREAM_MAGIC) {
+            return new ObjectStreamFramer();
+        }
+        return new BinaryFramer();
+    }
+
+    /**
+     * Returns the length of the request starting at the given offset if the client sent all of it. The framer moves
+     * on to the next request once a length is returned.
+     *
+     * @param bytes  The bytes sent by the client.
+     * @param offset The position of the first byte of the request.
+     * @param length The number of bytes sent by the client from the position of the request on.
+     *
+     * @return The length of the request, or 0 if the client did not send all of it yet.
+     *
+     * @throws StreamCorruptedException If the bytes do not form a valid request.
+     */
+    int frame(byte[] bytes, int offset, int length) throws StreamCorruptedException;
+}
@@ -0,0 +1,630 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The SelectorConnection class represents a client connection multiplexed by an event loop of the
+ * {@link SelectorServer}.
+ * <p>
+ * The event loop cuts the bytes read from the channel into requests with a {@link RequestFramer}, pushes the complete
+ * requests into an input stream, and writes the bytes queued by the output stream back to the channel. A
+ * {@link ClientHandler} reading from and writing to these streams is only scheduled on a worker thread while complete
+ * requests were not handled yet, so that neither idle clients nor clients sending a request in many packets hold any
+ * thread.
+ */
+final class SelectorConnection implements Closeable {
+    /**
+     * The number of bytes of complete requests above which the event loop stops reading from the client until the
+     * handler catches up.
+     */
+    private static final int MAX_BUFFERED_INPUT = 1 << 20;
+    /**
+     * The number of bytes of replies waiting to be written above which the requests of the client are not read until it
+     * reads the replies.
+     */
+    private static final int MAX_BUFFERED_OUTPUT = 4 << 20;
+    /**
+     * The initial capacity of the buffer of the requests being received.
+     */
+    private static final int PARTIAL_CAPACITY = 1024;
+    /**
+     * Represents the channel of the client.
+     */
+    private final SocketChannel channel;
+    /**
+     * Represents the name of the client, used in the server messages.
+     */
+    private final String client;
+    /**
+     * Represents the remote address of the client, whose requests share a rate limit.
+     */
+    private final InetAddress address;
+    /**
+     * The event loop to which the channel is registered.
+     */
+    private final SelectorServer.EventLoop loop;
+    /**
+     * The executor running the client handler.
+     */
+    private final Executor workers;
+    /**
+     * Called once the channel is closed.
+     */
+    private final Runnable onClose;
+    /**
+     * The stream from which the handler reads the bytes sent by the client.
+     */
+    private final ChannelInputStream inputStream = new ChannelInputStream();
+    /**
+     * The stream to which the handler writes its replies.
+     */
+    private final ChannelOutputStream outputStream = new ChannelOutputStream();
+    /**
+     * The replies waiting to be written to the channel.
+     */
+    private final Queue<ByteBuffer> pendingWrites = new ConcurrentLinkedQueue<>();
+    /**
+     * The number of bytes of the replies waiting to be written.
+     */
+    private final AtomicLong bufferedOutput = new AtomicLong();
+    /**
+     * Whether the handler is scheduled or running on a worker thread.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    /**
+     * Whether the channel is closed.
+     */
+    private final AtomicBoolean closed = new AtomicBoolean();
+    /**
+     * Cuts the bytes read from the client into requests, once the first bytes tell the protocol of the client. Only
+     * accessed by the event loop.
+     */
+    private RequestFramer framer;
+    /**
+     * The bytes read from the client that do not form a complete request yet. Only accessed by the event loop.
+     */
+    private byte[] partial = new byte[PARTIAL_CAPACITY];
+    /**
+     * The number of bytes in {@link #partial}. Only accessed by the event loop.
+     */
+    private int partialLength = 0;
+    /**
+     * The key of the channel in the selector of the event loop.
+     */
+    private SelectionKey key;
+    /**
+     * The handler of the client, created once the client sends its first bytes.
+     */
+    private ClientHandler handler;
+    /**
+     * Whether the handler stopped handling the requests of the client because too many replies wait to be written.
+     */
+    private volatile boolean outputFull = false;
+    /**
+     * Whether the handler asked to close the connection once the pending replies are written.
+     */
+    private volatile boolean closing = false;
+    /**
+     * The time at which the event loop last read from or wrote to the channel, as given by {@link System#nanoTime()}.
+     * Only accessed by the event loop.
+     */
+    private long lastActivity = System.nanoTime();
+
+    /**
+     * Creates a new connection for the given client channel.
+     *
+     * @param channel The channel of the client, in non-blocking mode.
+     * @param client  The name of the client, used in the server messages.
+     * @param address The remote address of the client.
+     * @param loop    The event loop to which the channel is registered.
+     * @param workers The executor running the client handler.
+     * @param onClose Called once the channel is closed.
+     */
+    SelectorConnection(SocketChannel channel, String client, InetAddress address, SelectorServer.EventLoop loop, Executor workers, Runnable onClose) {
+        this.channel = channel;
+        this.client = client;
+        this.address = address;
+        this.loop = loop;
+        this.workers = workers;
+        this.onClose = onClose;
+    }
+
+    /**
+     * Registers the channel to the selector of the event loop, or closes it if it cannot be registered. Must be called
+     * by the event loop.
+     *
+     * @param selector The selector of the event loop.
+     */
+    void register(Selector selector) {
+        try {
+            key = channel.register(selector, SelectionKey.OP_READ, this);
+        } catch (ClosedChannelException | RuntimeException e) {
+            // Close the channel so that its connection slot is freed
+            closeChannel();
+        }
+    }
+
+    /**
+     * Reads the bytes available on the channel and schedules the handler once they complete a request. Must be called
+     * by the event loop.
+     *
+     * @param buffer The read buffer of the event loop.
+     */
+    void onReadable(ByteBuffer buffer) {
+        lastActivity = System.nanoTime();
+        int read;
+        buffer.clear();
+        try {
+            read = channel.read(buffer);
+        } catch (IOException e) {
+            read = -1;
+        }
+
+        if (read < 0) {
+            // The client closed its side of the connection, let the handler notice it
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            inputStream.end();
+            schedule();
+            return;
+        }
+
+        buffer.flip();
+        if (partialLength + buffer.remaining() > partial.length) {
+            partial = Arrays.copyOf(partial, Math.max(partial.length * 2, partialLength + buffer.remaining()));
+        }
+        buffer.get(partial, partialLength, buffer.remaining());
+        partialLength += read;
+
+        boolean received;
+        try {
+            received = frameRequests();
+            if (partialLength > RequestFramer.MAX_REQUEST_LENGTH) {
+                throw new StreamCorruptedException("The request is longer than " + RequestFramer.MAX_REQUEST_LENGTH + " bytes.");
+            }
+        } catch (StreamCorruptedException e) {
+            ServerLog.error("Could not talk to client " + client + ": " + e);
+            closeChannel();
+            return;
+        }
+        updateReading();
+        if (received) {
+            schedule();
+        }
+    }
+
+    /**
+     * Moves the complete requests read from the client to the input stream of the handler. Must be called by the event
+     * loop.
+     *
+     * @return Whether a request was completed.
+     *
+     * @throws StreamCorruptedException If the bytes sent by the client do not form valid requests.
+     */
+    private boolean frameRequests() throws StreamCorruptedException {
+        if (framer == null) {
+            if (partialLength < 2) {
+                return false;
+            }
+            framer = RequestFramer.open(partial[0] & 0xFF, partial[1] & 0xFF);
+        }
+
+        int offset = 0;
+        int length;
+        while (offset < partialLength && (length = framer.frame(partial, offset, partialLength - offset)) > 0) {
+            inputStream.append(Arrays.copyOfRange(partial, offset, offset + length));
+            offset += length;
+        }
+        if (offset == 0) {
+            return false;
+        }
+
+        // Keep the start of the next request, in a small buffer once a large request is received
+        partialLength -= offset;
+        if (partialLength <= PARTIAL_CAPACITY && partial.length > PARTIAL_CAPACITY) {
+            partial = Arrays.copyOfRange(partial, offset, offset + PARTIAL_CAPACITY);
+        } else {
+            System.arraycopy(partial, offset, partial, 0, partialLength);
+        }
+        return true;
+    }
+
+    /**
+     * Writes as many pending replies as the channel accepts, then closes the channel if the handler asked for it. The
+     * handler is scheduled again once the replies it stopped for are written. Must be called by the event loop.
+     */
+    void onWritable() {
+        if (closed.get()) {
+            clearPendingWrites();
+            return;
+        }
+
+        try {
+            ByteBuffer buffer;
+            while ((buffer = pendingWrites.peek()) != null) {
+                channel.write(buffer);
+                lastActivity = System.nanoTime();
+                if (buffer.hasRemaining()) {
+                    // The socket buffer is full, wait until the channel is writable again
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                pendingWrites.poll();
+                if (bufferedOutput.addAndGet(-buffer.limit()) < MAX_BUFFERED_OUTPUT && outputFull) {
+                    // Handle the requests of the client again
+                    outputFull = false;
+                    updateReading();
+                    schedule();
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        } catch (IOException e) {
+            closeChannel();
+            return;
+        }
+
+        if (closing) {
+            closeChannel();
+        }
+    }
+
+    /**
+     * Returns the name of the client, used in the server messages.
+     *
+     * @return The name of the client.
+     */
+    String getClient() {
+        return client;
+    }
+
+    /**
+     * Closes the channel if nothing was read from or written to it for longer than the idle timeout. Must be called by
+     * the event loop.
+     *
+     * @param now         The current time, as given by {@link System#nanoTime()}.
+     * @param idleTimeout The idle timeout in nanoseconds.
+     *
+     * @return Whether the channel was closed.
+     */
+    boolean closeIfIdle(long now, long idleTimeout) {
+        if (closed.get() || now - lastActivity < idleTimeout) {
+            return false;
+        }
+
+        closeChannel();
+        return true;
+    }
+
+    /**
+     * Asks the event loop to close the channel once the pending replies are written.
+     */
+    @Override
+    public void close() {
+        closing = true;
+        loop.execute(this::onWritable);
+    }
+
+    /**
+     * Schedules the handler on a worker thread unless it is already scheduled.
+     */
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            workers.execute(this::process);
+        }
+    }
+
+    /**
+     * Closes the channel after the event loop failed to serve it, and lets the handler notice it. Must be called by the
+     * event loop.
+     *
+     * @param e The failure.
+     */
+    void fail(RuntimeException e) {
+        if (!closed.get()) {
+            ServerLog.error("Could not serve client " + client + ".", e);
+        }
+        closeChannel();
+    }
+
+    /**
+     * Lets the handler handle every request received so far. Runs on a worker thread.
+     * <p>
+     * A failure of the handler closes the channel. The handler is disconnected at once if it failed with an unexpected
+     * exception, as it may fail again when handling the end of the stream.
+     */
+    private void process() {
+        // Whether this run holds the scheduled flag, which is released by the last check of the loop
+        boolean holding = true;
+        Exception failure = null;
+        try {
+            do {
+                if (handler == null) {
+                    // The first request holds the opening of the stream of the client
+                    handler = new ClientHandler(client, address, inputStream, outputStream, this);
+                }
+                while (!handler.isClientDisconnecting() && inputStream.hasPending() && !isOutputFull()) {
+                    handler.step();
+                }
+
+                // Stop until the client reads the replies, then pause or resume reading from the client
+                if (isOutputFull()) {
+                    outputFull = true;
+                }
+                loop.execute(this::updateReading);
+                holding = false;
+                scheduled.set(false);
+                // Bytes may have been received, or replies written, after the last check
+            } while (!handler.isClientDisconnecting() && inputStream.hasPending() && !isOutputFull() && (holding = scheduled.compareAndSet(false, true)));
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+        } finally {
+            if (holding) {
+                scheduled.set(false);
+            }
+        }
+
+        if (failure instanceof IOException) {
+            // The channel may have been closed because the client stayed idle
+            if (!closed.get()) {
+                ServerLog.error("Could not talk to client " + client + ": " + failure);
+            }
+            closeChannel();
+        } else if (failure != null) {
+            ServerLog.error("Could not handle the requests of client " + client + ".", failure);
+            if (handler != null) {
+                handler.abort();
+            }
+            closeChannel();
+        }
+    }
+
+    /**
+     * Returns whether too many replies wait to be written for the handler to handle more requests. The replies do not
+     * count once the channel is closed, so that the handler notices it.
+     *
+     * @return Whether too many replies wait to be written.
+     */
+    private boolean isOutputFull() {
+        return !closed.get() && bufferedOutput.get() >= MAX_BUFFERED_OUTPUT;
+    }
+
+    /**
+     * Reads from the client while the channel is open, unless the handler is behind on the requests or too many
+     * replies wait to be written. Must be called by the event loop.
+     */
+    private void updateReading() {
+        if (closed.get() || !key.isValid()) {
+            return;
+        }
+        if (inputStream.isEnded() || inputStream.available() >= MAX_BUFFERED_INPUT || isOutputFull()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        } else {
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Drops the replies waiting to be written, once the channel is closed.
+     */
+    private void clearPendingWrites() {
+        pendingWrites.clear();
+        bufferedOutput.set(0);
+    }
+
+    /**
+     * Closes the channel immediately and lets the handler notice it.
+     */
+    private void closeChannel() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        inputStream.end();
+        clearPendingWrites();
+        onClose.run();
+
+        if (handler != null && !handler.isClientDisconnecting()) {
+            schedule();
+        }
+    }
+
+    /**
+     * An input stream made of the complete requests read by the event loop. Reading never blocks, as the handler only
+     * reads the requests it was scheduled for.
+     */
+    private static final class ChannelInputStream extends InputStream {
+        /**
+         * Guards the chunks.
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+        /**
+         * The requests read by the event loop.
+         */
+        private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+        /**
+         * The position of the next byte to read in the first chunk.
+         */
+        private int offset = 0;
+        /**
+         * The number of bytes of the requests that were not read yet.
+         */
+        private volatile int available = 0;
+        /**
+         * Whether the client closed its side of the connection.
+         */
+        private volatile boolean ended = false;
+
+        /**
+         * Appends a complete request to the stream.
+         *
+         * @param chunk The bytes of the request.
+         */
+        void append(byte[] chunk) {
+            lock.lock();
+            try {
+                chunks.add(chunk);
+                available += chunk.length;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Marks the end of the stream.
+         */
+        void end() {
+            ended = true;
+        }
+
+        /**
+         * Returns whether the client closed its side of the connection.
+         *
+         * @return Whether the client closed its side of the connection.
+         */
+        boolean isEnded() {
+            return ended;
+        }
+
+        /**
+         * Returns whether the handler has something to read, either a request or the end of the stream.
+         *
+         * @return Whether the handler has something to read.
+         */
+        boolean hasPending() {
+            return available > 0 || ended;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @throws IOException If the handler reads past the requests received so far, which it never does unless it
+         *                     reads the requests differently from the {@link RequestFramer}.
+         */
+        @Override
+        public int read(byte[] bytes, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            lock.lock();
+            try {
+                if (available == 0) {
+                    if (ended) {
+                        return -1;
+                    }
+                    throw new IOException("Read past the requests received from the client.");
+                }
+
+                int total = 0;
+                while (total < len && !chunks.isEmpty()) {
+                    byte[] chunk = chunks.peek();
+                    int count = Math.min(len - total, chunk.length - offset);
+                    System.arraycopy(chunk, offset, bytes, off + total, count);
+                    total += count;
+                    offset += count;
+                    if (offset == chunk.length) {
+                        chunks.poll();
+                        offset = 0;
+                    }
+                }
+                available -= total;
+                return total;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int available() {
+            return available;
+        }
+    }
+
+    /**
+     * An output stream buffering the replies of the handler until it is flushed, then handing them to the event loop.
+     */
+    private final class ChannelOutputStream extends OutputStream {
+        /**
+         * The bytes written since the last flush.
+         */
+        private byte[] buffer = new byte[1024];
+        /**
+         * The number of bytes written since the last flush.
+         */
+        private int count = 0;
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(1);
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int off, int len) {
+            ensureCapacity(len);
+            System.arraycopy(bytes, off, buffer, count, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() {
+            if (count == 0) {
+                return;
+            }
+            bufferedOutput.addAndGet(count);
+            pendingWrites.add(ByteBuffer.wrap(Arrays.copyOf(buffer, count)));
+            count = 0;
+            loop.execute(SelectorConnection.this::onWritable);
+        }
+
+        @Override
+        public void close() {
+            flush();
+        }
+
+        /**
+         * Grows the buffer so that it can hold the given number of additional bytes.
+         *
+         * @param extra The number of additional bytes.
+         */
+        private void ensureCapacity(int extra) {
+            if (count + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + extra));
+            }
+        }
+    }
+}
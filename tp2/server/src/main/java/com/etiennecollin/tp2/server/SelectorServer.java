@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.etiennecollin.tp2.server.ServerLauncher.*;
+
+/**
+ * This class represents a server built on a {@link Selector} that listens on a specified port for incoming client
+ * requests.
+ * <p>
+ * The accepted channels are spread over a small number of event loops which read the client requests and write the
+ * replies without blocking. The event loops wait until a request is complete, then the request is decoded and handled
+ * by the same {@link ClientHandler} as the blocking server, which only runs on a worker thread while a client has
+ * complete requests pending.
+ */
+class SelectorServer {
+    /**
+     * Starts the server and listens for incoming client requests.
+     * <p>
+     * Once the maximum number of connections is reached, the server stops accepting clients until one of them
+     * disconnects, leaving the new connections waiting in the backlog. The server runs until it is shut down by the
+     * {@link ServerShutdown}.
+     *
+     * @param config The configuration of the server.
+     *
+     * @throws IOException If there is an exception when creating the server channel or the selectors.
+     */
+    static void run(ServerConfig config) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(config.getPort()), config.getBacklog());
+        ServerShutdown.start(server, config);
+        ExecutorService workers = Server.createExecutor(config);
+        Semaphore connections = new Semaphore(config.getMaxConnections());
+
+        // Start the event loops
+        EventLoop[] loops = new EventLoop[config.getEventLoops()];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(TimeUnit.SECONDS.toNanos(config.getIdleTimeout()));
+            Thread.ofPlatform().name("event-loop-" + i).daemon().start(loops[i]);
+        }
+
+        // Continuously listen for incoming client requests
+        int next = 0;
+        while (true) {
+            try {
+                // Wait for a free connection slot
+                connections.acquireUninterruptibly();
+
+                // Wait for connection request, then accept it
+                SocketChannel channel;
+                try {
+                    channel = server.accept();
+                } catch (IOException e) {
+                    connections.release();
+                    throw e;
+                }
+
+                // Hand the channel to the next event loop
+                try {
+                    String client = channel.getRemoteAddress().toString();
+                    ServerLog.info(() -> "Connected to client: " + ANSI_BLUE + client + ANSI_RESET);
+                    Server.configureKeepAlive(channel.socket(), config);
+                    channel.configureBlocking(false);
+                    EventLoop loop = loops[next];
+                    next = (next + 1) % loops.length;
+                    SelectorConnection connection = new SelectorConnection(channel, client, channel.socket().getInetAddress(), loop, workers, connections::release);
+                    loop.execute(() -> connection.register(loop.selector));
+                } catch (IOException | RuntimeException e) {
+                    // The connection slot is only freed by the connection once it is handed to an event loop
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                    connections.release();
+                    throw e;
+                }
+            } catch (IOException e) {
+                if (ServerShutdown.isStopping()) {
+                    return;
+                }
+                ServerLog.error("Could not accept a client.", e);
+            }
+        }
+    }
+
+    /**
+     * An event loop waiting on a selector for the channels registered to it to become readable or writable.
+     * <p>
+     * About once per second, the event loop also closes the channels that stayed idle for longer than the idle timeout.
+     */
+    static final class EventLoop implements Runnable {
+        /**
+         * The longest time the event loop waits on its selector, in milliseconds, so that the idle channels are
+         * closed even when no channel is ready.
+         */
+        private static final long SELECT_TIMEOUT = 1000;
+        /**
+         * The selector of the event loop.
+         */
+        private final Selector selector;
+        /**
+         * The tasks submitted by other threads, run by the event loop between two selections.
+         */
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        /**
+         * The buffer in which the event loop reads from the channels.
+         */
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+        /**
+         * The time after which an idle channel is closed, in nanoseconds.
+         */
+        private final long idleTimeout;
+        /**
+         * The time at which the idle channels were last closed, as given by {@link System#nanoTime()}.
+         */
+        private long lastSweep = System.nanoTime();
+
+        /**
+         * Creates a new event loop with its own selector.
+         *
+         * @param idleTimeout The time after which an idle channel is closed, in nanoseconds.
+         *
+         * @throws IOException If the selector cannot be opened.
+         */
+        EventLoop(long idleTimeout) throws IOException {
+            this.selector = Selector.open();
+            this.idleTimeout = idleTimeout;
+        }
+
+        /**
+         * Submits a task to be run by the event loop and wakes it up.
+         *
+         * @param task The task to run.
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Runs the event loop until the selector fails. A task or a connection failing with an unexpected exception
+         * does not stop the event loop.
+         */
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select(SELECT_TIMEOUT);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+
+                // Run the submitted tasks
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        ServerLog.error("An event loop task failed.", e);
+                    }
+                }
+
+                // Serve the ready channels
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    // A failure only closes the connection that caused it
+                    SelectorConnection connection = (SelectorConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable(readBuffer);
+                        }
+                    } catch (RuntimeException e) {
+                        connection.fail(e);
+                    }
+                }
+
+                long now = System.nanoTime();
+                if (now - lastSweep >= TimeUnit.MILLISECONDS.toNanos(SELECT_TIMEOUT)) {
+                    lastSweep = now;
+                    closeIdleChannels(now);
+                }
+            }
+        }
+
+        /**
+         * Closes the channels that stayed idle for longer than the idle timeout.
+         *
+         * @param now The current time, as given by {@link System#nanoTime()}.
+         */
+        private void closeIdleChannels(long now) {
+            for (SelectionKey key : selector.keys()) {
+                if (key.isValid() && key.attachment() instanceof SelectorConnection connection && connection.closeIfIdle(now, idleTimeout)) {
+                    ServerLog.info(() -> "Closed the idle connection of client: " + ANSI_BLUE + connection.getClient() + ANSI_RESET);
+                }
+            }
+        }
+    }
+}
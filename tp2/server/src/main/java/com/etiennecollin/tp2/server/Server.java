@@ -4,58 +4,202 @@
 
 package com.etiennecollin.tp2.server;
 
+import jdk.net.ExtendedSocketOptions;
+
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 import static com.etiennecollin.tp2.server.ServerLauncher.*;
 
 /**
  * This class represents a server that listens on a specified port for incoming client requests.
  * <p>
- * It creates threads that handle each client.
+ * It hands each client to a handler executed by virtual threads or by a bounded thread pool.
  */
 public class Server {
     /**
      * The command used to register a new student.
      */
     public final static String REGISTER_COMMAND = "INSCRIRE";
+    /**
+     * The command used to register many students at once.
+     */
+    public final static String REGISTER_BATCH_COMMAND = "INSCRIRE_LOT";
     /**
      * The command used to load available courses for a given semester or for all semesters.
      */
     public final static String LOAD_COMMAND = "CHARGER";
+    /**
+     * The command used to load a page of the available courses, given its offset, its maximum number of courses and
+     * optionally a semester.
+     */
+    public final static String LOAD_PAGE_COMMAND = "CHARGER_PAGE";
+    /**
+     * The command used to load the available courses for a given semester or for all semesters as a stream of pages.
+     */
+    public final static String LOAD_STREAM_COMMAND = "CHARGER_FLUX";
+    /**
+     * The command used to load the available courses as a stream of pages, given the version of the courses held by the
+     * client and optionally a semester, unless they did not change since that version.
+     */
+    public final static String LOAD_IF_MODIFIED_COMMAND = "CHARGER_SI_MODIFIE";
+    /**
+     * The command used to search the courses whose code starts with a query or whose name contains it.
+     */
+    public final static String SEARCH_COMMAND = "RECHERCHER";
+    /**
+     * The command used to get the statistics of the server.
+     */
+    public final static String STATS_COMMAND = "STATS";
+    /**
+     * The command used to shut the server down, only accepted from the clients running on the machine of the server.
+     */
+    public final static String SHUTDOWN_COMMAND = "SHUTDOWN";
     /**
      * The command used to disconnect from a client.
      */
     public final static String DISCONNECT_COMMAND = "DISCONNECT";
 
     /**
-     * Starts the server and listens for incoming client requests.
+     * Loads the course catalog, then starts the server and listens for incoming client requests.
      * <p>
-     * When a request is received, it creates a new ClientHandler which will process
-     * the client interactions with the server in a separate thread.
+     * When a request is received, it creates a new ClientHandler which will process the client interactions with the
+     * server in a separate thread provided by the configured {@link ServerConfig.ExecutionModel execution model}. Once
+     * the maximum number of connections is reached, the server stops accepting clients until one of them disconnects,
+     * leaving the new connections waiting in the backlog. With the {@link ServerConfig.ExecutionModel#POOLED POOLED}
+     * model, the maximum number of connections is at most the size of the pool, as each client holds a thread of the
+     * pool. The server runs until it is shut down by the {@link ServerShutdown}.
+     * <p>
+     * When the {@link ServerConfig.Engine#SELECTOR SELECTOR} engine is configured, the server is run by the
+     * {@link SelectorServer} instead.
      *
-     * @param port The port on which the server is launched.
+     * @param config The configuration of the server.
      *
-     * @throws IOException If there is an exception when creating the new server socket.
+     * @throws IOException If there is an exception when creating the new server socket or opening the registrations
+     *                     log.
      */
-    static void run(int port) throws IOException {
-        ServerSocket server = new ServerSocket(port, 1);
+    static void run(ServerConfig config) throws IOException {
+        CourseCatalog.start(config.getDataDirectory());
+        RegistrationJournal.start(config.getDataDirectory(), config.getSyncPolicy(), config.getSyncInterval(), config.getSegmentSize());
+        BinaryCodec.configure(config.getCompression(), config.getCompressionThreshold());
+        ClientHandler.configure(config.getMaxErrors());
+        RateLimiter.configure(config);
+        if (config.getStatsFile() != null) {
+            ServerStats.start(config.getStatsFile(), config.getStatsInterval());
+        }
+
+        if (config.getEngine() == ServerConfig.Engine.SELECTOR) {
+            SelectorServer.run(config);
+            return;
+        }
+
+        ServerSocket server = new ServerSocket(config.getPort(), config.getBacklog());
+        ServerShutdown.start(server, config);
+        ExecutorService executor = createExecutor(config);
+        // A pooled handler holds its thread until its client disconnects, so the clients beyond the pool would wait
+        // unserved in the queue of the executor instead of the backlog
+        int maxConnections = config.getMaxConnections();
+        if (config.getExecutionModel() == ServerConfig.ExecutionModel.POOLED && maxConnections > config.getPoolSize()) {
+            maxConnections = config.getPoolSize();
+            ServerLog.info("Accepting at most " + maxConnections + " clients at once, the size of the thread pool.");
+        }
+        Semaphore connections = new Semaphore(maxConnections);
+
         // Continuously listen for incoming client requests
         while (true) {
             try {
+                // Wait for a free connection slot
+                connections.acquireUninterruptibly();
+
                 // Wait for connection request, then accept it
-                System.out.println(SERVER + "Waiting for a client...");
-                Socket client = server.accept();
-                System.out.println(SERVER + "Connected to client: " + ANSI_BLUE + client + ANSI_RESET);
+                ServerLog.debug(() -> "Waiting for a client...");
+                Socket client;
+                try {
+                    client = server.accept();
+                } catch (IOException e) {
+                    connections.release();
+                    throw e;
+                }
+                ServerLog.info(() -> "Connected to client: " + ANSI_BLUE + client + ANSI_RESET);
+                try {
+                    // A read waiting longer than the idle timeout fails, which disconnects the idle client
+                    client.setSoTimeout((int) TimeUnit.SECONDS.toMillis(config.getIdleTimeout()));
+                    configureKeepAlive(client, config);
+                } catch (IOException e) {
+                    client.close();
+                    connections.release();
+                    throw e;
+                }
 
-                // Create a new thread to listen to the client
-                ClientHandler clientHandler = new ClientHandler(client);
-                new Thread(clientHandler).start();
+                // Listen to the client in a separate thread
+                executor.execute(() -> handle(client, connections));
             } catch (IOException e) {
-                e.printStackTrace();
+                if (ServerShutdown.isStopping()) {
+                    return;
+                }
+                ServerLog.error("Could not accept a client.", e);
             }
         }
     }
-}
 
+    /**
+     * Enables TCP keepalive on the socket of a client if it is configured, so that the operating system detects the
+     * clients that vanished without closing their connection. The idle time before the first probe is set where the
+     * platform supports it.
+     *
+     * @param client The socket of the client.
+     * @param config The configuration of the server.
+     *
+     * @throws IOException If the options of the socket cannot be set.
+     */
+    static void configureKeepAlive(Socket client, ServerConfig config) throws IOException {
+        client.setKeepAlive(config.isKeepAlive());
+        if (config.isKeepAlive() && client.supportedOptions().contains(ExtendedSocketOptions.TCP_KEEPIDLE)) {
+            client.setOption(ExtendedSocketOptions.TCP_KEEPIDLE, config.getKeepAliveTime());
+        }
+    }
+
+    /**
+     * Creates the executor that runs the client handlers according to the configured execution model.
+     *
+     * @param config The configuration of the server.
+     *
+     * @return The executor that runs the client handlers.
+     */
+    static ExecutorService createExecutor(ServerConfig config) {
+        return switch (config.getExecutionModel()) {
+            case VIRTUAL -> Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("client-", 0).factory());
+            case POOLED -> Executors.newFixedThreadPool(config.getPoolSize(), Thread.ofPlatform().name("client-", 0).factory());
+        };
+    }
+
+    /**
+     * Creates a ClientHandler for the client and runs it until the client disconnects, then frees the connection slot
+     * of the client.
+     *
+     * @param client      The client socket.
+     * @param connections The connection slots of the server.
+     */
+    private static void handle(Socket client, Semaphore connections) {
+        try {
+            // The handler is created here as opening its streams waits for the client
+            new ClientHandler(client).run();
+        } catch (SocketTimeoutException e) {
+            ServerLog.info(() -> "Client " + ANSI_BLUE + client + ANSI_RESET + " was idle for too long.");
+        } catch (IOException e) {
+            ServerLog.error("Could not talk to client " + client + ": " + e);
+        } finally {
+            try {
+                client.close();
+            } catch (IOException ignored) {
+            }
+            connections.release();
+        }
+    }
+}
@@ -0,0 +1,588 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * The ServerConfig class holds the tunable settings of the server.
+ * <p>
+ * Every setting has a default value which can be overridden either by a JVM system property of the form
+ * {@code -Dtp2.server.<key>=<value>} or by a command-line argument of the form {@code --<key>=<value>} passed to the
+ * {@link ServerLauncher}. Command-line arguments take precedence over system properties.
+ */
+final class ServerConfig {
+    /**
+     * Prefix of the system properties read by the configuration.
+     */
+    private static final String PROPERTY_PREFIX = "tp2.server.";
+    /**
+     * The port on which the server is started.
+     */
+    private final int port;
+    /**
+     * The directory containing the data files of the server.
+     */
+    private final Path dataDirectory;
+    /**
+     * The maximum length of the queue of pending connections kept by the operating system.
+     */
+    private final int backlog;
+    /**
+     * The engine accepting the connections and reading the client requests.
+     */
+    private final Engine engine;
+    /**
+     * The number of event loops used by the {@link Engine#SELECTOR SELECTOR} engine.
+     */
+    private final int eventLoops;
+    /**
+     * The model used to execute the client handlers.
+     */
+    private final ExecutionModel executionModel;
+    /**
+     * The number of threads of the pool when the {@link ExecutionModel#POOLED POOLED} model is used.
+     */
+    private final int poolSize;
+    /**
+     * The maximum number of clients connected at once. New connections wait in the backlog when it is reached.
+     */
+    private final int maxConnections;
+    /**
+     * When the registrations journal is synchronized with the disk.
+     */
+    private final SyncPolicy syncPolicy;
+    /**
+     * The minimum time in milliseconds between two synchronizations of the registrations journal with the
+     * {@link SyncPolicy#TIMED TIMED} policy.
+     */
+    private final int syncInterval;
+    /**
+     * The size in mebibytes above which a segment of the registrations log is sealed.
+     */
+    private final int segmentSize;
+    /**
+     * The compression offered to the clients of the binary protocol.
+     */
+    private final Compression compression;
+    /**
+     * The size in bytes from which the payload of a reply is compressed.
+     */
+    private final int compressionThreshold;
+    /**
+     * The file to which the statistics of the server are written periodically, or null if they are not written.
+     */
+    private final Path statsFile;
+    /**
+     * The time in seconds between two writes of the statistics of the server.
+     */
+    private final int statsInterval;
+    /**
+     * The lowest level of the status messages printed by the server.
+     */
+    private final LogLevel logLevel;
+    /**
+     * The time in seconds after which a client that sent no request is disconnected.
+     */
+    private final int idleTimeout;
+    /**
+     * The number of consecutive failed reads after which a client is disconnected.
+     */
+    private final int maxErrors;
+    /**
+     * Whether the operating system probes the idle connections to detect the dead clients.
+     */
+    private final boolean keepAlive;
+    /**
+     * The time in seconds a connection stays idle before the operating system starts probing it.
+     */
+    private final int keepAliveTime;
+    /**
+     * Whether the rate of the requests of the clients is limited.
+     */
+    private final boolean rateLimit;
+    /**
+     * The number of requests per second loading or searching courses allowed to each connection.
+     */
+    private final int readRate;
+    /**
+     * The number of registration requests per second allowed to each connection.
+     */
+    private final int writeRate;
+    /**
+     * The number of requests per second loading or searching courses allowed to all the connections of a remote
+     * address.
+     */
+    private final int addressReadRate;
+    /**
+     * The number of registration requests per second allowed to all the connections of a remote address.
+     */
+    private final int addressWriteRate;
+    /**
+     * The number of seconds of their rate that the budgets of the clients may spend at once after being unused.
+     */
+    private final int rateBurst;
+    /**
+     * The time in seconds the server waits on shutdown for the requests being handled to be answered.
+     */
+    private final int shutdownTimeout;
+
+    /**
+     * Creates a new configuration from the given settings.
+     *
+     * @param settings The settings, keyed without the {@link #PROPERTY_PREFIX prefix}.
+     *
+     * @throws IllegalArgumentException If a setting has an invalid value.
+     */
+    private ServerConfig(Properties settings) {
+        this.port = getInt(settings, "port", 1337);
+        this.dataDirectory = Path.of(settings.getProperty("dataDirectory", System.getProperty("user.dir") + "/data"));
+        this.backlog = getInt(settings, "backlog", 4096);
+        this.engine = Engine.valueOf(settings.getProperty("engine", "blocking").toUpperCase());
+        this.eventLoops = getInt(settings, "eventLoops", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        this.executionModel = ExecutionModel.valueOf(settings.getProperty("executor", "virtual").toUpperCase());
+        this.poolSize = getInt(settings, "poolSize", 256);
+        this.maxConnections = getInt(settings, "maxConnections", 20000);
+        this.syncPolicy = SyncPolicy.valueOf(settings.getProperty("sync", "batch").toUpperCase());
+        this.syncInterval = getInt(settings, "syncInterval", 10);
+        this.segmentSize = getInt(settings, "segmentSize", 64);
+        this.compression = Compression.valueOf(settings.getProperty("compression", "deflate").toUpperCase());
+        this.compressionThreshold = getInt(settings, "compressionThreshold", 1024);
+        String statsFile = settings.getProperty("statsFile", "");
+        this.statsFile = statsFile.isBlank() ? null : Path.of(statsFile);
+        this.statsInterval = getInt(settings, "statsInterval", 60);
+        this.logLevel = LogLevel.valueOf(settings.getProperty("logLevel", "info").toUpperCase());
+        this.idleTimeout = getInt(settings, "idleTimeout", 600);
+        this.maxErrors = getInt(settings, "maxErrors", 3);
+        this.keepAlive = getBoolean(settings, "keepAlive", true);
+        this.keepAliveTime = getInt(settings, "keepAliveTime", 60);
+        this.rateLimit = getBoolean(settings, "rateLimit", true);
+        this.readRate = getInt(settings, "readRate", 100);
+        this.writeRate = getInt(settings, "writeRate", 20);
+        this.addressReadRate = getInt(settings, "addressReadRate", 1000);
+        this.addressWriteRate = getInt(settings, "addressWriteRate", 200);
+        this.rateBurst = getInt(settings, "rateBurst", 2);
+        this.shutdownTimeout = getInt(settings, "shutdownTimeout", 30);
+    }
+
+    /**
+     * Builds the configuration from the system properties and the given command-line arguments.
+     *
+     * @param args The command-line arguments of the form {@code --<key>=<value>}.
+     *
+     * @return The configuration of the server.
+     *
+     * @throws IllegalArgumentException If an argument is malformed or a setting has an invalid value.
+     */
+    static ServerConfig fromArgs(String[] args) {
+        Properties settings = new Properties();
+
+        // Read the system properties
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith(PROPERTY_PREFIX)) {
+                settings.setProperty(name.substring(PROPERTY_PREFIX.length()), System.getProperty(name));
+            }
+        }
+
+        // Read the command-line arguments
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Invalid argument `" + arg + "`. The format is `--key=value`.");
+            }
+            settings.setProperty(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+
+        return new ServerConfig(settings);
+    }
+
+    /**
+     * Reads a strictly positive integer setting.
+     *
+     * @param settings     The settings to read from.
+     * @param key          The key of the setting.
+     * @param defaultValue The value used when the setting is absent.
+     *
+     * @return The value of the setting.
+     *
+     * @throws IllegalArgumentException If the value is not a strictly positive integer.
+     */
+    private static int getInt(Properties settings, String key, int defaultValue) {
+        String value = settings.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            int parsed = Integer.parseInt(value.trim());
+            if (parsed > 0) {
+                return parsed;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("The setting `" + key + "` must be a strictly positive integer.");
+    }
+
+    /**
+     * Reads a boolean setting.
+     *
+     * @param settings     The settings to read from.
+     * @param key          The key of the setting.
+     * @param defaultValue The value used when the setting is absent.
+     *
+     * @return The value of the setting.
+     *
+     * @throws IllegalArgumentException If the value is neither {@code true} nor {@code false}.
+     */
+    private static boolean getBoolean(Properties settings, String key, boolean defaultValue) {
+        String value = settings.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        return switch (value.trim().toLowerCase()) {
+            case "true" -> true;
+            case "false" -> false;
+            default -> throw new IllegalArgumentException("The setting `" + key + "` must be `true` or `false`.");
+        };
+    }
+
+    /**
+     * Returns the port on which the server is started.
+     *
+     * @return The port on which the server is started.
+     */
+    int getPort() {
+        return port;
+    }
+
+    /**
+     * Returns the directory containing the data files of the server.
+     *
+     * @return The directory containing the data files of the server.
+     */
+    Path getDataDirectory() {
+        return dataDirectory;
+    }
+
+    /**
+     * Returns the maximum length of the queue of pending connections.
+     *
+     * @return The maximum length of the queue of pending connections.
+     */
+    int getBacklog() {
+        return backlog;
+    }
+
+    /**
+     * Returns the engine accepting the connections and reading the client requests.
+     *
+     * @return The engine accepting the connections and reading the client requests.
+     */
+    Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Returns the number of event loops used by the {@link Engine#SELECTOR SELECTOR} engine.
+     *
+     * @return The number of event loops.
+     */
+    int getEventLoops() {
+        return eventLoops;
+    }
+
+    /**
+     * Returns the model used to execute the client handlers.
+     *
+     * @return The model used to execute the client handlers.
+     */
+    ExecutionModel getExecutionModel() {
+        return executionModel;
+    }
+
+    /**
+     * Returns the number of threads of the pool used by the {@link ExecutionModel#POOLED POOLED} model.
+     *
+     * @return The number of threads of the pool.
+     */
+    int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Returns the maximum number of clients connected at once.
+     *
+     * @return The maximum number of clients connected at once.
+     */
+    int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Returns when the registrations journal is synchronized with the disk.
+     *
+     * @return The synchronization policy of the registrations journal.
+     */
+    SyncPolicy getSyncPolicy() {
+        return syncPolicy;
+    }
+
+    /**
+     * Returns the minimum time between two synchronizations of the registrations journal with the
+     * {@link SyncPolicy#TIMED TIMED} policy.
+     *
+     * @return The minimum time in milliseconds between two synchronizations.
+     */
+    int getSyncInterval() {
+        return syncInterval;
+    }
+
+    /**
+     * Returns the size above which a segment of the registrations log is sealed.
+     *
+     * @return The size of a segment in bytes.
+     */
+    long getSegmentSize() {
+        return (long) segmentSize << 20;
+    }
+
+    /**
+     * Returns the compression offered to the clients of the binary protocol.
+     *
+     * @return The compression offered to the clients.
+     */
+    Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * Returns the size from which the payload of a reply is compressed. Smaller replies are not worth the time spent
+     * compressing them.
+     *
+     * @return The size in bytes from which a reply is compressed.
+     */
+    int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Returns the file to which the statistics of the server are written periodically.
+     *
+     * @return The file of the statistics, or null if they are not written.
+     */
+    Path getStatsFile() {
+        return statsFile;
+    }
+
+    /**
+     * Returns the time between two writes of the statistics of the server.
+     *
+     * @return The time in seconds between two writes of the statistics.
+     */
+    int getStatsInterval() {
+        return statsInterval;
+    }
+
+    /**
+     * Returns the lowest level of the status messages printed by the server.
+     *
+     * @return The lowest level of the printed messages.
+     */
+    LogLevel getLogLevel() {
+        return logLevel;
+    }
+
+    /**
+     * Returns the time after which a client that sent no request is disconnected.
+     *
+     * @return The idle timeout in seconds.
+     */
+    int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * Returns the number of consecutive failed reads after which a client is disconnected.
+     *
+     * @return The maximum number of consecutive errors of a client.
+     */
+    int getMaxErrors() {
+        return maxErrors;
+    }
+
+    /**
+     * Returns whether the operating system probes the idle connections to detect the dead clients.
+     *
+     * @return Whether TCP keepalive is enabled.
+     */
+    boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Returns the time a connection stays idle before the operating system starts probing it, where supported.
+     *
+     * @return The keepalive idle time in seconds.
+     */
+    int getKeepAliveTime() {
+        return keepAliveTime;
+    }
+
+    /**
+     * Returns whether the rate of the requests of the clients is limited.
+     *
+     * @return Whether the rate limiting is enabled.
+     */
+    boolean isRateLimit() {
+        return rateLimit;
+    }
+
+    /**
+     * Returns the number of requests per second loading or searching courses allowed to each connection.
+     *
+     * @return The read rate of a connection.
+     */
+    int getReadRate() {
+        return readRate;
+    }
+
+    /**
+     * Returns the number of registration requests per second allowed to each connection.
+     *
+     * @return The write rate of a connection.
+     */
+    int getWriteRate() {
+        return writeRate;
+    }
+
+    /**
+     * Returns the number of requests per second loading or searching courses allowed to all the connections of a
+     * remote address.
+     *
+     * @return The read rate of an address.
+     */
+    int getAddressReadRate() {
+        return addressReadRate;
+    }
+
+    /**
+     * Returns the number of registration requests per second allowed to all the connections of a remote address.
+     *
+     * @return The write rate of an address.
+     */
+    int getAddressWriteRate() {
+        return addressWriteRate;
+    }
+
+    /**
+     * Returns the number of seconds of their rate that the budgets of the clients may spend at once after being unused.
+     *
+     * @return The burst duration in seconds.
+     */
+    int getRateBurst() {
+        return rateBurst;
+    }
+
+    /**
+     * Returns the time the server waits on shutdown for the requests being handled to be answered.
+     *
+     * @return The shutdown timeout in seconds.
+     */
+    int getShutdownTimeout() {
+        return shutdownTimeout;
+    }
+
+    /**
+     * The engines that may accept the connections and read the client requests.
+     */
+    enum Engine {
+        /**
+         * Each client is served by a handler blocked on its socket for the whole duration of the connection.
+         */
+        BLOCKING,
+        /**
+         * The sockets are multiplexed by a few event loops built on a selector. A handler only runs while the client
+         * has sent a request, so idle clients do not hold any thread.
+         */
+        SELECTOR
+    }
+
+    /**
+     * The ways in which the client handlers may be executed.
+     */
+    enum ExecutionModel {
+        /**
+         * Each client is handled by its own virtual thread.
+         */
+        VIRTUAL,
+        /**
+         * The clients are handled by a bounded pool of platform threads. Clients accepted while every thread is busy
+         * wait in a queue until a thread is freed.
+         */
+        POOLED
+    }
+
+    /**
+     * The moments at which the registrations journal may be synchronized with the disk. A registration is only
+     * acknowledged once it is synchronized.
+     */
+    enum SyncPolicy {
+        /**
+         * Every batch of registrations is synchronized as soon as it is written. No acknowledged registration is lost
+         * if the machine crashes.
+         */
+        BATCH,
+        /**
+         * The batches are synchronized at most once per interval, gathering more registrations per synchronization
+         * at the cost of a longer wait for the clients.
+         */
+        TIMED,
+        /**
+         * The batches are never synchronized explicitly. The registrations are acknowledged once handed to the
+         * operating system, and may be lost if the machine crashes.
+         */
+        NONE
+    }
+
+    /**
+     * The compressions that may be offered to the clients of the binary protocol.
+     */
+    enum Compression {
+        /**
+         * The replies from the {@link ServerConfig#getCompressionThreshold() threshold} on are compressed with Deflate
+         * for the clients accepting it.
+         */
+        DEFLATE,
+        /**
+         * The replies are never compressed.
+         */
+        NONE
+    }
+
+    /**
+     * The levels of the status messages printed by the {@link ServerLog}, from the most to the least detailed.
+     */
+    enum LogLevel {
+        /**
+         * Every message is printed, including a message for each request received by the server.
+         */
+        DEBUG,
+        /**
+         * The messages about the state of the server, the connections and the disconnections of the clients and the
+         * errors are printed.
+         */
+        INFO,
+        /**
+         * Only the errors are printed.
+         */
+        ERROR,
+        /**
+         * No message is printed.
+         */
+        OFF
+    }
+}
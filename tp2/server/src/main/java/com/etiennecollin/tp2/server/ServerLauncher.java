@@ -8,6 +8,9 @@ import java.io.IOException;
 
 /**
  * The ServerLauncher class launches a server on a specified port and starts its execution.
+ * <p>
+ * The server is configured through command-line arguments of the form {@code --<key>=<value>}, as described in
+ * {@link ServerConfig}.
  */
 class ServerLauncher {
     /**
@@ -22,10 +25,6 @@ class ServerLauncher {
      * Color code to set text color to blue.
      */
     static final String ANSI_BLUE = "\u001B[34m";
-    /**
-     * The port on which the server is started.
-     */
-    private static final int PORT = 1337;
     /**
      * Color code to set text color to red.
      */
@@ -42,10 +41,12 @@ class ServerLauncher {
      */
     public static void main(String[] args) {
         try {
-            Server.run(PORT);
-            System.out.println(SERVER + "Running on port " + PORT + ".");
-        } catch (IOException e) {
-            System.out.println(SERVER_ERROR + e.getMessage());
+            ServerConfig config = ServerConfig.fromArgs(args);
+            ServerLog.configure(config.getLogLevel());
+            ServerLog.info("Running on port " + config.getPort() + ".");
+            Server.run(config);
+        } catch (IllegalArgumentException | IOException e) {
+            ServerLog.error(e.getMessage());
         }
     }
 }
\ No newline at end of file
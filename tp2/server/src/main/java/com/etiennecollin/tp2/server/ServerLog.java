@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import static com.etiennecollin.tp2.server.ServerLauncher.SERVER;
+import static com.etiennecollin.tp2.server.ServerLauncher.SERVER_ERROR;
+
+/**
+ * The ServerLog class prints the status messages of the server without slowing down the requests.
+ * <p>
+ * A message below the {@link ServerConfig#getLogLevel() configured level} is discarded before being built: the
+ * messages of the hot paths are passed as a {@link Supplier}, so that their text is only concatenated if they are
+ * printed. The other messages are put in a bounded ring buffer and return at once. A single writer thread builds
+ * their text, then prints every message waiting in the buffer at once, so that the threads handling the clients never
+ * wait for the console or for each other. When the buffer is full, the new messages are dropped and counted instead of
+ * blocking the server.
+ * <p>
+ * The messages still in the buffer are printed when the JVM shuts down, and the messages of the shutdown itself are
+ * printed at once since the writer thread may have stopped.
+ */
+final class ServerLog {
+    /**
+     * The number of messages the buffer may hold, which must be a power of two.
+     */
+    private static final int CAPACITY = 8192;
+    /**
+     * The longest time the writer thread sleeps before checking the buffer again, in case it missed a wake-up.
+     */
+    private static final long MAX_SLEEP = TimeUnit.MILLISECONDS.toNanos(100);
+    /**
+     * The longest time the JVM waits on shutdown for the messages to be printed, in milliseconds.
+     */
+    private static final long SHUTDOWN_TIMEOUT = 1000;
+    /**
+     * The messages waiting to be printed. The message of sequence number {@code n} is stored at index
+     * {@code n % CAPACITY}, and the slot is cleared once printed.
+     */
+    private static final AtomicReferenceArray<Entry> buffer = new AtomicReferenceArray<>(CAPACITY);
+    /**
+     * The sequence number of the next message added to the buffer.
+     */
+    private static final AtomicLong tail = new AtomicLong();
+    /**
+     * The number of messages dropped because the buffer was full.
+     */
+    private static final LongAdder dropped = new LongAdder();
+    /**
+     * The sequence number of the next message printed by the writer thread.
+     */
+    private static volatile long head;
+    /**
+     * Whether the writer thread is sleeping and must be woken up by the next message.
+     */
+    private static volatile boolean sleeping;
+    /**
+     * Whether the JVM is running. Once it shuts down, the writer thread stops when the buffer is empty.
+     */
+    private static volatile boolean running = true;
+    /**
+     * The lowest level of the printed messages.
+     */
+    private static volatile ServerConfig.LogLevel level = ServerConfig.LogLevel.INFO;
+    /**
+     * The thread printing the messages.
+     */
+    private static final Thread writer = Thread.ofPlatform().name("log-writer").daemon().start(ServerLog::write);
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            running = false;
+            LockSupport.unpark(writer);
+            try {
+                writer.join(SHUTDOWN_TIMEOUT);
+            } catch (InterruptedException ignored) {
+            }
+        }, "log-shutdown"));
+    }
+
+    /**
+     * Prevents the instantiation of the class.
+     */
+    private ServerLog() {
+    }
+
+    /**
+     * Sets the lowest level of the printed messages.
+     *
+     * @param level The lowest level of the printed messages.
+     */
+    static void configure(ServerConfig.LogLevel level) {
+        ServerLog.level = level;
+    }
+
+    /**
+     * Returns whether the messages of a level are printed.
+     *
+     * @param level The level of the messages.
+     *
+     * @return Whether the messages of the level are printed.
+     */
+    static boolean isEnabled(ServerConfig.LogLevel level) {
+        return level.compareTo(ServerLog.level) >= 0;
+    }
+
+    /**
+     * Prints a detailed message about a request, built only if the {@link ServerConfig.LogLevel#DEBUG DEBUG} level is
+     * enabled.
+     *
+     * @param message The supplier of the message.
+     */
+    static void debug(Supplier<String> message) {
+        log(ServerConfig.LogLevel.DEBUG, null, message, null);
+    }
+
+    /**
+     * Prints a status message.
+     *
+     * @param message The message.
+     */
+    static void info(String message) {
+        log(ServerConfig.LogLevel.INFO, message, null, null);
+    }
+
+    /**
+     * Prints a status message, built only if the {@link ServerConfig.LogLevel#INFO INFO} level is enabled.
+     *
+     * @param message The supplier of the message.
+     */
+    static void info(Supplier<String> message) {
+        log(ServerConfig.LogLevel.INFO, null, message, null);
+    }
+
+    /**
+     * Prints an error message.
+     *
+     * @param message The message.
+     */
+    static void error(String message) {
+        log(ServerConfig.LogLevel.ERROR, message, null, null);
+    }
+
+    /**
+     * Prints an error message followed by the stack trace of its cause.
+     *
+     * @param message The message.
+     * @param cause   The exception that caused the error.
+     */
+    static void error(String message, Throwable cause) {
+        log(ServerConfig.LogLevel.ERROR, message, null, cause);
+    }
+
+    /**
+     * Adds a message to the buffer if its level is enabled and the buffer is not full, or prints it at once if the JVM
+     * is shutting down.
+     *
+     * @param level    The level of the message.
+     * @param text     The message, or null if it is built by the supplier.
+     * @param supplier The supplier of the message, or null if the message is already built.
+     * @param cause    The exception whose stack trace follows the message, or null.
+     */
+    private static void log(ServerConfig.LogLevel level, String text, Supplier<String> supplier, Throwable cause) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        if (!running) {
+            StringBuilder message = new StringBuilder();
+            append(message, new Entry(level, text, supplier, cause));
+            System.out.print(message);
+            System.out.flush();
+            return;
+        }
+
+        long sequence;
+        do {
+            sequence = tail.get();
+            if (sequence - head >= CAPACITY) {
+                dropped.increment();
+                return;
+            }
+        } while (!tail.compareAndSet(sequence, sequence + 1));
+
+        buffer.set((int) sequence & (CAPACITY - 1), new Entry(level, text, supplier, cause));
+        if (sleeping) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Prints the messages of the buffer as they are added, until the JVM shuts down.
+     */
+    private static void write() {
+        StringBuilder batch = new StringBuilder();
+        while (true) {
+            // Take every message waiting in the buffer
+            long position = head;
+            Entry entry;
+            while ((entry = buffer.get((int) position & (CAPACITY - 1))) != null) {
+                append(batch, entry);
+                buffer.set((int) position & (CAPACITY - 1), null);
+                head = ++position;
+            }
+
+            long lost = dropped.sumThenReset();
+            if (lost > 0) {
+                batch.append(SERVER_ERROR).append("Dropped ").append(lost).append(" messages because the log buffer was full.").append(System.lineSeparator());
+            }
+            if (!batch.isEmpty()) {
+                System.out.print(batch);
+                System.out.flush();
+                batch.setLength(0);
+            }
+
+            if (!running && position == tail.get()) {
+                return;
+            }
+
+            // Sleep until a message is added, unless one was added meanwhile
+            sleeping = true;
+            if (running && buffer.get((int) position & (CAPACITY - 1)) == null) {
+                LockSupport.parkNanos(MAX_SLEEP);
+            }
+            sleeping = false;
+        }
+    }
+
+    /**
+     * Appends a message to the text printed by the writer thread.
+     *
+     * @param batch The text printed by the writer thread.
+     * @param entry The message.
+     */
+    private static void append(StringBuilder batch, Entry entry) {
+        String message;
+        try {
+            message = entry.supplier() != null ? entry.supplier().get() : entry.text();
+        } catch (RuntimeException e) {
+            message = "Could not build a log message: " + e;
+        }
+        batch.append(entry.level() == ServerConfig.LogLevel.ERROR ? SERVER_ERROR : SERVER).append(message).append(System.lineSeparator());
+
+        if (entry.cause() != null) {
+            StringWriter trace = new StringWriter();
+            entry.cause().printStackTrace(new PrintWriter(trace));
+            batch.append(trace);
+        }
+    }
+
+    /**
+     * A message waiting to be printed.
+     *
+     * @param level    The level of the message.
+     * @param text     The message, or null if it is built by the supplier.
+     * @param supplier The supplier of the message, or null if the message is already built.
+     * @param cause    The exception whose stack trace follows the message, or null.
+     */
+    private record Entry(ServerConfig.LogLevel level, String text, Supplier<String> supplier, Throwable cause) {
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The ServerShutdown class stops the server without losing the requests it is handling.
+ * <p>
+ * The shutdown is started when the JVM is asked to terminate, for instance by a {@code SIGTERM}, or when a local client
+ * sends the {@link Server#SHUTDOWN_COMMAND SHUTDOWN} command. The server then stops accepting connections and tells the
+ * connected clients that it is shutting down. Each connection is closed as soon as the requests already received from
+ * it are answered, and the connections still busy once the {@link ServerConfig#getShutdownTimeout() shutdown timeout}
+ * has elapsed are closed anyway. Finally, the {@link RegistrationJournal registrations journal} writes the queued
+ * registrations and synchronizes them with the disk.
+ */
+final class ServerShutdown {
+    /**
+     * The time in milliseconds between two checks of the connections still handling requests.
+     */
+    private static final long POLL_INTERVAL = 10;
+    /**
+     * The handlers of the connected clients.
+     */
+    private static final Set<ClientHandler> handlers = ConcurrentHashMap.newKeySet();
+    /**
+     * Whether the shutdown started.
+     */
+    private static final AtomicBoolean stopping = new AtomicBoolean();
+    /**
+     * Released once the shutdown is complete.
+     */
+    private static final CountDownLatch stopped = new CountDownLatch(1);
+    /**
+     * The socket on which the server accepts the connections.
+     */
+    private static volatile Closeable listener;
+    /**
+     * The time in nanoseconds the shutdown waits for the requests being handled to be answered.
+     */
+    private static volatile long timeout;
+
+    /**
+     * Prevents the instantiation of the class.
+     */
+    private ServerShutdown() {
+    }
+
+    /**
+     * Makes the server shut down gracefully when the JVM is asked to terminate.
+     *
+     * @param listener The socket on which the server accepts the connections, closed first by the shutdown.
+     * @param config   The configuration of the server.
+     */
+    static void start(Closeable listener, ServerConfig config) {
+        ServerShutdown.listener = listener;
+        ServerShutdown.timeout = TimeUnit.SECONDS.toNanos(config.getShutdownTimeout());
+        Runtime.getRuntime().addShutdownHook(new Thread(ServerShutdown::shutdown, "server-shutdown-hook"));
+    }
+
+    /**
+     * Returns whether the shutdown started, in which case the server stops accepting connections.
+     *
+     * @return Whether the shutdown started.
+     */
+    static boolean isStopping() {
+        return stopping.get();
+    }
+
+    /**
+     * Registers the handler of a new client, so that it is closed by the shutdown. If the shutdown already started,
+     * the client is told at once.
+     *
+     * @param handler The handler of the client.
+     */
+    static void add(ClientHandler handler) {
+        handlers.add(handler);
+        if (stopping.get()) {
+            handler.drain();
+        }
+    }
+
+    /**
+     * Forgets the handler of a disconnected client.
+     *
+     * @param handler The handler of the client.
+     */
+    static void remove(ClientHandler handler) {
+        handlers.remove(handler);
+    }
+
+    /**
+     * Shuts the server down in a separate thread, then terminates the JVM. Used by the
+     * {@link Server#SHUTDOWN_COMMAND SHUTDOWN} command, whose handler must answer the command before the shutdown waits
+     * for it.
+     */
+    static void request() {
+        Thread.ofPlatform().name("server-shutdown").start(() -> {
+            shutdown();
+            System.exit(0);
+        });
+    }
+
+    /**
+     * Stops accepting connections, lets the connected clients finish their requests until the shutdown timeout, closes
+     * their connections and stops the registrations journal. Only the first call shuts the server down, the others
+     * wait for it to be complete.
+     */
+    private static void shutdown() {
+        if (!stopping.compareAndSet(false, true)) {
+            try {
+                stopped.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+
+        ServerLog.info("Shutting down...");
+        long deadline = System.nanoTime() + timeout;
+        try {
+            if (listener != null) {
+                listener.close();
+            }
+        } catch (IOException e) {
+            ServerLog.error("Could not stop accepting clients: " + e.getMessage());
+        }
+
+        // Tell the clients, then close each connection once its requests are answered
+        for (ClientHandler handler : handlers) {
+            handler.drain();
+        }
+        while (true) {
+            for (ClientHandler handler : handlers) {
+                handler.closeIfIdle();
+            }
+            if (handlers.isEmpty() || System.nanoTime() - deadline >= 0) {
+                break;
+            }
+            try {
+                Thread.sleep(POLL_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        int busy = handlers.size();
+        if (busy > 0) {
+            ServerLog.error("Closing " + busy + " connections whose requests were not answered in time.");
+            for (ClientHandler handler : handlers) {
+                handler.abort();
+            }
+        }
+
+        RegistrationJournal.stop();
+        ServerLog.info("Stopped.");
+        stopped.countDown();
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The ServerStats class measures the activity of the server.
+ * <p>
+ * The statistics are shared by every client handler of the process. For each command, they count the requests and
+ * the requests answered with an error, and keep a {@link LatencyHistogram histogram} of the time spent handling them.
+ * They also keep the time spent waiting for the {@link RegistrationJournal registrations journal} to save the
+ * registrations and for the output of a client to be free, as well as the number of connected clients and of
+ * throttled requests.
+ * <p>
+ * The statistics are sent to the clients asking for them with the {@link Server#STATS_COMMAND STATS} command, and may
+ * be written periodically to a file.
+ */
+final class ServerStats {
+    /**
+     * The name under which the requests of unknown commands are counted.
+     */
+    private static final String OTHER_COMMAND = "OTHER";
+    /**
+     * The format of the header of the statistics table.
+     */
+    private static final String HEADER = "%-20s %10s %10s %10s %10s %10s %10s %10s%n";
+    /**
+     * The format of a row of the statistics table.
+     */
+    private static final String ROW = "%-20s %10d %10s %10d %10d %10d %10d %10d%n";
+    /**
+     * The statistics of each command, keyed by command regardless of its case.
+     */
+    private static final Map<String, CommandStats> commands = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    /**
+     * The time spent waiting for registrations to be saved by the registrations journal.
+     */
+    static final LatencyHistogram JOURNAL_WAIT = new LatencyHistogram();
+    /**
+     * The time spent waiting for the output of a client used by the reply to another request.
+     */
+    static final LatencyHistogram OUTPUT_WAIT = new LatencyHistogram();
+    /**
+     * The number of connected clients.
+     */
+    private static final AtomicInteger activeConnections = new AtomicInteger();
+    /**
+     * The number of clients that connected since the server started.
+     */
+    private static final LongAdder totalConnections = new LongAdder();
+    /**
+     * The number of requests rejected or delayed because their client exceeded its rate limit.
+     */
+    private static final LongAdder throttledRequests = new LongAdder();
+    /**
+     * The moment at which the statistics started to be collected, in nanoseconds.
+     */
+    private static final long startTime = System.nanoTime();
+
+    static {
+        for (String command : new String[]{Server.REGISTER_COMMAND, Server.REGISTER_BATCH_COMMAND, Server.LOAD_COMMAND, Server.LOAD_PAGE_COMMAND, Server.LOAD_STREAM_COMMAND, Server.LOAD_IF_MODIFIED_COMMAND, Server.SEARCH_COMMAND, Server.STATS_COMMAND, Server.SHUTDOWN_COMMAND, Server.DISCONNECT_COMMAND, OTHER_COMMAND}) {
+            commands.put(command, new CommandStats());
+        }
+    }
+
+    /**
+     * Prevents the instantiation of the class.
+     */
+    private ServerStats() {
+    }
+
+    /**
+     * Starts writing the statistics to a file at a regular interval. The file is replaced at once, so that it can be
+     * read at any moment.
+     *
+     * @param file     The file to which the statistics are written.
+     * @param interval The time in seconds between two writes.
+     */
+    static void start(Path file, int interval) {
+        Thread.ofPlatform().name("stats-dump").daemon().start(() -> {
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            while (true) {
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(interval));
+                    Files.writeString(temporary, report(), StandardCharsets.UTF_8);
+                    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException e) {
+                    ServerLog.error("Could not write the statistics to " + file + ": " + e.getMessage());
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        ServerLog.info("Writing the statistics to " + file + " every " + interval + " seconds.");
+    }
+
+    /**
+     * Records that a client connected.
+     */
+    static void connected() {
+        activeConnections.incrementAndGet();
+        totalConnections.increment();
+    }
+
+    /**
+     * Records that a client disconnected.
+     */
+    static void disconnected() {
+        activeConnections.decrementAndGet();
+    }
+
+    /**
+     * Records that a request was rejected or delayed because its client exceeded its rate limit.
+     */
+    static void throttled() {
+        throttledRequests.increment();
+    }
+
+    /**
+     * Records a handled request.
+     *
+     * @param command The command of the request, case-insensitive.
+     * @param nanos   The time spent handling the request, in nanoseconds.
+     * @param failed  Whether the request was answered with an error.
+     */
+    static void record(String command, long nanos, boolean failed) {
+        CommandStats stats = commands.get(command);
+        if (stats == null) {
+            stats = commands.get(OTHER_COMMAND);
+        }
+        stats.latency.record(nanos);
+        if (failed) {
+            stats.errors.increment();
+        }
+    }
+
+    /**
+     * Formats the statistics as a text table. The durations are in microseconds.
+     *
+     * @return The statistics.
+     */
+    static String report() {
+        StringBuilder report = new StringBuilder();
+        report.append("Uptime: ").append(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startTime)).append(" s\n");
+        report.append("Connections: ").append(activeConnections.get()).append(" active, ").append(totalConnections.sum()).append(" total\n");
+        report.append("Throttled: ").append(throttledRequests.sum()).append(" requests\n");
+
+        report.append(String.format(HEADER, "Command", "Count", "Errors", "Mean(us)", "p50(us)", "p99(us)", "p999(us)", "Max(us)"));
+        commands.forEach((command, stats) -> appendRow(report, command, stats.latency, String.valueOf(stats.errors.sum())));
+
+        report.append(String.format(HEADER, "Wait", "Count", "", "Mean(us)", "p50(us)", "p99(us)", "p999(us)", "Max(us)"));
+        appendRow(report, "journal", JOURNAL_WAIT, "");
+        appendRow(report, "output", OUTPUT_WAIT, "");
+        return report.toString();
+    }
+
+    /**
+     * Appends a row of the statistics table.
+     *
+     * @param report  The statistics table.
+     * @param name    The name of the row.
+     * @param latency The durations of the row.
+     * @param errors  The number of errors of the row, or an empty string.
+     */
+    private static void appendRow(StringBuilder report, String name, LatencyHistogram latency, String errors) {
+        report.append(String.format(ROW, name, latency.getCount(), errors, latency.getMean(), latency.getPercentile(50), latency.getPercentile(99), latency.getPercentile(99.9), latency.getMax()));
+    }
+
+    /**
+     * The statistics of a command.
+     */
+    private static final class CommandStats {
+        /**
+         * The time spent handling the requests.
+         */
+        private final LatencyHistogram latency = new LatencyHistogram();
+        /**
+         * The number of requests answered with an error.
+         */
+        private final LongAdder errors = new LongAdder();
+    }
+}
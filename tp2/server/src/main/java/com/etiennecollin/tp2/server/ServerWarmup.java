@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server;
+
+import com.etiennecollin.tp2.server.models.Course;
+import com.etiennecollin.tp2.server.models.RegistrationForm;
+import com.etiennecollin.tp2.server.models.Student;
+import com.etiennecollin.tp2.server.protocol.ServerConnection;
+import com.etiennecollin.tp2.server.protocol.ServerErrorException;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * The ServerWarmup class runs a server and sends it every kind of request, then exits.
+ * <p>
+ * It is the training run of the headless server image: the classes it loads are recorded and stored in the class data
+ * sharing archive of the image, so that the server started from the image finds them already parsed and verified. The
+ * server runs in a temporary directory with a generated catalog, on a free port, so that the training never touches
+ * the data of a real server.
+ */
+class ServerWarmup {
+    /**
+     * The number of courses of the generated catalog.
+     */
+    private static final int COURSES = 300;
+    /**
+     * The number of times each client sends every kind of request.
+     */
+    private static final int ROUNDS = 3;
+    /**
+     * The semesters of the generated courses.
+     */
+    private static final String[] SEMESTERS = {"Automne", "Hiver", "Ete"};
+
+    /**
+     * The main method of the ServerWarmup class runs a server and sends it every kind of request over each protocol.
+     *
+     * @param args Additional command-line arguments of the form {@code --<key>=<value>} configuring the server, for
+     *             instance to train the {@code selector} engine.
+     */
+    public static void main(String[] args) {
+        Path dataDirectory = null;
+        int status = 0;
+        try {
+            dataDirectory = Files.createTempDirectory("server-warmup");
+            ArrayList<String> lines = new ArrayList<>(COURSES);
+            for (int i = 0; i < COURSES; i++) {
+                lines.add(String.format("WRM%04d\tWarmup course %d\t%s\t%d", i, i, SEMESTERS[i % SEMESTERS.length], 1000));
+            }
+            Files.write(dataDirectory.resolve("courses.txt"), lines, StandardCharsets.UTF_8);
+
+            int port;
+            try (ServerSocket socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+            // The registrations are not synchronized with the disk, which would only slow the training down
+            ArrayList<String> settings = new ArrayList<>(List.of("--sync=none"));
+            settings.addAll(Arrays.asList(args));
+            settings.add("--port=" + port);
+            settings.add("--dataDirectory=" + dataDirectory);
+            settings.add("--logLevel=error");
+            String[] serverArgs = settings.toArray(new String[0]);
+            Thread server = Thread.ofPlatform().name("warmup-server").daemon().start(() -> ServerLauncher.main(serverArgs));
+
+            int studentID = 10000000;
+            for (boolean objectStream : new boolean[]{false, true}) {
+                try (ServerConnection connection = connect(port, objectStream, server)) {
+                    for (int round = 0; round < ROUNDS; round++) {
+                        studentID = exercise(connection, studentID);
+                    }
+                    connection.disconnect();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            ServerLog.error("The warmup failed: " + e.getMessage());
+            status = 1;
+        } finally {
+            delete(dataDirectory);
+        }
+        // The server never stops by itself
+        System.exit(status);
+    }
+
+    /**
+     * Connects to the warmup server, waiting for it to accept the connections.
+     *
+     * @param port         The port of the server.
+     * @param objectStream Whether the connection speaks the object stream protocol instead of the binary protocol.
+     * @param server       The thread running the server.
+     *
+     * @return The connection.
+     *
+     * @throws IOException If the server stopped before accepting the connection.
+     */
+    private static ServerConnection connect(int port, boolean objectStream, Thread server) throws IOException {
+        while (true) {
+            try {
+                return objectStream ? ServerConnection.openObjectStream("localhost", port) : ServerConnection.open("localhost", port);
+            } catch (IOException e) {
+                if (!server.isAlive()) {
+                    throw e;
+                }
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * Sends every kind of request over a connection.
+     *
+     * @param connection The connection.
+     * @param studentID  The student ID of the next registered student.
+     *
+     * @return The student ID of the next registered student after the registrations of this round.
+     *
+     * @throws IOException If a request fails.
+     */
+    private static int exercise(ServerConnection connection, int studentID) throws IOException {
+        ArrayList<Course> courses = connection.loadCourses("");
+        connection.loadCourses(SEMESTERS[1]);
+        connection.loadCoursePage("", 0, 100);
+        connection.streamCourses(SEMESTERS[0], page -> {
+        }).join();
+        connection.searchCourses("wrm00");
+        connection.searchCourses("course 1");
+
+        connection.register(form(studentID++, courses.get(studentID % courses.size())));
+        ArrayList<RegistrationForm> forms = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            forms.add(form(studentID++, courses.get(studentID % courses.size())));
+        }
+        connection.registerAll(forms);
+        try {
+            // An invalid form exercises the error path
+            connection.register(new RegistrationForm(new Student("Warmup", "Student", "invalid", "0"), courses.get(0)));
+        } catch (ServerErrorException ignored) {
+        }
+        connection.getStats();
+        return studentID;
+    }
+
+    /**
+     * Builds a registration form.
+     *
+     * @param studentID The student ID of the student.
+     * @param course    The course.
+     *
+     * @return The registration form.
+     */
+    private static RegistrationForm form(int studentID, Course course) {
+        return new RegistrationForm(new Student("Warmup", "Student", "warmup" + studentID + "@umontreal.ca", String.valueOf(studentID)), course);
+    }
+
+    /**
+     * Deletes the temporary directory of the server and its content.
+     *
+     * @param directory The directory, or null if it was not created.
+     */
+    private static void delete(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server.models;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * The CoursePage class represents a page of the available courses.
+ * <p>
+ * It contains a slice of the courses along with its position in the whole list and the size of the list, so that a
+ * client can display the courses before receiving all of them. Every page also carries the version of the list, which
+ * changes whenever the courses of the list change. A client holding the latest version of the list receives a single
+ * page without any course that is not {@link #isModified() modified}.
+ */
+public class CoursePage implements Serializable {
+    /**
+     * The courses of the page.
+     */
+    private final ArrayList<Course> courses;
+    /**
+     * The position of the first course of the page in the whole list.
+     */
+    private final int offset;
+    /**
+     * The number of courses in the whole list.
+     */
+    private final int total;
+    /**
+     * The version of the whole list.
+     */
+    private final String version;
+    /**
+     * Whether the list changed since the version held by the client.
+     */
+    private final boolean modified;
+
+    /**
+     * Creates a new CoursePage object.
+     *
+     * @param courses  The courses of the page.
+     * @param offset   The position of the first course of the page in the whole list.
+     * @param total    The number of courses in the whole list.
+     * @param version  The version of the whole list.
+     * @param modified Whether the list changed since the version held by the client. A page of a list that did not
+     *                 change has no course.
+     */
+    public CoursePage(ArrayList<Course> courses, int offset, int total, String version, boolean modified) {
+        this.courses = courses;
+        this.offset = offset;
+        this.total = total;
+        this.version = version;
+        this.modified = modified;
+    }
+
+    /**
+     * Returns the courses of the page.
+     *
+     * @return The courses of the page.
+     */
+    public ArrayList<Course> getCourses() {
+        return courses;
+    }
+
+    /**
+     * Returns the position of the first course of the page in the whole list.
+     *
+     * @return The position of the first course of the page.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the number of courses in the whole list.
+     *
+     * @return The number of courses in the whole list.
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns the version of the whole list, which the client sends back to only receive the list if it changed.
+     *
+     * @return The version of the whole list.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns whether the list changed since the version held by the client. If it did not, the page has no course and
+     * the client keeps the list it holds.
+     *
+     * @return Whether the list changed.
+     */
+    public boolean isModified() {
+        return modified;
+    }
+
+    /**
+     * Returns whether the page ends the whole list.
+     *
+     * @return Whether no course follows the page.
+     */
+    public boolean isLast() {
+        return !modified || offset + courses.size() >= total;
+    }
+
+    /**
+     * Returns a string representation of the page.
+     *
+     * @return A string representation of the page.
+     */
+    @Override
+    public String toString() {
+        return "CoursePage{" + "offset=" + offset + ", total=" + total + ", version=" + version + ", modified=" + modified + ", courses=" + courses + '}';
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server.models;
+
+import java.io.Serializable;
+
+/**
+ * The RegistrationResult class represents the outcome of one registration of a batch.
+ * <p>
+ * It tells whether the registration was accepted along with the message of the server.
+ */
+public class RegistrationResult implements Serializable {
+    /**
+     * Whether the registration was accepted.
+     */
+    private final boolean successful;
+    /**
+     * The message of the server, either a confirmation or the reason why the registration was rejected.
+     */
+    private final String message;
+
+    /**
+     * Creates a new RegistrationResult object.
+     *
+     * @param successful Whether the registration was accepted.
+     * @param message    The message of the server.
+     */
+    public RegistrationResult(boolean successful, String message) {
+        this.successful = successful;
+        this.message = message;
+    }
+
+    /**
+     * Returns whether the registration was accepted.
+     *
+     * @return Whether the registration was accepted.
+     */
+    public boolean isSuccessful() {
+        return successful;
+    }
+
+    /**
+     * Returns the message of the server.
+     *
+     * @return The message of the server.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns a string representation of the result.
+     *
+     * @return A string representation of the result.
+     */
+    @Override
+    public String toString() {
+        return "RegistrationResult{" + "successful=" + successful + ", message=" + message + '}';
+    }
+}
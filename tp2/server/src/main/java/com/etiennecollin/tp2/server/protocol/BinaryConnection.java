@@ -0,0 +1,407 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server.protocol;
+
+import com.etiennecollin.tp2.server.models.Course;
+import com.etiennecollin.tp2.server.models.CoursePage;
+import com.etiennecollin.tp2.server.models.RegistrationForm;
+import com.etiennecollin.tp2.server.models.RegistrationResult;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+
+/**
+ * The BinaryConnection class connects to the server with the {@link Protocol binary protocol}.
+ * <p>
+ * The requests are written by the calling thread while a reader thread completes their replies, so that many
+ * requests may be waiting for their reply at once. From version {@link Protocol#PIPELINING_VERSION 2} of the protocol
+ * on, the replies are matched to the requests by their correlation identifier. Before, the server answers the requests
+ * in order.
+ * <p>
+ * From version {@link Protocol#COMPRESSION_VERSION 3} on, the connection accepts compressed replies, and compresses
+ * the large requests, such as batches of registrations, if the server accepts it. From version
+ * {@link Protocol#THROTTLING_VERSION 4} on, the requests rejected by the rate limit of the server fail with a
+ * {@link ServerThrottledException}. From version {@link Protocol#GOODBYE_VERSION 5} on, once the server tells that it is
+ * shutting down, the new requests other than disconnections fail at once.
+ */
+final class BinaryConnection extends ServerConnection {
+    /**
+     * The time in milliseconds after which the handshake is considered rejected by the server.
+     */
+    private static final int HANDSHAKE_TIMEOUT = 5000;
+    /**
+     * The size in bytes from which the payload of a request is compressed.
+     */
+    private static final int COMPRESSION_THRESHOLD = 1024;
+    /**
+     * Represents the input stream of the client socket.
+     */
+    private final DataInputStream inputStream;
+    /**
+     * Represents the output stream of the client socket.
+     */
+    private final DataOutputStream outputStream;
+    /**
+     * The version of the protocol negotiated with the server.
+     */
+    private final byte version;
+    /**
+     * Whether the requests to the server may be compressed.
+     */
+    private final boolean compressed;
+    /**
+     * The requests waiting for their reply, keyed by correlation identifier.
+     */
+    private final ConcurrentSkipListMap<Integer, CompletableFuture<Frame>> pending = new ConcurrentSkipListMap<>();
+    /**
+     * The consumers of the pages of the requests answered with a stream of {@link Protocol#PAGE PAGE} frames, keyed by
+     * correlation identifier.
+     */
+    private final ConcurrentHashMap<Integer, Consumer<CoursePage>> streams = new ConcurrentHashMap<>();
+    /**
+     * The correlation identifier of the next request, which skips the {@link Protocol#UNSOLICITED_ID unsolicited
+     * identifier} when it wraps around. Guarded by the output stream.
+     */
+    private int nextId = 0;
+    /**
+     * The reason why no more replies can be received, or null while the connection is open.
+     */
+    private volatile IOException failure;
+    /**
+     * The message of the server telling that it is shutting down, or null while it is running.
+     */
+    private volatile String goodbye;
+
+    /**
+     * Performs the handshake with the server.
+     *
+     * @param socket The client socket, connected to the server.
+     *
+     * @throws IOException If the server does not answer the handshake or if an I/O error occurs.
+     */
+    BinaryConnection(Socket socket) throws IOException {
+        super(socket);
+        this.inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        // Send the handshake
+        outputStream.writeInt(Protocol.MAGIC);
+        outputStream.writeByte(Protocol.VERSION);
+        outputStream.flush();
+
+        // Wait for the server to accept it
+        socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+        if (inputStream.readInt() != Protocol.MAGIC) {
+            throw new StreamCorruptedException("The server does not speak the binary protocol.");
+        }
+        this.version = inputStream.readByte();
+        if (version < 1 || version > Protocol.VERSION) {
+            throw new StreamCorruptedException("The server chose the unsupported protocol version " + version + ".");
+        }
+
+        // From version 3 on, read the capabilities offered by the server and answer with the accepted ones
+        if (version >= Protocol.COMPRESSION_VERSION) {
+            this.compressed = (inputStream.readByte() & Protocol.DEFLATE) != 0;
+            outputStream.writeByte(Protocol.DEFLATE);
+            outputStream.flush();
+        } else {
+            this.compressed = false;
+        }
+        socket.setSoTimeout(0);
+
+        Thread.ofVirtual().name("server-reader").start(this::readReplies);
+    }
+
+    @Override
+    public String getProtocolName() {
+        return "binary v" + version;
+    }
+
+    @Override
+    public ArrayList<Course> loadCourses(String semester) throws IOException {
+        return await(loadCoursesAsync(semester));
+    }
+
+    @Override
+    public CoursePage loadCoursePage(String semester, int offset, int limit) throws IOException {
+        return await(loadCoursePageAsync(semester, offset, limit));
+    }
+
+    @Override
+    public CompletableFuture<CoursePage> loadCoursePageAsync(String semester, int offset, int limit) {
+        String argument = offset + " " + limit + (semester.isEmpty() ? "" : " " + semester);
+        return request(Protocol.LOAD_PAGE, argument, null).thenApply(frame -> decode(frame, Protocol.PAGE, Protocol::readPage));
+    }
+
+    @Override
+    public CompletableFuture<Void> streamCourses(String semester, String version, Consumer<CoursePage> pages) {
+        byte type = version == null ? Protocol.LOAD_STREAM : Protocol.LOAD_IF_MODIFIED;
+        String argument = version == null ? semester : semester.isEmpty() ? version : version + " " + semester;
+
+        // The pages are handed to the consumer by the reader thread, the reply being completed by the last one
+        return request(type, argument, null, pages).thenApply(frame -> frame.getType() == Protocol.PAGE ? null : decode(frame, Protocol.PAGE, payload -> null));
+    }
+
+    @Override
+    public ArrayList<Course> searchCourses(String query) throws IOException {
+        return await(searchCoursesAsync(query));
+    }
+
+    @Override
+    public String register(RegistrationForm form) throws IOException {
+        return await(registerAsync(form));
+    }
+
+    @Override
+    public ArrayList<RegistrationResult> registerAll(List<RegistrationForm> forms) throws IOException {
+        return await(request(Protocol.REGISTER_BATCH, "", forms).thenApply(frame -> decode(frame, Protocol.RESULTS, Protocol::readResults)));
+    }
+
+    @Override
+    public CompletableFuture<ArrayList<Course>> loadCoursesAsync(String semester) {
+        return request(Protocol.LOAD, semester, null).thenApply(frame -> decode(frame, Protocol.COURSES, Protocol::readCourses));
+    }
+
+    @Override
+    public String getStats() throws IOException {
+        return await(request(Protocol.STATS, "", null).thenApply(frame -> decode(frame, Protocol.MESSAGE, DataInput::readUTF)));
+    }
+
+    @Override
+    public String shutdown() throws IOException {
+        return await(request(Protocol.SHUTDOWN, "", null).thenApply(frame -> decode(frame, Protocol.MESSAGE, DataInput::readUTF)));
+    }
+
+    @Override
+    public CompletableFuture<ArrayList<Course>> searchCoursesAsync(String query) {
+        return request(Protocol.SEARCH, query, null).thenApply(frame -> decode(frame, Protocol.COURSES, Protocol::readCourses));
+    }
+
+    @Override
+    public CompletableFuture<String> registerAsync(RegistrationForm form) {
+        return request(Protocol.REGISTER, "", List.of(form)).thenApply(frame -> decode(frame, Protocol.MESSAGE, DataInput::readUTF));
+    }
+
+    @Override
+    public String disconnect() throws IOException {
+        return await(request(Protocol.DISCONNECT, "", null).thenApply(frame -> decode(frame, Protocol.MESSAGE, DataInput::readUTF)));
+    }
+
+    /**
+     * Sends a request frame to the server without waiting for its reply.
+     *
+     * @param type     The type of the request.
+     * @param argument The argument of the request.
+     * @param forms    The registration forms sent as the body of the request, as a single form for a
+     *                 {@link Protocol#REGISTER REGISTER} request or as a list for a
+     *                 {@link Protocol#REGISTER_BATCH REGISTER_BATCH} request, or null.
+     *
+     * @return The reply of the server, completed by the reader thread.
+     */
+    private CompletableFuture<Frame> request(byte type, String argument, List<RegistrationForm> forms) {
+        return request(type, argument, forms, null);
+    }
+
+    /**
+     * Sends a request frame to the server without waiting for its reply, which may be made of many frames.
+     *
+     * @param type     The type of the request.
+     * @param argument The argument of the request.
+     * @param forms    The registration forms sent as the body of the request, as a single form for a
+     *                 {@link Protocol#REGISTER REGISTER} request or as a list for a
+     *                 {@link Protocol#REGISTER_BATCH REGISTER_BATCH} request, or null.
+     * @param stream   Receives the pages of a reply made of a stream of {@link Protocol#PAGE PAGE} frames, or null if
+     *                 the reply is a single frame.
+     *
+     * @return The last frame of the reply of the server, completed by the reader thread.
+     */
+    private CompletableFuture<Frame> request(byte type, String argument, List<RegistrationForm> forms, Consumer<CoursePage> stream) {
+        CompletableFuture<Frame> reply = new CompletableFuture<>();
+        try {
+            // The server would close the connection instead of answering
+            String goodbye = this.goodbye;
+            if (goodbye != null && type != Protocol.DISCONNECT) {
+                throw new ServerErrorException(goodbye);
+            }
+
+            // Encode the request
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream payload = new DataOutputStream(bytes);
+            payload.writeUTF(argument);
+            if (type == Protocol.REGISTER) {
+                Protocol.writeRegistrationForm(payload, forms.get(0));
+            } else if (type == Protocol.REGISTER_BATCH) {
+                Protocol.writeRegistrationForms(payload, forms);
+            }
+            byte[] body = bytes.toByteArray();
+            byte frameType = type;
+            if (compressed && body.length >= COMPRESSION_THRESHOLD) {
+                byte[] compressedBody = Protocol.compress(body, Deflater.BEST_SPEED);
+                if (compressedBody != null) {
+                    body = compressedBody;
+                    frameType |= Protocol.COMPRESSED;
+                }
+            }
+
+            // Register the reply before sending the request, as the reader may receive it right away
+            synchronized (outputStream) {
+                if (nextId == Protocol.UNSOLICITED_ID) {
+                    nextId++;
+                }
+                int id = nextId++;
+                pending.put(id, reply);
+                if (stream != null) {
+                    streams.put(id, stream);
+                }
+                if (failure != null) {
+                    pending.remove(id);
+                    streams.remove(id);
+                    throw failure;
+                }
+                Protocol.writeFrame(outputStream, version, frameType, id, body);
+            }
+        } catch (IOException e) {
+            reply.completeExceptionally(e);
+        }
+        return reply;
+    }
+
+    /**
+     * Reads the replies of the server and completes the matching requests until the connection is closed. Runs on the
+     * reader thread.
+     */
+    private void readReplies() {
+        try {
+            while (true) {
+                Frame frame = Protocol.readFrame(inputStream, version);
+                if (frame.getType() == Protocol.GOODBYE) {
+                    goodbye = frame.getPayload().readUTF();
+                    continue;
+                }
+                int id = version >= Protocol.PIPELINING_VERSION ? frame.getId() : pending.isEmpty() ? -1 : pending.firstKey();
+                CompletableFuture<Frame> reply = pending.get(id);
+                if (reply == null) {
+                    throw new StreamCorruptedException("Unexpected reply with identifier " + frame.getId() + ".");
+                }
+
+                // Hand the pages of a stream to its consumer until the last one
+                Consumer<CoursePage> stream = streams.get(id);
+                if (stream != null && frame.getType() == Protocol.PAGE) {
+                    CoursePage page = Protocol.readPage(frame.getPayload());
+                    try {
+                        stream.accept(page);
+                    } catch (RuntimeException e) {
+                        // Fail the request, then skip the rest of its pages
+                        reply.completeExceptionally(e);
+                        streams.put(id, skipped -> {
+                        });
+                    }
+                    if (!page.isLast()) {
+                        continue;
+                    }
+                }
+                streams.remove(id);
+                pending.remove(id);
+                reply.complete(frame);
+            }
+        } catch (IOException e) {
+            failure = e instanceof EOFException ? new EOFException("The server closed the connection.") : e;
+        }
+
+        // Fail the requests that will never get a reply
+        synchronized (outputStream) {
+            for (CompletableFuture<Frame> reply : pending.values()) {
+                reply.completeExceptionally(failure);
+            }
+            pending.clear();
+            streams.clear();
+        }
+    }
+
+    /**
+     * Decodes the payload of a reply.
+     *
+     * @param frame    The reply.
+     * @param expected The expected type of the reply.
+     * @param decoder  Decodes the payload of the reply.
+     * @param <T>      The type of the decoded payload.
+     *
+     * @return The decoded payload.
+     *
+     * @throws CompletionException Wrapping a {@link ServerErrorException} if the server replied with an error, which is
+     *                             a {@link ServerThrottledException} if the request was throttled, or an
+     *                             {@link IOException} if the reply is not of the expected type or is malformed.
+     */
+    private static <T> T decode(Frame frame, byte expected, Decoder<T> decoder) {
+        try {
+            if (frame.getType() == Protocol.ERROR) {
+                throw new ServerErrorException(frame.getPayload().readUTF());
+            } else if (frame.getType() == Protocol.THROTTLED) {
+                int retryAfter = frame.getPayload().readInt();
+                throw new ServerThrottledException(frame.getPayload().readUTF(), retryAfter);
+            } else if (frame.getType() != expected) {
+                throw new StreamCorruptedException("Unexpected reply of type " + frame.getType() + ".");
+            }
+            return decoder.decode(frame.getPayload());
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Waits for the reply to a request.
+     *
+     * @param reply The reply.
+     * @param <T>   The type of the reply.
+     *
+     * @return The reply.
+     *
+     * @throws IOException If the request failed.
+     */
+    private static <T> T await(CompletableFuture<T> reply) throws IOException {
+        try {
+            return reply.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the server.");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        outputStream.close();
+        inputStream.close();
+        super.close();
+    }
+
+    /**
+     * Decodes the payload of a reply.
+     *
+     * @param <T> The type of the decoded payload.
+     */
+    @FunctionalInterface
+    private interface Decoder<T> {
+        /**
+         * Decodes the payload of a reply.
+         *
+         * @param payload The payload.
+         *
+         * @return The decoded payload.
+         *
+         * @throws IOException If the payload is malformed.
+         */
+        T decode(DataInputStream payload) throws IOException;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+
+/**
+ * The Frame class represents a frame of the {@link Protocol binary protocol} that was read from a stream.
+ */
+public final class Frame {
+    /**
+     * The type of the frame.
+     */
+    private final byte type;
+    /**
+     * The correlation identifier of the frame.
+     */
+    private final int id;
+    /**
+     * The payload of the frame.
+     */
+    private final DataInputStream payload;
+    /**
+     * The length in bytes of the payload of the frame, once decompressed.
+     */
+    private final int length;
+
+    /**
+     * Creates a frame.
+     *
+     * @param type    The type of the frame.
+     * @param id      The correlation identifier of the frame.
+     * @param payload The payload of the frame.
+     */
+    Frame(byte type, int id, byte[] payload) {
+        this.type = type;
+        this.id = id;
+        this.payload = new DataInputStream(new ByteArrayInputStream(payload));
+        this.length = payload.length;
+    }
+
+    /**
+     * Returns the type of the frame.
+     *
+     * @return The type of the frame.
+     */
+    public byte getType() {
+        return type;
+    }
+
+    /**
+     * Returns the correlation identifier of the frame.
+     *
+     * @return The correlation identifier, always 0 before version 2 of the protocol.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Returns the payload of the frame, from which the content of the frame is decoded.
+     *
+     * @return The payload of the frame.
+     */
+    public DataInputStream getPayload() {
+        return payload;
+    }
+
+    /**
+     * Returns the length of the payload of the frame, once decompressed.
+     *
+     * @return The length of the payload in bytes.
+     */
+    public int getLength() {
+        return length;
+    }
+}
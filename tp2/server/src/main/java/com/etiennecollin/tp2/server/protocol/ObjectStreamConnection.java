@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server.protocol;
+
+import com.etiennecollin.tp2.server.models.Course;
+import com.etiennecollin.tp2.server.models.CoursePage;
+import com.etiennecollin.tp2.server.models.RegistrationForm;
+import com.etiennecollin.tp2.server.models.RegistrationResult;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import static com.etiennecollin.tp2.server.Server.*;
+
+/**
+ * The ObjectStreamConnection class connects to the server with the exchange of serialized Java objects.
+ */
+final class ObjectStreamConnection extends ServerConnection {
+    /**
+     * Represents the input stream of the client socket.
+     */
+    private final ObjectInputStream objectInputStream;
+    /**
+     * Represents the output stream of the client socket.
+     */
+    private final ObjectOutputStream objectOutputStream;
+
+    /**
+     * Creates the object streams over the given socket.
+     *
+     * @param socket The client socket, connected to the server.
+     *
+     * @throws IOException If an I/O error occurs when creating the object streams.
+     */
+    ObjectStreamConnection(Socket socket) throws IOException {
+        super(socket);
+        // The streams are buffered, as the object streams read and write the objects a few bytes at a time
+        this.objectOutputStream = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.objectOutputStream.flush();
+        this.objectInputStream = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+    }
+
+    @Override
+    public String getProtocolName() {
+        return "object stream";
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public ArrayList<Course> loadCourses(String semester) throws IOException {
+        send(semester.isEmpty() ? LOAD_COMMAND : LOAD_COMMAND + " " + semester);
+        return (ArrayList<Course>) receive();
+    }
+
+    @Override
+    public CoursePage loadCoursePage(String semester, int offset, int limit) throws IOException {
+        send(LOAD_PAGE_COMMAND + " " + offset + " " + limit + (semester.isEmpty() ? "" : " " + semester));
+        return receivePage();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The objects are exchanged in lock-step, so every page is received before returning.
+     */
+    @Override
+    public CompletableFuture<Void> streamCourses(String semester, String version, Consumer<CoursePage> pages) {
+        try {
+            String argument = version == null ? semester : semester.isEmpty() ? version : version + " " + semester;
+            String command = version == null ? LOAD_STREAM_COMMAND : LOAD_IF_MODIFIED_COMMAND;
+            send(argument.isEmpty() ? command : command + " " + argument);
+            RuntimeException failure = null;
+            CoursePage page;
+            do {
+                page = receivePage();
+                try {
+                    if (failure == null) {
+                        pages.accept(page);
+                    }
+                } catch (RuntimeException e) {
+                    // Skip the rest of the pages so that the stream stays in sync
+                    failure = e;
+                }
+            } while (!page.isLast());
+            return failure == null ? CompletableFuture.completedFuture(null) : CompletableFuture.failedFuture(failure);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public ArrayList<Course> searchCourses(String query) throws IOException {
+        send(SEARCH_COMMAND + " " + query);
+
+        Object reply = receive();
+        if (reply instanceof String message) {
+            throw new ServerErrorException(message);
+        }
+        return (ArrayList<Course>) reply;
+    }
+
+    @Override
+    public String register(RegistrationForm form) throws IOException {
+        send(REGISTER_COMMAND, form);
+        return (String) receive();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public ArrayList<RegistrationResult> registerAll(List<RegistrationForm> forms) throws IOException {
+        send(REGISTER_BATCH_COMMAND, new ArrayList<>(forms));
+        // Do not keep the forms referenced by the stream
+        objectOutputStream.reset();
+
+        Object reply = receive();
+        if (reply instanceof String message) {
+            throw new ServerErrorException(message);
+        }
+        return (ArrayList<RegistrationResult>) reply;
+    }
+
+    @Override
+    public String getStats() throws IOException {
+        send(STATS_COMMAND);
+        return (String) receive();
+    }
+
+    @Override
+    public String shutdown() throws IOException {
+        send(SHUTDOWN_COMMAND);
+        return (String) receive();
+    }
+
+    @Override
+    public String disconnect() throws IOException {
+        send(DISCONNECT_COMMAND);
+        return (String) receive();
+    }
+
+    @Override
+    public void close() throws IOException {
+        objectOutputStream.close();
+        objectInputStream.close();
+        super.close();
+    }
+
+    /**
+     * Sends objects to the server. The objects are flushed together, as a request sent in many small writes would wait
+     * for the server to acknowledge each of them.
+     *
+     * @param objects The objects to send.
+     *
+     * @throws IOException If an I/O error occurs when writing to the server.
+     */
+    private void send(Object... objects) throws IOException {
+        for (Object object : objects) {
+            objectOutputStream.writeObject(object);
+        }
+        objectOutputStream.flush();
+    }
+
+    /**
+     * Receives a page of courses from the server.
+     *
+     * @return The page of courses.
+     *
+     * @throws ServerErrorException If the server replied with an error.
+     * @throws IOException          If an I/O error occurs when reading from the server or if the reply is not a page.
+     */
+    private CoursePage receivePage() throws IOException {
+        Object reply = receive();
+        if (reply instanceof String message) {
+            throw new ServerErrorException(message);
+        } else if (!(reply instanceof CoursePage page)) {
+            throw new StreamCorruptedException("Expected a page of courses.");
+        } else {
+            return page;
+        }
+    }
+
+    /**
+     * Receives an object from the server.
+     *
+     * @return The object sent by the server.
+     *
+     * @throws IOException If an I/O error occurs when reading from the server or if the object is of an unknown class.
+     */
+    private Object receive() throws IOException {
+        try {
+            return objectInputStream.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new StreamCorruptedException(e.getMessage());
+        }
+    }
+}
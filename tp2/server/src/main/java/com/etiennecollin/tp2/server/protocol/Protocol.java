@@ -0,0 +1,610 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server.protocol;
+
+import com.etiennecollin.tp2.server.models.Course;
+import com.etiennecollin.tp2.server.models.CoursePage;
+import com.etiennecollin.tp2.server.models.RegistrationForm;
+import com.etiennecollin.tp2.server.models.RegistrationResult;
+import com.etiennecollin.tp2.server.models.Student;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The Protocol class describes the binary protocol spoken between the server and its clients, as an alternative to
+ * the exchange of serialized Java objects.
+ * <p>
+ * A client opens the connection with a handshake made of the {@link #MAGIC magic number} and the highest version of
+ * the protocol it supports. The server answers with the magic number and the version that will be used. The client
+ * and the server then exchange frames, each made of the length of the rest of the frame, a type, a correlation
+ * identifier and a payload:
+ * <pre>
+ * frame   := length:int type:byte id:int payload
+ * request := argument:utf body
+ * </pre>
+ * The server replies to a request with a frame carrying the identifier of the request. From version 2 on, a client may
+ * send many requests without waiting for their replies, and the server may reply to them in any order. Version 1
+ * frames have no identifier and are answered in order.
+ * <p>
+ * From version 3 on, the server follows the version with the capabilities it offers, and the client answers with the
+ * capabilities it accepts before its first frame. Once both peers accept {@link #DEFLATE Deflate}, either of them may
+ * compress the payload of a frame, which is then flagged by the {@link #COMPRESSED high bit} of its type and prefixed
+ * by its uncompressed length:
+ * <pre>
+ * compressed := length:int deflated
+ * </pre>
+ * <p>
+ * From version 4 on, the server answers a request exceeding the rate limit of the client with a
+ * {@link #THROTTLED THROTTLED} frame telling when it may be retried, instead of an {@link #ERROR ERROR} frame. From
+ * version 5 on, the server sends a {@link #GOODBYE GOODBYE} frame when it shuts down.
+ * <p>
+ * Strings are encoded in modified UTF-8 as done by {@link DataOutput#writeUTF(String)}.
+ */
+public final class Protocol {
+    /**
+     * The magic number opening the handshake, the ASCII encoding of {@code TP2B}. Its first two bytes differ from the
+     * header of an object stream, which lets the server tell the protocols apart.
+     */
+    public static final int MAGIC = 0x54503242;
+    /**
+     * The highest version of the protocol supported by this implementation.
+     */
+    public static final byte VERSION = 5;
+    /**
+     * The first version of the protocol whose frames carry a correlation identifier.
+     */
+    public static final byte PIPELINING_VERSION = 2;
+    /**
+     * The first version of the protocol whose handshake negotiates the compression of the frames.
+     */
+    public static final byte COMPRESSION_VERSION = 3;
+    /**
+     * The first version of the protocol in which the server rejects the throttled requests with a
+     * {@link #THROTTLED THROTTLED} frame.
+     */
+    public static final byte THROTTLING_VERSION = 4;
+    /**
+     * The first version of the protocol in which the server sends a {@link #GOODBYE GOODBYE} frame when it shuts down.
+     */
+    public static final byte GOODBYE_VERSION = 5;
+    /**
+     * Capability of the handshake telling that the peer accepts payloads compressed with Deflate.
+     */
+    public static final byte DEFLATE = 1;
+    /**
+     * Flag set on the type of a frame whose payload is compressed.
+     */
+    public static final byte COMPRESSED = (byte) 0x80;
+    /**
+     * The first two bytes written by an {@link ObjectOutputStream}.
+     */
+    public static final int OBJECT_STREAM_MAGIC = 0xACED;
+    /**
+     * The correlation identifier of the frames sent by the server without being requested. It is never given to a
+     * request.
+     */
+    public static final int UNSOLICITED_ID = -1;
+    /**
+     * The maximum length of a frame accepted by a reader.
+     */
+    public static final int MAX_FRAME_LENGTH = 16 << 20;
+    /**
+     * Request frame asking to register a student to a course. The body is a registration form.
+     */
+    public static final byte REGISTER = 1;
+    /**
+     * Request frame asking for the available courses. The argument is the semester, or an empty string.
+     */
+    public static final byte LOAD = 2;
+    /**
+     * Request frame asking to disconnect.
+     */
+    public static final byte DISCONNECT = 3;
+    /**
+     * Request frame asking to register many students at once. The body is a list of registration forms.
+     */
+    public static final byte REGISTER_BATCH = 4;
+    /**
+     * Request frame asking for the courses whose code starts with the argument or whose name contains it. The reply is
+     * a {@link #COURSES COURSES} frame.
+     */
+    public static final byte SEARCH = 5;
+    /**
+     * Request frame asking for a page of the available courses. The argument is the offset of the page, its maximum
+     * number of courses and optionally the semester, separated by spaces. The reply is a {@link #PAGE PAGE} frame.
+     */
+    public static final byte LOAD_PAGE = 6;
+    /**
+     * Request frame asking for the available courses as a stream of {@link #PAGE PAGE} frames, all carrying the
+     * identifier of the request. The argument is the semester, or an empty string. The stream ends with the page
+     * reaching the total number of courses.
+     */
+    public static final byte LOAD_STREAM = 7;
+    /**
+     * Request frame asking for the available courses as a stream of {@link #PAGE PAGE} frames like
+     * {@link #LOAD_STREAM LOAD_STREAM}, unless they did not change since the given version. The argument is the version
+     * held by the client, optionally followed by a space and the semester. If the courses did not change, the reply is
+     * a single page that is not modified.
+     */
+    public static final byte LOAD_IF_MODIFIED = 8;
+    /**
+     * Request frame asking for the statistics of the server. The reply is a {@link #MESSAGE MESSAGE} frame containing
+     * the statistics as a text table.
+     */
+    public static final byte STATS = 9;
+    /**
+     * Request frame asking the server to shut down, only accepted from the clients running on the machine of the
+     * server. The reply is a {@link #MESSAGE MESSAGE} frame confirming the shutdown.
+     */
+    public static final byte SHUTDOWN = 10;
+    /**
+     * Reply frame containing a message as a string.
+     */
+    public static final byte MESSAGE = 64;
+    /**
+     * Reply frame containing a list of courses.
+     */
+    public static final byte COURSES = 65;
+    /**
+     * Reply frame containing an error message as a string.
+     */
+    public static final byte ERROR = 66;
+    /**
+     * Reply frame containing a list of registration results, in the order of the registration forms of the request.
+     */
+    public static final byte RESULTS = 67;
+    /**
+     * Reply frame containing a page of courses, made of the version of the list, whether the list was modified since
+     * the version held by the client, the offset of the page, the total number of courses and the list of courses of
+     * the page.
+     */
+    public static final byte PAGE = 68;
+    /**
+     * Reply frame rejecting a request because the client exceeded its rate limit, made of the time in milliseconds
+     * after which the request may be retried and an error message as a string.
+     */
+    public static final byte THROTTLED = 69;
+    /**
+     * Frame sent by the server without being requested, with the {@link #UNSOLICITED_ID unsolicited identifier},
+     * telling the client that the server is shutting down and will close the connection once the requests already
+     * received are answered. It contains a message as a string.
+     */
+    public static final byte GOODBYE = 70;
+
+    /**
+     * Prevents the instantiation of the class.
+     */
+    private Protocol() {
+    }
+
+    /**
+     * Writes a frame to the output stream and flushes it.
+     *
+     * @param output  The output stream.
+     * @param version The version of the protocol spoken on the stream.
+     * @param type    The type of the frame.
+     * @param id      The correlation identifier of the frame, ignored before version 2.
+     * @param payload The payload of the frame.
+     *
+     * @throws IOException If an I/O error occurs when writing the frame.
+     */
+    public static void writeFrame(DataOutputStream output, byte version, byte type, int id, byte[] payload) throws IOException {
+        boolean hasId = version >= PIPELINING_VERSION;
+        output.writeInt(payload.length + (hasId ? 5 : 1));
+        output.writeByte(type);
+        if (hasId) {
+            output.writeInt(id);
+        }
+        output.write(payload);
+        output.flush();
+    }
+
+    /**
+     * Reads a frame from the input stream.
+     *
+     * @param input   The input stream.
+     * @param version The version of the protocol spoken on the stream.
+     *
+     * @return The frame.
+     *
+     * @throws EOFException             If the stream ends before the frame is complete.
+     * @throws StreamCorruptedException If the length of the frame is invalid or its compressed payload is corrupted.
+     * @throws IOException              If an I/O error occurs when reading the frame.
+     */
+    public static Frame readFrame(DataInputStream input, byte version) throws IOException {
+        boolean hasId = version >= PIPELINING_VERSION;
+        int length = input.readInt();
+        if (length < (hasId ? 5 : 1) || length > MAX_FRAME_LENGTH) {
+            throw new StreamCorruptedException("Invalid frame length " + length + ".");
+        }
+
+        byte type = input.readByte();
+        int id = hasId ? input.readInt() : 0;
+        byte[] payload = new byte[length - (hasId ? 5 : 1)];
+        input.readFully(payload);
+        if (version >= COMPRESSION_VERSION && (type & COMPRESSED) != 0) {
+            type &= ~COMPRESSED;
+            payload = decompress(payload);
+        }
+        return new Frame(type, id, payload);
+    }
+
+    /**
+     * Compresses the payload of a frame with Deflate. The compressed payload is sent in a frame whose type is flagged
+     * as {@link #COMPRESSED compressed}.
+     *
+     * @param payload The payload.
+     * @param level   The compression level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}.
+     *
+     * @return The compressed payload, or {@code null} if it is not shorter than the payload.
+     */
+    public static byte[] compress(byte[] payload, int level) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(payload);
+            deflater.finish();
+
+            // Give up as soon as the compressed payload is not shorter
+            byte[] compressed = new byte[payload.length];
+            int length = 4;
+            while (!deflater.finished() && length < compressed.length) {
+                length += deflater.deflate(compressed, length, compressed.length - length);
+            }
+            if (!deflater.finished()) {
+                return null;
+            }
+
+            compressed[0] = (byte) (payload.length >>> 24);
+            compressed[1] = (byte) (payload.length >>> 16);
+            compressed[2] = (byte) (payload.length >>> 8);
+            compressed[3] = (byte) payload.length;
+            return Arrays.copyOf(compressed, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompresses the payload of a frame flagged as {@link #COMPRESSED compressed}.
+     *
+     * @param compressed The compressed payload.
+     *
+     * @return The payload.
+     *
+     * @throws StreamCorruptedException If the compressed payload is corrupted.
+     */
+    private static byte[] decompress(byte[] compressed) throws StreamCorruptedException {
+        if (compressed.length < 4) {
+            throw new StreamCorruptedException("Invalid compressed payload.");
+        }
+        int length = (compressed[0] & 0xFF) << 24 | (compressed[1] & 0xFF) << 16 | (compressed[2] & 0xFF) << 8 | (compressed[3] & 0xFF);
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new StreamCorruptedException("Invalid uncompressed length " + length + ".");
+        }
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed, 4, compressed.length - 4);
+            // Leave room for one more byte to detect a payload longer than announced
+            byte[] payload = new byte[length + 1];
+            int read = 0;
+            while (!inflater.finished() && read <= length) {
+                int inflated = inflater.inflate(payload, read, payload.length - read);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += inflated;
+            }
+            if (!inflater.finished() || read != length) {
+                throw new StreamCorruptedException("Invalid compressed payload.");
+            }
+            return Arrays.copyOf(payload, length);
+        } catch (DataFormatException e) {
+            throw new StreamCorruptedException("Invalid compressed payload.");
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Encodes a string as a payload. A string longer than the 65535 bytes of a UTF string is truncated, as the
+     * messages of the server may quote what the client sent.
+     *
+     * @param value The string.
+     *
+     * @return The payload.
+     */
+    public static byte[] encodeString(String value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(value.length() + 2);
+        try {
+            new DataOutputStream(bytes).writeUTF(truncate(value));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encodes the payload of a {@link #THROTTLED THROTTLED} frame.
+     *
+     * @param retryAfter The time in milliseconds after which the request may be retried.
+     * @param message    The error message, truncated like the strings of {@link #encodeString(String)}.
+     *
+     * @return The payload.
+     */
+    public static byte[] encodeThrottled(int retryAfter, String message) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(message.length() + 6);
+        try {
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeInt(retryAfter);
+            output.writeUTF(truncate(message));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encodes a list of courses as a payload.
+     *
+     * @param courses The courses.
+     *
+     * @return The payload.
+     */
+    public static byte[] encodeCourses(List<Course> courses) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(courses.size() * 32 + 4);
+        try {
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeInt(courses.size());
+            for (Course course : courses) {
+                writeCourse(output, course);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a list of courses.
+     *
+     * @param input The input positioned on the list.
+     *
+     * @return The courses.
+     *
+     * @throws IOException If the list is malformed.
+     */
+    public static ArrayList<Course> readCourses(DataInput input) throws IOException {
+        int count = input.readInt();
+        if (count < 0) {
+            throw new StreamCorruptedException("Invalid number of courses " + count + ".");
+        }
+        ArrayList<Course> courses = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            courses.add(readCourse(input));
+        }
+        return courses;
+    }
+
+    /**
+     * Encodes a page of courses as a payload.
+     *
+     * @param courses  The courses of the page.
+     * @param offset   The position of the first course of the page in the whole list.
+     * @param total    The number of courses in the whole list.
+     * @param version  The version of the whole list.
+     * @param modified Whether the list changed since the version held by the client.
+     *
+     * @return The payload.
+     */
+    public static byte[] encodePage(List<Course> courses, int offset, int total, String version, boolean modified) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(courses.size() * 32 + version.length() + 15);
+        try {
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeUTF(version);
+            output.writeBoolean(modified);
+            output.writeInt(offset);
+            output.writeInt(total);
+            output.writeInt(courses.size());
+            for (Course course : courses) {
+                writeCourse(output, course);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a page of courses.
+     *
+     * @param input The input positioned on the page.
+     *
+     * @return The page.
+     *
+     * @throws IOException If the page is malformed.
+     */
+    public static CoursePage readPage(DataInput input) throws IOException {
+        String version = input.readUTF();
+        boolean modified = input.readBoolean();
+        int offset = input.readInt();
+        int total = input.readInt();
+        if (offset < 0 || total < 0) {
+            throw new StreamCorruptedException("Invalid page at offset " + offset + " of " + total + " courses.");
+        }
+        return new CoursePage(readCourses(input), offset, total, version, modified);
+    }
+
+    /**
+     * Writes a course.
+     *
+     * @param output The output.
+     * @param course The course.
+     *
+     * @throws IOException If an I/O error occurs when writing.
+     */
+    public static void writeCourse(DataOutput output, Course course) throws IOException {
+        output.writeUTF(course.getName());
+        output.writeUTF(course.getCode());
+        output.writeUTF(course.getSemester());
+    }
+
+    /**
+     * Reads a course.
+     *
+     * @param input The input positioned on the course.
+     *
+     * @return The course.
+     *
+     * @throws IOException If the course is malformed.
+     */
+    public static Course readCourse(DataInput input) throws IOException {
+        String name = input.readUTF();
+        String code = input.readUTF();
+        String semester = input.readUTF();
+        return new Course(name, code, semester);
+    }
+
+    /**
+     * Writes a registration form.
+     *
+     * @param output The output.
+     * @param form   The registration form.
+     *
+     * @throws IOException If an I/O error occurs when writing.
+     */
+    public static void writeRegistrationForm(DataOutput output, RegistrationForm form) throws IOException {
+        output.writeUTF(form.getFirstName());
+        output.writeUTF(form.getLastName());
+        output.writeUTF(form.getEmail());
+        output.writeUTF(form.getStudentID());
+        writeCourse(output, form.getCourse());
+    }
+
+    /**
+     * Reads a registration form.
+     *
+     * @param input The input positioned on the registration form.
+     *
+     * @return The registration form.
+     *
+     * @throws IOException If the registration form is malformed.
+     */
+    public static RegistrationForm readRegistrationForm(DataInput input) throws IOException {
+        String firstName = input.readUTF();
+        String lastName = input.readUTF();
+        String email = input.readUTF();
+        String studentID = input.readUTF();
+        Course course = readCourse(input);
+        return new RegistrationForm(new Student(firstName, lastName, email, studentID), course);
+    }
+
+    /**
+     * Writes a list of registration forms.
+     *
+     * @param output The output.
+     * @param forms  The registration forms.
+     *
+     * @throws IOException If an I/O error occurs when writing.
+     */
+    public static void writeRegistrationForms(DataOutput output, List<RegistrationForm> forms) throws IOException {
+        output.writeInt(forms.size());
+        for (RegistrationForm form : forms) {
+            writeRegistrationForm(output, form);
+        }
+    }
+
+    /**
+     * Reads a list of registration forms.
+     *
+     * @param input The input positioned on the list.
+     *
+     * @return The registration forms.
+     *
+     * @throws IOException If the list is malformed.
+     */
+    public static ArrayList<RegistrationForm> readRegistrationForms(DataInput input) throws IOException {
+        int count = input.readInt();
+        if (count < 0) {
+            throw new StreamCorruptedException("Invalid number of registration forms " + count + ".");
+        }
+        ArrayList<RegistrationForm> forms = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            forms.add(readRegistrationForm(input));
+        }
+        return forms;
+    }
+
+    /**
+     * Encodes a list of registration results as a payload. Their messages are truncated like the strings of
+     * {@link #encodeString(String)}.
+     *
+     * @param results The registration results.
+     *
+     * @return The payload.
+     */
+    public static byte[] encodeResults(List<RegistrationResult> results) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(results.size() * 64 + 4);
+        try {
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeInt(results.size());
+            for (RegistrationResult result : results) {
+                output.writeBoolean(result.isSuccessful());
+                output.writeUTF(truncate(result.getMessage()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Truncates a string so that it is at most 65535 bytes long once encoded in the modified UTF-8 of
+     * {@link DataOutputStream#writeUTF(String)}, without splitting a surrogate pair.
+     *
+     * @param value The string.
+     *
+     * @return The string, or its longest prefix that can be encoded.
+     */
+    private static String truncate(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+            if (length > 65535) {
+                return value.substring(0, Character.isLowSurrogate(c) && i > 0 ? i - 1 : i);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Decodes a list of registration results.
+     *
+     * @param input The input positioned on the list.
+     *
+     * @return The registration results.
+     *
+     * @throws IOException If the list is malformed.
+     */
+    public static ArrayList<RegistrationResult> readResults(DataInput input) throws IOException {
+        int count = input.readInt();
+        if (count < 0) {
+            throw new StreamCorruptedException("Invalid number of registration results " + count + ".");
+        }
+        ArrayList<RegistrationResult> results = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            boolean successful = input.readBoolean();
+            results.add(new RegistrationResult(successful, input.readUTF()));
+        }
+        return results;
+    }
+}
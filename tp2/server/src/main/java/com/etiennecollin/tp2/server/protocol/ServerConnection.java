@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server.protocol;
+
+import com.etiennecollin.tp2.server.models.Course;
+import com.etiennecollin.tp2.server.models.CoursePage;
+import com.etiennecollin.tp2.server.models.RegistrationForm;
+import com.etiennecollin.tp2.server.models.RegistrationResult;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * The ServerConnection class represents the connection of a client to the server.
+ * <p>
+ * A connection is opened with {@link #open(String, int) open()}, which negotiates the {@link Protocol binary protocol}
+ * with the server and falls back to the exchange of serialized Java objects if the server does not support it. The
+ * methods of the connection send a request to the server and wait for its reply, while their asynchronous variants
+ * return as soon as the request is sent when the protocol allows many requests to wait for their reply at once.
+ */
+public abstract class ServerConnection implements Closeable {
+    /**
+     * Represents the client socket.
+     */
+    final Socket socket;
+
+    /**
+     * Creates a connection over the given socket.
+     *
+     * @param socket The client socket, connected to the server.
+     */
+    ServerConnection(Socket socket) {
+        this.socket = socket;
+    }
+
+    /**
+     * Connects to the server, preferably with the binary protocol.
+     *
+     * @param host The host of the server.
+     * @param port The port of the server.
+     *
+     * @return The connection to the server.
+     *
+     * @throws IOException If the server cannot be reached.
+     */
+    public static ServerConnection open(String host, int port) throws IOException {
+        Socket socket = new Socket(host, port);
+        try {
+            return new BinaryConnection(socket);
+        } catch (IOException e) {
+            // The server does not speak the binary protocol and dropped the connection
+            socket.close();
+            return openObjectStream(host, port);
+        }
+    }
+
+    /**
+     * Connects to the server with the exchange of serialized Java objects.
+     *
+     * @param host The host of the server.
+     * @param port The port of the server.
+     *
+     * @return The connection to the server.
+     *
+     * @throws IOException If the server cannot be reached.
+     */
+    public static ServerConnection openObjectStream(String host, int port) throws IOException {
+        return new ObjectStreamConnection(new Socket(host, port));
+    }
+
+    /**
+     * Returns the name of the protocol spoken with the server.
+     *
+     * @return The name of the protocol.
+     */
+    public abstract String getProtocolName();
+
+    /**
+     * Asks the server for the available courses.
+     *
+     * @param semester The semester to filter the courses with, or an empty string for all the semesters.
+     *
+     * @return The available courses.
+     *
+     * @throws IOException If the request fails.
+     */
+    public abstract ArrayList<Course> loadCourses(String semester) throws IOException;
+
+    /**
+     * Asks the server for a page of the available courses.
+     *
+     * @param semester The semester to filter the courses with, or an empty string for all the semesters.
+     * @param offset   The position of the first course of the page.
+     * @param limit    The maximum number of courses of the page. The server may return fewer courses.
+     *
+     * @return The page of courses.
+     *
+     * @throws IOException If the request fails.
+     */
+    public abstract CoursePage loadCoursePage(String semester, int offset, int limit) throws IOException;
+
+    /**
+     * Asks the server for the available courses, which it sends as a stream of pages. Each page is handed to the
+     * consumer as soon as it is received, so that the first courses can be displayed before the last ones are sent.
+     * <p>
+     * The consumer is called by the thread receiving the replies, so it must not block.
+     *
+     * @param semester The semester to filter the courses with, or an empty string for all the semesters.
+     * @param pages    Receives the pages, in order.
+     *
+     * @return Completed once the last page is received, or with an {@link IOException} if the request fails.
+     */
+    public CompletableFuture<Void> streamCourses(String semester, Consumer<CoursePage> pages) {
+        return streamCourses(semester, null, pages);
+    }
+
+    /**
+     * Asks the server for the available courses unless they did not change since the given version, as done by
+     * {@link #streamCourses(String, Consumer)}. If the courses did not change, the consumer only receives a page that
+     * is not {@link CoursePage#isModified() modified}.
+     *
+     * @param semester The semester to filter the courses with, or an empty string for all the semesters.
+     * @param version  The {@link CoursePage#getVersion() version} of the courses held by the client, or null to
+     *                 receive the courses in any case.
+     * @param pages    Receives the pages, in order.
+     *
+     * @return Completed once the last page is received, or with an {@link IOException} if the request fails.
+     */
+    public abstract CompletableFuture<Void> streamCourses(String semester, String version, Consumer<CoursePage> pages);
+
+    /**
+     * Asks the server for the courses whose code starts with the query or whose name contains it, ignoring the case.
+     *
+     * @param query The query.
+     *
+     * @return The matching courses of every semester.
+     *
+     * @throws IOException If the request fails.
+     */
+    public abstract ArrayList<Course> searchCourses(String query) throws IOException;
+
+    /**
+     * Sends a registration form to the server.
+     *
+     * @param form The registration form.
+     *
+     * @return The answer of the server.
+     *
+     * @throws IOException If the request fails.
+     */
+    public abstract String register(RegistrationForm form) throws IOException;
+
+    /**
+     * Sends many registration forms to the server at once. The server validates each form and saves the valid ones
+     * together.
+     *
+     * @param forms The registration forms.
+     *
+     * @return The result of each registration, in the order of the forms.
+     *
+     * @throws IOException If the request fails.
+     */
+    public abstract ArrayList<RegistrationResult> registerAll(List<RegistrationForm> forms) throws IOException;
+
+    /**
+     * Asks the server for its statistics: the number of requests, errors and latency percentiles of each command, the
+     * time spent waiting on shared resources and the number of connected clients.
+     *
+     * @return The statistics of the server, as a text table.
+     *
+     * @throws IOException If the request fails.
+     */
+    public abstract String getStats() throws IOException;
+
+    /**
+     * Asks the server to shut down. The server only accepts it from the clients running on its machine, then stops
+     * accepting connections, answers the requests it already received and closes every connection.
+     *
+     * @return The confirmation of the server.
+     *
+     * @throws IOException If the request fails.
+     */
+    public abstract String shutdown() throws IOException;
+
+    /**
+     * Asks the server for the available courses without waiting for its reply.
+     * <p>
+     * By default, the request is sent and its reply is received before returning.
+     *
+     * @param semester The semester to filter the courses with, or an empty string for all the semesters.
+     *
+     * @return The available courses, or an {@link IOException} if the request fails.
+     */
+    public CompletableFuture<ArrayList<Course>> loadCoursesAsync(String semester) {
+        try {
+            return CompletableFuture.completedFuture(loadCourses(semester));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Asks the server for a page of the available courses without waiting for its reply.
+     * <p>
+     * By default, the request is sent and its reply is received before returning.
+     *
+     * @param semester The semester to filter the courses with, or an empty string for all the semesters.
+     * @param offset   The position of the first course of the page.
+     * @param limit    The maximum number of courses of the page. The server may return fewer courses.
+     *
+     * @return The page of courses, or an {@link IOException} if the request fails.
+     */
+    public CompletableFuture<CoursePage> loadCoursePageAsync(String semester, int offset, int limit) {
+        try {
+            return CompletableFuture.completedFuture(loadCoursePage(semester, offset, limit));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Asks the server for the courses matching a query without waiting for its reply.
+     * <p>
+     * By default, the request is sent and its reply is received before returning.
+     *
+     * @param query The query.
+     *
+     * @return The matching courses of every semester, or an {@link IOException} if the request fails.
+     */
+    public CompletableFuture<ArrayList<Course>> searchCoursesAsync(String query) {
+        try {
+            return CompletableFuture.completedFuture(searchCourses(query));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Sends a registration form to the server without waiting for its reply.
+     * <p>
+     * By default, the request is sent and its reply is received before returning.
+     *
+     * @param form The registration form.
+     *
+     * @return The answer of the server, or an {@link IOException} if the request fails.
+     */
+    public CompletableFuture<String> registerAsync(RegistrationForm form) {
+        try {
+            return CompletableFuture.completedFuture(register(form));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Tells the server that the client disconnects.
+     *
+     * @return The confirmation of the server.
+     *
+     * @throws IOException If the request fails.
+     */
+    public abstract String disconnect() throws IOException;
+
+    /**
+     * Closes the connection to the server.
+     *
+     * @throws IOException If an I/O error occurs when closing the socket.
+     */
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
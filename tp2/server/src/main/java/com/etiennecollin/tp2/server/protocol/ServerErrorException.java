@@ -0,0 +1,21 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server.protocol;
+
+import java.io.IOException;
+
+/**
+ * Signals that the server rejected a request of the client.
+ */
+public class ServerErrorException extends IOException {
+    /**
+     * Creates a new exception with the error message sent by the server.
+     *
+     * @param message The error message sent by the server.
+     */
+    public ServerErrorException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2023. Etienne Collin #20237904
+ */
+
+package com.etiennecollin.tp2.server.protocol;
+
+/**
+ * Signals that the server rejected a request because the client exceeded its rate limit.
+ */
+public class ServerThrottledException extends ServerErrorException {
+    /**
+     * The time in milliseconds after which the request may be retried.
+     */
+    private final int retryAfter;
+
+    /**
+     * Creates a new exception with the error message sent by the server.
+     *
+     * @param message    The error message sent by the server.
+     * @param retryAfter The time in milliseconds after which the request may be retried.
+     */
+    public ServerThrottledException(String message, int retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Returns the time after which the request may be retried.
+     *
+     * @return The time in milliseconds after which the request may be retried.
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -6,9 +6,14 @@
  * <p>
  * {@link com.etiennecollin.tp2.server.models} provides the necessary classes to create RegistrationForm, Student,
  * Course and Validator objects.
+ * <p>
+ * {@link com.etiennecollin.tp2.server.protocol} provides the necessary classes to speak the binary protocol of the
+ * server and to connect clients to it.
  */
 module server {
-    requires javafx.base;
+    requires jdk.net;
+
     exports com.etiennecollin.tp2.server;
     exports com.etiennecollin.tp2.server.models;
+    exports com.etiennecollin.tp2.server.protocol;
 }
\ No newline at end of file